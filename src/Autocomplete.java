@@ -1,14 +1,33 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.IntStream;
 
 public class Autocomplete implements IAutocomplete {
 
+    // default maximum number of suggestions, until buildTrie sets it
+    public static final int DEFAULT_K = 10;
+
+    // buildTrie builds the subtries of the first characters in parallel
+    // from this many words
+    static final int PARALLEL_THRESHOLD = 1 << 14;
+
     private final Node root;
+    // the maximum number of suggestions kept at each node
+    private int k;
 
     public Autocomplete() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the maximum number of suggestions kept at each node
+     */
+    public Autocomplete(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
         root = new Node();
+        this.k = k;
     }
 
     public Node getRoot() {
@@ -20,70 +39,346 @@ public class Autocomplete implements IAutocomplete {
         if (word == null || word.isEmpty()) {
             return;
         }
+        // check the word and its weight before changing the trie
+        if (!isValidWord(word)) {
+            return;
+        }
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight cannot be negative");
+        }
+        Node[] path = new Node[word.length() + 1];
+        path[0] = root;
         Node currentNode = root;
         for (int i = 0; i < word.length(); i++) {
-            char c = word.charAt(i);
-            int index = c - 'a';
-            if (index < 0 || index >= currentNode.getReferences().length) {
-                // handle the invalid index
-                return;
-            }
-
-            if (currentNode.getReferences()[index] == null) {
-                currentNode.getReferences()[index] = new Node();
+            Node child = currentNode.getChild(word.charAt(i));
+            if (child == null) {
+                child = new Node();
+                currentNode.setChild(word.charAt(i), child);
             }
 
-            currentNode = currentNode.getReferences()[index];
+            currentNode = child;
             currentNode.setPrefixes(currentNode.getPrefixes() + 1);
+            path[i + 1] = currentNode;
+        }
+        Term old = currentNode.getWords() > 0 ? currentNode.getTerm() : null;
+        Term term = new Term(word, weight);
+        currentNode.setTerm(term);
+        currentNode.setWords(currentNode.getWords() + 1);
+        root.setPrefixes(root.getPrefixes() + 1);
+
+        // update the top terms from the leaf up, so each node can be
+        // recomputed from its children if the word got lighter
+        for (int i = path.length - 1; i >= 0; i--) {
+            updateTopTerms(path[i], term, old);
+        }
+    }
 
-            if (i == word.length() - 1) {
-                currentNode.setTerm(new Term(word, weight));
-                currentNode.setWords(currentNode.getWords() + 1);
+    /**
+     * helper method to put a new or reweighted term in the top terms of a
+     * node on its path.
+     */
+    private void updateTopTerms(Node node, Term term, Term old) {
+        Term[] top = node.getTopTerms();
+        int at = -1;
+        for (int i = 0; old != null && i < top.length; i++) {
+            if (top[i].getTerm().equals(term.getTerm())) {
+                at = i;
+                break;
             }
         }
-        root.setPrefixes(root.getPrefixes() + 1);
+        if (at >= 0 && term.getWeight() < old.getWeight() && top.length == k) {
+            // a lighter term may now be beaten by one that was left out
+            node.setTopTerms(mergeTopTerms(node));
+            return;
+        }
+        List<Term> list = new ArrayList<>(Arrays.asList(top));
+        if (at >= 0) {
+            list.remove(at);
+        }
+        int pos = 0;
+        while (pos < list.size() && HEAVIEST_FIRST.compare(list.get(pos), term) < 0) {
+            pos++;
+        }
+        if (pos < k) {
+            list.add(pos, term);
+        }
+        node.setTopTerms(list.subList(0, Math.min(k, list.size())).toArray(new Term[0]));
+    }
+
+    /**
+     * helper method to compute the top terms of a node from its own term
+     * and the top terms of its children.
+     */
+    private Term[] mergeTopTerms(Node node) {
+        List<Term> list = new ArrayList<>();
+        if (node.getWords() > 0) {
+            list.add(node.getTerm());
+        }
+        for (Node child : node.getReferences()) {
+            list.addAll(Arrays.asList(child.getTopTerms()));
+        }
+        list.sort(HEAVIEST_FIRST);
+        return list.subList(0, Math.min(k, list.size())).toArray(new Term[0]);
     }
 
+    /**
+     * helper method to recompute the top terms of a whole subtrie, e.g.
+     * when k changes.
+     */
+    private void rebuildTopTerms(Node node) {
+        for (Node child : node.getReferences()) {
+            rebuildTopTerms(child);
+        }
+        node.setTopTerms(mergeTopTerms(node));
+    }
+
+    /**
+     * @param word a word
+     * @return true if the word is made of lowercase letters and digits, of
+     *         any script
+     */
+    static boolean isValidWord(String word) {
+        return word.codePoints().allMatch(Character::isLetterOrDigit)
+                && word.equals(word.toLowerCase());
+    }
+
+    // heaviest first, equal weights in lexicographic order
+    private static final Comparator<Term> HEAVIEST_FIRST = (t1, t2) -> {
+        int cmp = Long.compare(t2.getWeight(), t1.getWeight());
+        return cmp != 0 ? cmp : t1.getTerm().compareTo(t2.getTerm());
+    };
+
     @Override
     public Node buildTrie(String filename, int k) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            line = br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\s+");
-                if (parts.length == 1) {
-                    String word = parts[1].toLowerCase();
-                    long weight = Long.parseLong(parts[0]);
-                    addWord(word, weight);
-                }
-            }
+        try {
+            return load(filename, k);
         } catch (IOException e) {
             e.printStackTrace();
+            return root;
+        }
+    }
+
+    /**
+     * helper method to add the words of a file, as buildTrie does, but
+     * throwing the error if the file cannot be read. The file is read
+     * before the trie changes, so a failed load leaves it as it was.
+     */
+    Node load(String filename, int k) throws IOException {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        ArrayList<String> words = new ArrayList<>();
+        ArrayList<Long> weights = new ArrayList<>();
+        AutocompleteFile.read(filename, new AutocompleteFile.Visitor() {
+            @Override
+            public void count(int count) {
+                words.ensureCapacity(AutocompleteFile.capacity(count));
+                weights.ensureCapacity(AutocompleteFile.capacity(count));
+            }
+
+            @Override
+            public void word(String word, long weight) {
+                words.add(word);
+                weights.add(weight);
+            }
+        });
+        if (k != this.k) {
+            this.k = k;
+            rebuildTopTerms(root);
+        }
+        if (root.getChildCount() == 0 && isSorted(words)) {
+            addSorted(words, weights, words.size() >= PARALLEL_THRESHOLD);
+        } else {
+            for (int i = 0; i < words.size(); i++) {
+                addWord(words.get(i), weights.get(i));
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Fill an empty trie with words in strictly increasing lexicographic
+     * order, such as the ones of autocomplete.txt, in one pass: each word
+     * shares the nodes of its common prefix with the previous one, and the
+     * nodes the next word does not go through are finished bottom-up, their
+     * prefix counts and top terms computed from their children. Invalid
+     * words are skipped, as in addWord.
+     *
+     * @param words    the words, sorted
+     * @param weights  the weights of the words
+     * @param parallel true to build the subtries of the first characters
+     *                 in parallel
+     * @return the root of the trie
+     * @throws IllegalStateException    if the trie is not empty
+     * @throws IllegalArgumentException if the words are not sorted or a
+     *                                  weight is negative
+     */
+    public Node addSorted(List<String> words, List<Long> weights, boolean parallel) {
+        if (words.size() != weights.size()) {
+            throw new IllegalArgumentException("words and weights differ in size");
+        }
+        if (root.getChildCount() > 0) {
+            throw new IllegalStateException("the trie is not empty");
+        }
+        if (!isSorted(words)) {
+            throw new IllegalArgumentException("words must be sorted");
+        }
+        // check everything before changing the trie
+        List<Integer> valid = new ArrayList<>(words.size());
+        for (int i = 0; i < words.size(); i++) {
+            if (weights.get(i) < 0) {
+                throw new IllegalArgumentException("weight cannot be negative");
+            }
+            if (!words.get(i).isEmpty() && isValidWord(words.get(i))) {
+                valid.add(i);
+            }
+        }
+        // 1. split the words by first character
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < valid.size(); i++) {
+            if (i == 0 || words.get(valid.get(i)).charAt(0)
+                    != words.get(valid.get(i - 1)).charAt(0)) {
+                starts.add(i);
+            }
         }
+        starts.add(valid.size());
+        // 2. build their subtries
+        IntStream ranges = IntStream.range(0, starts.size() - 1);
+        Node[] subTries = (parallel ? ranges.parallel() : ranges)
+                .mapToObj(r -> buildSorted(words, weights, valid, starts.get(r), starts.get(r + 1)))
+                .toArray(Node[]::new);
+        // 3. attach them to the root
+        for (int r = 0; r < subTries.length; r++) {
+            root.setChild(words.get(valid.get(starts.get(r))).charAt(0), subTries[r]);
+            root.setPrefixes(root.getPrefixes() + subTries[r].getPrefixes());
+        }
+        root.setTopTerms(mergeTopTerms(root));
         return root;
     }
 
+    /**
+     * helper method to build the subtrie of the words valid[from, to),
+     * which start with the same character.
+     *
+     * @return the node of that character
+     */
+    private Node buildSorted(List<String> words, List<Long> weights, List<Integer> valid,
+            int from, int to) {
+        // path[i] is the node of the first i + 1 characters of the previous
+        // word
+        List<Node> path = new ArrayList<>();
+        path.add(new Node());
+        String previous = null;
+        for (int i = from; i < to; i++) {
+            String word = words.get(valid.get(i));
+            int common = 1;
+            if (previous != null) {
+                while (common < previous.length() && common < word.length()
+                        && previous.charAt(common) == word.charAt(common)) {
+                    common++;
+                }
+                finish(path, previous, common);
+            }
+            for (int d = common; d < word.length(); d++) {
+                path.add(new Node());
+            }
+            Node node = path.get(word.length() - 1);
+            node.setTerm(new Term(word, weights.get(valid.get(i))));
+            node.setWords(1);
+            node.setPrefixes(1);
+            previous = word;
+        }
+        finish(path, previous, 1);
+        Node first = path.get(0);
+        first.setTopTerms(mergeTopTerms(first));
+        return first;
+    }
+
+    /**
+     * helper method to finish the nodes of the previous word deeper than
+     * the given length, deepest first, and attach each to its parent.
+     */
+    private void finish(List<Node> path, String previous, int length) {
+        for (int d = previous.length() - 1; d >= length; d--) {
+            Node node = path.remove(d);
+            node.setTopTerms(mergeTopTerms(node));
+            Node parent = path.get(d - 1);
+            parent.setChild(previous.charAt(d), node);
+            parent.setPrefixes(parent.getPrefixes() + node.getPrefixes());
+        }
+    }
+
+    /**
+     * helper method for the dictionaries without Node objects: the subtrie
+     * that {@link #getSubTrie} would return for a prefix, built from the
+     * words starting with it.
+     *
+     * @param words   the words starting with the prefix, sorted
+     * @param weights the weights of the words
+     * @param k       the maximum number of suggestions kept at each node
+     */
+    static Node subTrie(String prefix, List<String> words, List<Long> weights, int k) {
+        Autocomplete trie = new Autocomplete(k);
+        trie.addSorted(words, weights, false);
+        return trie.getSubTrie(prefix);
+    }
+
+    /**
+     * @return a copy of the trie, with the same words, weights and prefix
+     *         counts (a word added twice counts twice), that can be
+     *         changed without changing this one
+     */
+    Autocomplete copy() {
+        Autocomplete trie = new Autocomplete(k);
+        copy(root, trie.root);
+        return trie;
+    }
+
+    /**
+     * helper method to copy a node and its subtrie into an empty node.
+     */
+    private static void copy(Node from, Node to) {
+        to.setTerm(from.getTerm());
+        to.setWords(from.getWords());
+        to.setPrefixes(from.getPrefixes());
+        to.setTopTerms(from.getTopTerms().clone());
+        char[] labels = from.getLabels();
+        Node[] children = from.getReferences();
+        for (int i = 0; i < labels.length; i++) {
+            Node child = new Node();
+            copy(children[i], child);
+            to.setChild(labels[i], child);
+        }
+    }
+
+    /**
+     * @return true if the words are in strictly increasing order
+     */
+    private static boolean isSorted(List<String> words) {
+        for (int i = 1; i < words.size(); i++) {
+            if (words.get(i - 1).compareTo(words.get(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * @return k the the maximum number of suggestions that should be displayed
      */
     @Override
     public int numberSuggestions() {
-        return 0;
+        return k;
     }
 
     @Override
     public Node getSubTrie(String prefix) {
         Node currentNode = root;
         for (char c : prefix.toLowerCase().toCharArray()) {
-            int index = c - 'a';
-            if (index < 0 || index >= currentNode.getReferences().length) {
-                // handle the invalid index
-                return null;
-            }
-            if (currentNode.getReferences()[index] == null) {
+            currentNode = currentNode.getChild(c);
+            if (currentNode == null) {
                 return null;
             }
-            currentNode = currentNode.getReferences()[index];
         }
         return currentNode;
     }
@@ -105,6 +400,61 @@ public class Autocomplete implements IAutocomplete {
         return suggestions;
     }
 
+    /**
+     * The top terms are kept up to date at every node by addWord, so this
+     * only walks down the prefix: O(prefix length + k).
+     */
+    @Override
+    public List<ITerm> topSuggestions(String prefix) {
+        Node subTrie = getSubTrie(prefix);
+        if (subTrie == null) {
+            return new ArrayList<>();
+        }
+        // copies, as in getSuggestions: the terms of the nodes can be changed
+        List<ITerm> suggestions = new ArrayList<>();
+        for (Term term : subTrie.getTopTerms()) {
+            suggestions.add(new Term(term.getTerm(), term.getWeight()));
+        }
+        return suggestions;
+    }
+
+    /**
+     * Walks the trie with the rows of the edit distance to the prefix,
+     * skipping the subtries that cannot match, and takes the top terms of
+     * the nodes that do.
+     */
+    @Override
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        FuzzyMatcher matcher = new FuzzyMatcher(prefix.toLowerCase(), maxEdits);
+        fuzzy(root, matcher.start(), Integer.MAX_VALUE, matcher);
+        return matcher.top(k);
+    }
+
+    /**
+     * helper method to visit a node of the fuzzy search.
+     *
+     * @param best the smallest distance of the nodes above it
+     */
+    private void fuzzy(Node node, int[] row, int best, FuzzyMatcher matcher) {
+        int distance = matcher.distance(row);
+        if (matcher.matches(row) && distance < best) {
+            // the words below were only added at a larger distance
+            matcher.add(Arrays.asList(node.getTopTerms()), distance);
+            best = distance;
+        }
+        char[] labels = node.getLabels();
+        Node[] children = node.getReferences();
+        for (int i = 0; i < children.length; i++) {
+            int[] next = matcher.step(row, labels[i]);
+            if (next != null) {
+                fuzzy(children[i], next, best, matcher);
+            }
+        }
+    }
+
     private void collectTerms(Node node, List<ITerm> terms) {
         if (node != null) {
             if (node.getWords() > 0) {
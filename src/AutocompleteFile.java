@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader for files in the format of autocomplete.txt: the number of
+ * words on the first line, then one "weight word" line per word, e.g.
+ *
+ * <pre>
+ * 2
+ *    0 news
+ *   12 paper
+ * </pre>
+ *
+ * The bytes are parsed directly, without a regular expression or a
+ * substring per line: the only allocation per word is its String. Files
+ * of at least {@link #MAP_THRESHOLD} bytes are memory-mapped, smaller ones
+ * are read through a reused buffer. Words are lowercased; lines that do
+ * not have exactly a weight and a word are skipped.
+ */
+public final class AutocompleteFile {
+
+    // files at least this large are mapped instead of read
+    public static final long MAP_THRESHOLD = 1 << 20;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // the count of the header is not trusted beyond this many words
+    private static final int MAX_PRESIZE = 1 << 20;
+
+    /**
+     * Receives the content of a file.
+     */
+    public interface Visitor {
+        /**
+         * Called once, before the words.
+         *
+         * @param count the number of words announced by the first line, 0
+         *              if it is missing or not a number
+         */
+        void count(int count);
+
+        /**
+         * @param word   a word, lowercased
+         * @param weight its weight
+         */
+        void word(String word, long weight);
+    }
+
+    private final Visitor visitor;
+    private boolean header = true;
+    // current word, decoded from ASCII or copied for UTF-8 decoding
+    private char[] chars = new char[32];
+    private byte[] bytes = new byte[32];
+
+    private AutocompleteFile(Visitor visitor) {
+        this.visitor = visitor;
+    }
+
+    /**
+     * Read a file.
+     *
+     * @param filename the file to read
+     * @param visitor  receives the count and the words
+     * @throws IOException if the file cannot be read
+     */
+    public static void read(String filename, Visitor visitor) throws IOException {
+        AutocompleteFile reader = new AutocompleteFile(visitor);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+                reader.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), true);
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    reader.parse(buffer, false);
+                    if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                        // a line longer than the buffer
+                        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                        larger.put(buffer);
+                        buffer = larger;
+                    } else {
+                        buffer.compact();
+                    }
+                }
+                buffer.flip();
+                reader.parse(buffer, true);
+            }
+        }
+        if (reader.header) {
+            visitor.count(0);
+        }
+    }
+
+    /**
+     * @param count the count announced by a file
+     * @return an initial capacity for a collection of its words
+     */
+    public static int capacity(int count) {
+        return Math.min(count, MAX_PRESIZE);
+    }
+
+    /**
+     * helper method to parse the complete lines of a buffer, and the last
+     * one at the end of the file. The buffer is left at the start of the
+     * first incomplete line.
+     */
+    private void parse(ByteBuffer in, boolean eof) {
+        int limit = in.limit();
+        int start = in.position();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && in.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && !eof) {
+                break;
+            }
+            line(in, start, end);
+            start = end + 1;
+        }
+        in.position(Math.min(start, limit));
+    }
+
+    /**
+     * helper method to parse the line in[start, end).
+     */
+    private void line(ByteBuffer in, int start, int end) {
+        int pos = skipSpaces(in, start, end);
+        // 1. the number, a count or a weight
+        long number = 0;
+        int digits = 0;
+        boolean overflow = false;
+        while (pos < end && in.get(pos) >= '0' && in.get(pos) <= '9') {
+            int digit = in.get(pos++) - '0';
+            // a number above Long.MAX_VALUE makes the line malformed
+            if (number > (Long.MAX_VALUE - digit) / 10) {
+                overflow = true;
+            } else {
+                number = number * 10 + digit;
+            }
+            digits++;
+        }
+        if (header) {
+            header = false;
+            visitor.count(digits > 0 && digits < 10 && pos == skipSpaces(in, pos, end)
+                    ? (int) Math.min(number, Integer.MAX_VALUE) : 0);
+            return;
+        }
+        int wordStart = skipSpaces(in, pos, end);
+        if (digits == 0 || overflow || wordStart == pos || wordStart == end) {
+            return;
+        }
+        // 2. the word, up to the next space
+        int wordEnd = wordStart;
+        boolean ascii = true;
+        while (wordEnd < end && !isSpace(in.get(wordEnd))) {
+            ascii &= in.get(wordEnd) >= 0;
+            wordEnd++;
+        }
+        if (skipSpaces(in, wordEnd, end) != end) {
+            return;
+        }
+        int length = wordEnd - wordStart;
+        String word;
+        if (ascii) {
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                char c = (char) in.get(wordStart + i);
+                chars[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            }
+            word = new String(chars, 0, length);
+        } else {
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[i] = in.get(wordStart + i);
+            }
+            word = new String(bytes, 0, length, StandardCharsets.UTF_8).toLowerCase();
+        }
+        visitor.word(word, number);
+    }
+
+    private static int skipSpaces(ByteBuffer in, int pos, int end) {
+        while (pos < end && isSpace(in.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
@@ -9,8 +9,11 @@ import java.awt.event.FocusListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -22,6 +25,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.MouseInputAdapter;
@@ -35,9 +39,24 @@ private static final long serialVersionUID = 1L;
 private final JTextField  searchText;                            // the
                                                                  // search
                                                                  // bar
-private Autocomplete              auto;                                  // the
+private SwappableAutocomplete     auto;                                  // the
                                                                  // Autocomplete
                                                                  // object
+private CachedAutocomplete cache;                                // recent
+                                                                 // suggestions
+                                                                 // of auto
+private SuggestionWorker  worker;                                // looks
+                                                                 // up
+                                                                 // suggestions
+                                                                 // off
+                                                                 // the
+                                                                 // EDT
+// rebuilds the dictionary off the EDT, one reload at a time
+private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "autocomplete-reload");
+    thread.setDaemon(true);
+    return thread;
+});
 private String[]          results          = new String[10];      // an
                                                                  // array
                                                                  // of
@@ -111,8 +130,11 @@ public AutocompletePanel(String filename)
     
 
 
-    auto = new Autocomplete();
+    auto = new SwappableAutocomplete();
     auto.buildTrie(filename, 6);
+    cache = new CachedAutocomplete(auto);
+    worker = new SuggestionWorker(cache,
+        SuggestionWorker.DEFAULT_DELAY_MILLIS, SwingUtilities::invokeLater);
 
 
     GroupLayout layout = new GroupLayout(this);
@@ -398,9 +420,9 @@ public AutocompletePanel(String filename)
             {
                 String text = searchText.getText().trim();
 
-                // updates the drop-down menu
+                // updates the drop-down menu once the suggestions
+                // are found
                 getSuggestions(text);
-                updateListSize();
             }
         });
 
@@ -474,7 +496,9 @@ public void update()
 
 /**
  * Makes a call to the implementation of Autocomplete to get suggestions
- * for the currently entered text.
+ * for the currently entered text. The lookup runs on a background thread
+ * once the text stops changing, and the drop-down menu is updated on the
+ * event dispatch thread, unless newer text was typed meanwhile.
  *
  * @param text
  *            string to search for
@@ -483,87 +507,66 @@ public void getSuggestions(String text)
 {
 
     // don't search for suggestions if there is no input
-    if (text.equals(""))
+    if (text.trim().equals(""))
     {
-        suggestions.setListData(new String[0]);
-        suggestions.clearSelection();
-        suggestions.setVisible(false);
-        scrollPane.setVisible(false);
+        worker.cancel();
+        showSuggestions("", new ArrayList<>());
     }
     else
     {
-        text = text.trim();
-
-        int textLen = text.length();
-        // clear the previous match
-        List<ITerm>matches = new ArrayList<ITerm>();
-        matches = auto.getSuggestions(text);
-        
-
-         Collections
-         .sort(matches, ITerm.byReverseWeightOrder());
-
-
-         Term[] allResults = matches.toArray(new Term[matches.size()]);
-
-        if (allResults == null)
-        {
-            throw new NullPointerException("allMatches() is null");
-        }
-
-        results = new String[Math.min(10, allResults.length)];
-        if (Math.min(10, allResults.length) > 0)
-        {
-            for (int i = 0; i < results.length; i++)
-            {
+        String trimmed = text.trim();
+        worker.request(trimmed, matches -> showSuggestions(trimmed, matches));
+    }
+}
 
-                // A bit of a hack to get the Term's query string
-                // and weight from toString()
-                String next = allResults[i].toString();
 
-                if (allResults[i] == null)
-                {
-                    throw new NullPointerException(
-                        "allMatches() "
-                            + "returned an array with a null entry");
-                }
-                int tab = next.indexOf('\t');
-                if (tab < 0)
-                {
-                    throw new RuntimeException(
-                        "allMatches() returned"
-                            + " an array with an entry without a tab:"
-                            + " '" + next + "'");
-                }
-                String weight = next.substring(0, tab).trim();
-                String query = next.substring(tab).trim();
-
-                // truncate length if needed
-                if (query.length() > suggListLen.length())
-                    query = query.substring(0, suggListLen.length());
-
-                // create the table HTML
-                results[i] = "<html><table width=\""
-                    + searchText.getPreferredSize().width + "\">"
-                    + "<tr><td align=left>"
-                    + query.substring(0, textLen) + "<b>"
-                    + query.substring(textLen) + "</b>";
-                
-                results[i] += "</table></html>";
-            }
-            suggestions.setListData(results);
-            suggestions.setVisible(true);
-            scrollPane.setVisible(true);
-        }
-        else
+/**
+ * Fills the drop-down menu with suggestions; called on the event dispatch
+ * thread.
+ *
+ * @param text
+ *            the text the suggestions were found for
+ * @param matches
+ *            the suggestions, best first
+ */
+private void showSuggestions(String text, List<ITerm> matches)
+{
+    int textLen = text.length();
+    results = new String[Math.min(10, matches.size())];
+    if (results.length > 0)
+    {
+        for (int i = 0; i < results.length; i++)
         {
-            // No suggestions
-            suggestions.setListData(new String[0]);
-            suggestions.clearSelection();
-            suggestions.setVisible(false);
-            scrollPane.setVisible(false);
+            String query = matches.get(i).getTerm();
+
+            // truncate length if needed
+            if (query.length() > suggListLen.length())
+                query = query.substring(0, suggListLen.length());
+
+            // a close spelling can be shorter than the text
+            int typed = Math.min(textLen, query.length());
+
+            // create the table HTML
+            results[i] = "<html><table width=\""
+                + searchText.getPreferredSize().width + "\">"
+                + "<tr><td align=left>"
+                + query.substring(0, typed) + "<b>"
+                + query.substring(typed) + "</b>"
+                + "</table></html>";
         }
+        suggestions.setListData(results);
+        suggestions.setVisible(true);
+        scrollPane.setVisible(true);
+    }
+    else
+    {
+        // No suggestions
+        suggestions.setListData(new String[0]);
+        suggestions.clearSelection();
+        suggestions.setVisible(false);
+        scrollPane.setVisible(false);
     }
+    updateListSize();
 }
 
 
@@ -589,4 +592,39 @@ public String getSearchText()
 {
     return searchText.getText();
 }
+
+
+/**
+ * Rebuild the autocomplete dictionary from a file on a background thread.
+ * Suggestions keep coming from the current dictionary until the new one is
+ * loaded, which then replaces it in a single step. Reloads run one after
+ * the other on the same thread, in the order they were asked for.
+ *
+ * @param filename
+ *            the file the new dictionary is built from
+ * @return the pending reload
+ */
+public Future<?> reload(String filename)
+{
+    return reload(() -> filename);
+}
+
+
+/**
+ * Rebuild the autocomplete dictionary as reload does, from a file that is
+ * prepared on the same background thread first, e.g. written from the
+ * current index.
+ *
+ * @param source
+ *            prepares the file the new dictionary is built from, and
+ *            returns its name
+ * @return the pending reload
+ */
+public Future<?> reload(Callable<String> source)
+{
+    return loader.submit(() -> {
+        auto.buildTrie(source.call(), auto.numberSuggestions());
+        return null;
+    });
+}
 }
@@ -0,0 +1,785 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+/**
+* Autocomplete Tester.
+*/
+public class AutocompleteTest {
+    Autocomplete autocomplete;
+
+    @Before
+    public void before() throws Exception {
+        autocomplete = new Autocomplete();
+    }
+
+    /**
+     * Add random words made of the first letters of the alphabet, so
+     * prefixes are shared, and return their weights.
+     */
+    private Map<String, Long> addRandomWords(int count, long seed) {
+        Random random = new Random(seed);
+        Map<String, Long> words = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(6);
+            for (int c = 0; c < length; c++) {
+                word.append((char) ('a' + random.nextInt(5)));
+            }
+            long weight = random.nextInt(1000);
+            words.put(word.toString(), weight);
+            autocomplete.addWord(word.toString(), weight);
+        }
+        return words;
+    }
+
+    /**
+     * The k heaviest words starting with prefix, computed from all the
+     * words.
+     */
+    private List<String> expectedTop(Map<String, Long> words, String prefix, int k) {
+        List<String> matches = new ArrayList<>();
+        for (String word : words.keySet()) {
+            if (word.startsWith(prefix.toLowerCase())) {
+                matches.add(word);
+            }
+        }
+        matches.sort((w1, w2) -> {
+            int cmp = Long.compare(words.get(w2), words.get(w1));
+            return cmp != 0 ? cmp : w1.compareTo(w2);
+        });
+        return matches.subList(0, Math.min(k, matches.size()));
+    }
+
+    private List<String> terms(List<? extends ITerm> suggestions) {
+        List<String> res = new ArrayList<>();
+        for (ITerm term : suggestions) {
+            res.add(term.getTerm());
+        }
+        return res;
+    }
+
+    /**
+    *
+    * Method: topSuggestions(String prefix)
+    *
+    */
+    @Test
+    public void testTopSuggestions() throws Exception {
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            Files.write(file, Collections.singletonList("0"));
+            autocomplete.buildTrie(file.toString(), 4);
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(4, autocomplete.numberSuggestions());
+
+        // words added again get a new weight, lighter or heavier
+        Map<String, Long> words = addRandomWords(3000, 1);
+        for (String prefix : Arrays.asList("", "a", "b", "ab", "cde", "eeee", "x")) {
+            assertEquals(prefix, expectedTop(words, prefix, 4),
+                    terms(autocomplete.topSuggestions(prefix)));
+        }
+
+        // the suggestions are copies: changing them does not change the trie
+        Term top = (Term) autocomplete.topSuggestions("a").get(0);
+        long weight = top.getWeight();
+        top.setWeight(weight + 5000);
+        assertEquals(weight, ((Term) autocomplete.topSuggestions("a").get(0)).getWeight());
+        assertEquals(weight, ((Term) autocomplete.getSuggestions(top.getTerm()).get(0)).getWeight());
+
+        // a negative weight is rejected before the trie changes
+        Autocomplete trie = new Autocomplete();
+        trie.addWord("news", 1);
+        try {
+            trie.addWord("newt", -1);
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, trie.countPrefixes("new"));
+        assertEquals(1, trie.countPrefixes(""));
+        assertNull(trie.getSubTrie("newt"));
+    }
+
+    /**
+    *
+    * Method: buildTrie(String filename, int k), with a file read through a
+    * buffer and one that is memory-mapped
+    *
+    */
+    @Test
+    public void testBuildTrieFromFile() throws Exception {
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            Files.write(file, Arrays.asList("5", "   3 news\r", "\t7 Paper", "   x broken",
+                    "   1 two words", "  12 pr\u00e9face", "   4"));
+            autocomplete.buildTrie(file.toString(), 10);
+            assertEquals(3, autocomplete.countPrefixes(""));
+            assertEquals(Arrays.asList("pr\u00e9face", "paper", "news"),
+                    terms(autocomplete.topSuggestions("")));
+
+            // weights above Long.MAX_VALUE are malformed lines
+            Files.write(file, Arrays.asList("4", "9223372036854775807 max",
+                    "9223372036854775808 over", "99999999999999999999 wide", "2 ok"));
+            Autocomplete large = new Autocomplete();
+            large.buildTrie(file.toString(), 10);
+            assertEquals(Arrays.asList("max", "ok"), terms(large.topSuggestions("")));
+            assertEquals(Long.MAX_VALUE, ((Term) large.topSuggestions("").get(0)).getWeight());
+
+            // a file large enough to be mapped
+            List<String> lines = new ArrayList<>();
+            lines.add("200000");
+            for (int i = 0; i < 200000; i++) {
+                lines.add(String.format("%8d w%d", i, i));
+            }
+            Files.write(file, lines);
+            assertTrue(Files.size(file) >= AutocompleteFile.MAP_THRESHOLD);
+            Autocomplete mapped = new Autocomplete();
+            mapped.buildTrie(file.toString(), 2);
+            assertEquals(200000, mapped.countPrefixes("w"));
+            assertEquals(Arrays.asList("w199999", "w199998"), terms(mapped.topSuggestions("")));
+            assertEquals(111, mapped.countPrefixes("w1999"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+    *
+    * Method: addSorted(List<String> words, List<Long> weights, boolean parallel)
+    *
+    */
+    @Test
+    public void testAddSortedMatchesAddWord() throws Exception {
+        TreeMap<String, Long> words = new TreeMap<>(addRandomWords(3000, 3));
+        List<String> sorted = new ArrayList<>(words.keySet());
+        List<Long> weights = new ArrayList<>(words.values());
+        sorted.add(0, "Invalid");
+        weights.add(0, 5L);
+        for (boolean parallel : new boolean[] { false, true }) {
+            Autocomplete bulk = new Autocomplete();
+            bulk.addSorted(sorted, weights, parallel);
+            for (String prefix : Arrays.asList("", "a", "b", "ab", "cde", "eeee", "x")) {
+                // addWord counts a word added twice as two prefixes
+                assertEquals(prefix, words.keySet().stream().filter(w -> w.startsWith(prefix)).count(),
+                        bulk.countPrefixes(prefix));
+                assertEquals(prefix, terms(autocomplete.topSuggestions(prefix)),
+                        terms(bulk.topSuggestions(prefix)));
+                assertEquals(prefix, terms(autocomplete.getSuggestions(prefix)),
+                        terms(bulk.getSuggestions(prefix)));
+            }
+        }
+
+        try {
+            new Autocomplete().addSorted(Arrays.asList("b", "a"), Arrays.asList(1L, 2L), false);
+            fail("unsorted words");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            autocomplete.addSorted(sorted, weights, false);
+            fail("not empty");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The smallest edit distance between a prefix of word and typed.
+     */
+    private int prefixDistance(String word, String typed) {
+        int[] row = new int[typed.length() + 1];
+        for (int j = 0; j <= typed.length(); j++) {
+            row[j] = j;
+        }
+        int best = row[typed.length()];
+        for (int i = 1; i <= word.length(); i++) {
+            int[] next = new int[row.length];
+            next[0] = i;
+            for (int j = 1; j <= typed.length(); j++) {
+                int cost = word.charAt(i - 1) == typed.charAt(j - 1) ? 0 : 1;
+                next[j] = Math.min(Math.min(next[j - 1], row[j]) + 1, row[j - 1] + cost);
+            }
+            row = next;
+            best = Math.min(best, row[typed.length()]);
+        }
+        return best;
+    }
+
+    /**
+    *
+    * Method: fuzzySuggestions(String prefix, int maxEdits), against a
+    * brute-force search, for the three tries
+    *
+    */
+    @Test
+    public void testFuzzySuggestions() throws Exception {
+        Map<String, Long> words = addRandomWords(3000, 4);
+        CompactAutocomplete compact = new CompactAutocomplete();
+        FSTAutocomplete fst = new FSTAutocomplete();
+        compact.addWords(words);
+        for (Map.Entry<String, Long> entry : words.entrySet()) {
+            fst.addWord(entry.getKey(), entry.getValue());
+        }
+        for (String typed : Arrays.asList("", "a", "abc", "ACB", "eabd", "xyz", "ddddddd")) {
+            for (int maxEdits = 0; maxEdits <= 2; maxEdits++) {
+                Map<String, Integer> distances = new HashMap<>();
+                for (String word : words.keySet()) {
+                    int distance = prefixDistance(word, typed.toLowerCase());
+                    if (distance <= maxEdits) {
+                        distances.put(word, distance);
+                    }
+                }
+                List<String> expected = new ArrayList<>(distances.keySet());
+                expected.sort((w1, w2) -> {
+                    int cmp = Integer.compare(distances.get(w1), distances.get(w2));
+                    if (cmp == 0) {
+                        cmp = Long.compare(words.get(w2), words.get(w1));
+                    }
+                    return cmp != 0 ? cmp : w1.compareTo(w2);
+                });
+                expected = expected.subList(0, Math.min(Autocomplete.DEFAULT_K, expected.size()));
+                String message = typed + " " + maxEdits;
+                assertEquals(message, expected, terms(autocomplete.fuzzySuggestions(typed, maxEdits)));
+                assertEquals(message, expected, terms(compact.fuzzySuggestions(typed, maxEdits)));
+                assertEquals(message, expected, terms(fst.fuzzySuggestions(typed, maxEdits)));
+            }
+        }
+        assertEquals(new ArrayList<>(), autocomplete.fuzzySuggestions(null, 1));
+    }
+
+    /**
+    *
+    * Method: addWord(String word, long weight) with invalid characters
+    *
+    */
+    @Test
+    public void testAddWordInvalid() throws Exception {
+        autocomplete.addWord("abc", 5);
+        autocomplete.addWord("ab-1", 9);
+        autocomplete.addWord("Abd", 7);
+        assertEquals(1, autocomplete.countPrefixes("ab"));
+        assertEquals(Arrays.asList("abc"), terms(autocomplete.topSuggestions("a")));
+    }
+
+    /**
+    *
+    * Method: CompactAutocomplete lookups against Autocomplete
+    *
+    */
+    @Test
+    public void testCompactAutocompleteMatchesTrie() throws Exception {
+        Map<String, Long> words = addRandomWords(5000, 2);
+        CompactAutocomplete compact = new CompactAutocomplete();
+        compact.addWords(words);
+        compact.addWord("ab-1", 3);
+        // the root of an empty dictionary, as in Autocomplete
+        assertNotNull(new CompactAutocomplete().getSubTrie(""));
+        // buildTrie returns the root without building its subtrie
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.valueOf(words.size()));
+            for (Map.Entry<String, Long> word : words.entrySet()) {
+                lines.add(word.getValue() + " " + word.getKey());
+            }
+            Files.write(file, lines);
+            Node root = new CompactAutocomplete().buildTrie(file.toString(), 10);
+            assertEquals(0, root.getChildCount());
+            assertEquals(words.size(), root.getPrefixes());
+            assertEquals(expectedTop(words, "", 10), terms(Arrays.asList(root.getTopTerms())));
+        } finally {
+            Files.delete(file);
+        }
+        List<String> prefixes = new ArrayList<>(Arrays.asList("", "A", "x", "abcdea"));
+        for (String word : words.keySet()) {
+            for (int i = 1; i <= word.length(); i++) {
+                prefixes.add(word.substring(0, i));
+            }
+        }
+        for (String prefix : prefixes) {
+            assertEquals(prefix, expectedTop(words, prefix, 10),
+                    terms(compact.topSuggestions(prefix)));
+            assertEquals(terms(autocomplete.topSuggestions(prefix)),
+                    terms(compact.topSuggestions(prefix)));
+            List<String> all = terms(autocomplete.getSuggestions(prefix));
+            Collections.sort(all);
+            assertEquals(all, terms(compact.getSuggestions(prefix)));
+            assertEquals(all.size(), compact.countPrefixes(prefix));
+            Node subTrie = compact.getSubTrie(prefix);
+            Node expected = autocomplete.getSubTrie(prefix);
+            assertEquals(expected == null, subTrie == null);
+            if (subTrie != null) {
+                // the same subtrie, children included; Autocomplete counts
+                // a word added twice twice, the compact trie once
+                assertEquals(all.size(), subTrie.getPrefixes());
+                assertEquals(expected.getWords() > 0, subTrie.getWords() > 0);
+                assertEquals(expected.getTerm().getTerm(), subTrie.getTerm().getTerm());
+                assertEquals(new String(expected.getLabels()), new String(subTrie.getLabels()));
+                assertEquals(terms(Arrays.asList(expected.getTopTerms())),
+                        terms(Arrays.asList(subTrie.getTopTerms())));
+            }
+        }
+    }
+
+    /**
+    *
+    * Method: FSTDictionary written, mapped back and queried through
+    * FSTAutocomplete, against Autocomplete
+    *
+    */
+    @Test
+    public void testFSTAutocompleteMatchesTrie() throws Exception {
+        Map<String, Long> words = addRandomWords(5000, 3);
+        TreeMap<String, Long> sorted = new TreeMap<>(words);
+        FSTDictionary built = FSTDictionary.build(new ArrayList<>(sorted.keySet()),
+                new ArrayList<>(sorted.values()));
+        Path file = Files.createTempFile("autocomplete", ".fst");
+        FSTAutocomplete fst = new FSTAutocomplete();
+        try {
+            built.write(file);
+            assertTrue(FSTDictionary.isDictionary(file));
+            fst.buildTrie(file.toString(), 10);
+
+            // a truncated dictionary is rejected
+            byte[] bytes = Files.readAllBytes(file);
+            Path truncated = Files.createTempFile("autocomplete", ".fst");
+            try {
+                for (int length : new int[] {4, 12, bytes.length / 2, bytes.length - 1}) {
+                    Files.write(truncated, Arrays.copyOf(bytes, length));
+                    try {
+                        FSTDictionary.open(truncated);
+                        fail("truncated to " + length);
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+
+                // so is one whose root or last arc does not point to a state
+                ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+                corrupt.putInt(8, corrupt.getInt(8) - 1);
+                ByteBuffer unended = ByteBuffer.wrap(bytes.clone());
+                unended.put(bytes.length - 1, (byte) 0x80);
+                for (ByteBuffer broken : Arrays.asList(corrupt, unended)) {
+                    Files.write(truncated, broken.array());
+                    try {
+                        FSTDictionary.open(truncated);
+                        fail("corrupt dictionary");
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+            } finally {
+                Files.delete(truncated);
+            }
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(built.byteSize(), fst.dictionary().byteSize());
+        List<String> prefixes = new ArrayList<>(Arrays.asList("", "A", "x", "abcdea"));
+        for (String word : words.keySet()) {
+            for (int i = 1; i <= word.length(); i++) {
+                prefixes.add(word.substring(0, i));
+            }
+        }
+        for (String prefix : prefixes) {
+            assertEquals(prefix, expectedTop(words, prefix, 10),
+                    terms(fst.topSuggestions(prefix)));
+            List<String> all = terms(autocomplete.getSuggestions(prefix));
+            Collections.sort(all);
+            assertEquals(all, terms(fst.getSuggestions(prefix)));
+            assertEquals(all.size(), fst.countPrefixes(prefix));
+            Long weight = words.get(prefix.toLowerCase());
+            assertEquals(weight == null ? -1 : (long) weight,
+                    fst.dictionary().weight(prefix.toLowerCase()));
+        }
+
+        // words added after loading are merged into a new dictionary
+        fst.addWord("zzz", 5000);
+        assertEquals("zzz", fst.topSuggestions("").get(0).getTerm());
+        assertEquals(words.size() + 1, fst.countPrefixes(""));
+    }
+
+    /**
+    *
+    * Method: FSTDictionary.build(String filename) from the autocomplete text
+    * format
+    *
+    */
+    @Test
+    public void testFSTDictionaryFromTextFile() throws Exception {
+        Path file = Files.createTempFile("autocomplete", ".txt");
+        try {
+            Files.write(file, Arrays.asList("4", "   0 news", "   0 newspaper",
+                    "   0 paper", "  12 viewspaper"));
+            assertFalse(FSTDictionary.isDictionary(file));
+            FSTAutocomplete fst = new FSTAutocomplete();
+            fst.buildTrie(file.toString(), 2);
+            assertEquals(Arrays.asList("news", "newspaper"), terms(fst.getSuggestions("NEWS")));
+            assertEquals(Arrays.asList("news", "newspaper"), terms(fst.topSuggestions("new")));
+            assertEquals(Arrays.asList("viewspaper", "news"), terms(fst.topSuggestions("")));
+            assertEquals(4, fst.countPrefixes(""));
+            assertEquals(12, fst.dictionary().weight("viewspaper"));
+            assertEquals(-1, fst.dictionary().weight("new"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+    *
+    * Method: addWord(String word, long weight) with digits and non-ASCII
+    * letters, against CompactAutocomplete and FSTAutocomplete
+    *
+    */
+    @Test
+    public void testUnicodeWords() throws Exception {
+        // digits, accented latin, greek, cyrillic, CJK and a character
+        // outside the BMP, so some nodes switch to a dense table (a wide
+        // run of letters) and others stay sorted (scattered characters)
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789\u00e9\u00e8\u00e0\u00fc\u00f6\u00e7\u00f1\u03b1\u03b2\u03b3\u0436\u0451\u4e2d\u6587\uD835\uDC00";
+        List<String> letters = new ArrayList<>();
+        alphabet.codePoints().forEach(c -> letters.add(new String(Character.toChars(c))));
+        Random random = new Random(4);
+        Map<String, Long> words = new HashMap<>();
+        CompactAutocomplete compact = new CompactAutocomplete();
+        FSTAutocomplete fst = new FSTAutocomplete();
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(4);
+            for (int c = 0; c < length; c++) {
+                word.append(letters.get(random.nextInt(letters.size())));
+            }
+            long weight = random.nextInt(1000);
+            words.put(word.toString(), weight);
+            autocomplete.addWord(word.toString(), weight);
+            fst.addWord(word.toString(), weight);
+        }
+        compact.addWords(words);
+        autocomplete.addWord("covid19", 1000);
+        words.put("covid19", 1000L);
+        assertEquals(Arrays.asList("covid19"), terms(autocomplete.topSuggestions("covid")));
+        compact.addWord("covid19", 1000);
+        fst.addWord("covid19", 1000);
+
+        List<String> prefixes = new ArrayList<>(Arrays.asList("", "\u00c9", "\u4e2d", "\uD835"));
+        prefixes.addAll(letters);
+        for (String word : words.keySet()) {
+            prefixes.add(word.substring(0, word.length() / 2));
+        }
+        for (String prefix : prefixes) {
+            List<String> top = expectedTop(words, prefix, 10);
+            assertEquals(prefix, top, terms(autocomplete.topSuggestions(prefix)));
+            assertEquals(prefix, top, terms(compact.topSuggestions(prefix)));
+            assertEquals(prefix, top, terms(fst.topSuggestions(prefix)));
+            assertEquals(compact.countPrefixes(prefix), fst.countPrefixes(prefix));
+        }
+        assertEquals(words.size(), autocomplete.getSuggestions("").size());
+    }
+
+    /**
+    *
+    * Method: Node.setChild(char label, Node child) through the sorted and
+    * dense child storage
+    *
+    */
+    @Test
+    public void testNodeChildren() throws Exception {
+        Node node = new Node();
+        String labels = "zyxwvutsrqponmlkjihgfedcba9876543210";
+        for (char c : labels.toCharArray()) {
+            node.setChild(c, new Node(String.valueOf(c), 0));
+        }
+        // a wide run of labels and one far from it
+        node.setChild('\u00e9', new Node("\u00e9", 0));
+        node.setChild('a', new Node("a", 1));
+        assertEquals(labels.length() + 1, node.getChildCount());
+        assertEquals(1, node.getChild('a').getTerm().getWeight());
+        assertNull(node.getChild('-'));
+        StringBuilder order = new StringBuilder();
+        for (Node child : node.getReferences()) {
+            order.append(child.getTerm().getTerm());
+        }
+        assertEquals("0123456789abcdefghijklmnopqrstuvwxyz\u00e9", order.toString());
+
+        // the children returned are a copy
+        node.getReferences()[0] = null;
+        assertEquals("0", node.getChild('0').getTerm().getTerm());
+
+        // setReferences takes the former 26-letter array, and copies it
+        Node[] letters = new Node[26];
+        letters[1] = new Node("b", 2);
+        letters[25] = new Node("z", 3);
+        node.setReferences(letters);
+        letters[2] = new Node("c", 4);
+        assertEquals(2, node.getChildCount());
+        assertEquals("bz", new String(node.getLabels()));
+        assertEquals(2, node.getChild('b').getTerm().getWeight());
+        assertNull(node.getChild('a'));
+        assertNull(node.getChild('c'));
+    }
+
+    /**
+    *
+    * Method: SwappableAutocomplete lookups while the dictionary is rebuilt
+    *
+    */
+    @Test
+    public void testSwappableAutocompleteConcurrentRebuilds() throws Exception {
+        // two dictionaries with different words and weights
+        List<Map<String, Long>> versions = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        for (int v = 0; v < 2; v++) {
+            Map<String, Long> words = addRandomWords(3000, 10 + v);
+            TreeMap<String, Long> sorted = new TreeMap<>(words);
+            Path file = Files.createTempFile("autocomplete", ".fst");
+            FSTDictionary.build(new ArrayList<>(sorted.keySet()), new ArrayList<>(sorted.values()))
+                    .write(file);
+            versions.add(words);
+            files.add(file);
+        }
+        List<String> prefixes = Arrays.asList("", "a", "bc", "dde", "e");
+        List<Set<List<String>>> expected = new ArrayList<>();
+        for (String prefix : prefixes) {
+            expected.add(new HashSet<>(Arrays.asList(expectedTop(versions.get(0), prefix, 5),
+                    expectedTop(versions.get(1), prefix, 5))));
+        }
+
+        SwappableAutocomplete auto = new SwappableAutocomplete();
+        try {
+            auto.buildTrie(files.get(0).toString(), 5);
+            java.util.concurrent.atomic.AtomicBoolean done =
+                    new java.util.concurrent.atomic.AtomicBoolean();
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            List<Thread> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                Thread reader = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            for (int p = 0; p < prefixes.size(); p++) {
+                                // each lookup sees one whole version
+                                List<String> top = terms(auto.topSuggestions(prefixes.get(p)));
+                                if (!expected.get(p).contains(top)) {
+                                    throw new AssertionError(prefixes.get(p) + ": " + top);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                });
+                reader.start();
+                readers.add(reader);
+            }
+            for (int i = 1; i <= 40; i++) {
+                auto.buildTrie(files.get(i % 2).toString(), 5);
+            }
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+            assertEquals(41, auto.version());
+            assertEquals(expectedTop(versions.get(0), "", 5), terms(auto.topSuggestions("")));
+        } finally {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+
+        // addWord publishes a copy with the new word
+        IAutocomplete before = auto.current();
+        auto.addWord("zzzz", 5000);
+        assertEquals("zzzz", auto.topSuggestions("").get(0).getTerm());
+        assertEquals(0, before.countPrefixes("zzzz"));
+
+        // the copy of a trie keeps the counts of the words added twice
+        Autocomplete trie = new Autocomplete();
+        trie.addWord("news", 1);
+        trie.addWord("news", 2);
+        auto.swap(trie);
+        long version = auto.version();
+        Map<String, Long> added = new TreeMap<>();
+        added.put("newt", 3L);
+        added.put("paper", 4L);
+        auto.addWords(added);
+        assertEquals(version + 1, auto.version());
+        assertEquals(3, auto.countPrefixes("new"));
+        assertEquals(4, auto.countPrefixes(""));
+        assertEquals(Arrays.asList("newt", "news"), terms(auto.topSuggestions("new")));
+        assertEquals(2, trie.countPrefixes("new"));
+
+        // a file that cannot be loaded publishes nothing
+        version = auto.version();
+        assertNull(auto.buildTrie("/nonexistent/autocomplete.txt", 5));
+        Path broken = Files.createTempFile("autocomplete", ".fst");
+        try {
+            FSTDictionary.build(Arrays.asList("news"), Arrays.asList(1L)).write(broken);
+            Files.write(broken, Arrays.copyOf(Files.readAllBytes(broken), 8));
+            assertNull(auto.buildTrie(broken.toString(), 5));
+        } finally {
+            Files.delete(broken);
+        }
+        assertEquals(version, auto.version());
+        assertEquals(4, auto.countPrefixes(""));
+    }
+
+    /**
+    *
+    * Method: CachedAutocomplete, replaying typing sessions
+    *
+    */
+    @Test
+    public void testCachedAutocomplete() throws Exception {
+        Map<String, Long> words = addRandomWords(3000, 5);
+        SwappableAutocomplete auto = new SwappableAutocomplete();
+        auto.swap(autocomplete);
+        CachedAutocomplete cache = new CachedAutocomplete(auto);
+        List<String> sessions = Arrays.asList("abcde", "abd", "abcde", "eeda", "ABC", "bbbbbb");
+        for (String session : sessions) {
+            for (int i = 1; i <= session.length(); i++) {
+                String prefix = session.substring(0, i);
+                assertEquals(prefix, terms(autocomplete.topSuggestions(prefix)),
+                        terms(cache.topSuggestions(prefix)));
+                assertEquals(prefix, terms(autocomplete.getSuggestions(prefix)),
+                        terms(cache.getSuggestions(prefix)));
+            }
+        }
+        // the prefixes of each session after the first are narrowed, and
+        // the sessions typed again are hits
+        assertTrue(cache.narrowedHits() > 0);
+        assertTrue(cache.hits() >= 2 * "abcde".length() + 2 * "ab".length());
+        assertEquals(52, cache.hits() + cache.narrowedHits() + cache.misses());
+
+        // the entries are not shared with the callers
+        Term cached = (Term) cache.topSuggestions("abc").get(0);
+        long weight = cached.getWeight();
+        cached.setWeight(weight + 5000);
+        assertEquals(weight, ((Term) cache.topSuggestions("abc").get(0)).getWeight());
+        assertEquals(weight, ((Term) autocomplete.topSuggestions("abc").get(0)).getWeight());
+
+        // a new dictionary replaces the entries
+        Autocomplete next = new Autocomplete();
+        next.addWord("abcdz", 5000);
+        auto.swap(next);
+        assertEquals(Arrays.asList("abcdz"), terms(cache.topSuggestions("abc")));
+        assertEquals(Arrays.asList("abcdz"), terms(cache.getSuggestions("abcd")));
+        assertEquals(0, cache.countPrefixes("e"));
+
+        // the entries are bounded
+        CachedAutocomplete small = new CachedAutocomplete(autocomplete, 100);
+        for (String prefix : Arrays.asList("a", "b", "c", "d", "e")) {
+            small.getSuggestions(prefix);
+            assertTrue(small.size() <= 100);
+        }
+        assertEquals(expectedTop(words, "e", 10), terms(small.topSuggestions("e")));
+    }
+
+    /**
+    *
+    * Method: SuggestionWorker, with a thread standing for the event
+    * dispatch thread
+    *
+    */
+    @Test
+    public void testSuggestionWorker() throws Exception {
+        List<String> lookupThreads = Collections.synchronizedList(new ArrayList<>());
+        autocomplete = new Autocomplete() {
+            @Override
+            public List<ITerm> topSuggestions(String prefix) {
+                lookupThreads.add(Thread.currentThread().getName());
+                return super.topSuggestions(prefix);
+            }
+        };
+        Map<String, Long> words = addRandomWords(3000, 6);
+        ExecutorService edt = Executors.newSingleThreadExecutor();
+        SuggestionWorker worker = new SuggestionWorker(autocomplete, 200, edt);
+        try {
+            // keystrokes faster than the delay: only the last text is
+            // looked up and published
+            BlockingQueue<List<String>> shown = new LinkedBlockingQueue<>();
+            for (String text : Arrays.asList("a", "ab", "abc", "abcd")) {
+                worker.request(text, matches -> shown.add(terms(matches)));
+            }
+            assertEquals(expectedTop(words, "abcd", 10), shown.poll(5, TimeUnit.SECONDS));
+            assertEquals(1, worker.lookups());
+            assertEquals(Arrays.asList("autocomplete-suggestions"), lookupThreads);
+
+            // a cancelled request is never published
+            worker.request("b", matches -> shown.add(terms(matches)));
+            worker.cancel();
+            Thread.sleep(400);
+            assertTrue(shown.isEmpty());
+            assertEquals(1, worker.published());
+
+            // a typo falls back to close spellings
+            worker.request("xbcd", matches -> shown.add(terms(matches)));
+            List<String> fuzzy = shown.poll(5, TimeUnit.SECONDS);
+            assertEquals(terms(autocomplete.fuzzySuggestions("xbcd", 1)), fuzzy);
+            assertFalse(fuzzy.isEmpty());
+
+            // time spent on the event thread per keystroke, typing words one
+            // key at a time: looking up there, as the search box used to,
+            // against scheduling the lookup and showing its result
+            List<String> keystrokes = new ArrayList<>();
+            Random random = new Random(6);
+            List<String> typed = new ArrayList<>(words.keySet());
+            for (int i = 0; i < 30; i++) {
+                String word = typed.get(random.nextInt(typed.size()));
+                for (int c = 1; c <= word.length(); c++) {
+                    keystrokes.add(word.substring(0, c));
+                }
+                keystrokes.add(word + "x");
+            }
+            AtomicLong busy = new AtomicLong();
+            Executor timed = task -> edt.execute(() -> {
+                long start = System.nanoTime();
+                task.run();
+                busy.addAndGet(System.nanoTime() - start);
+            });
+            List<List<String>> synchronous = new ArrayList<>();
+            for (String text : keystrokes) {
+                timed.execute(() -> synchronous.add(terms(worker.suggestions(text))));
+            }
+            edt.submit(() -> null).get();
+            long synchronousNanos = busy.getAndSet(0);
+
+            SuggestionWorker background = new SuggestionWorker(autocomplete,
+                    SuggestionWorker.DEFAULT_DELAY_MILLIS, timed);
+            try {
+                for (String text : keystrokes) {
+                    timed.execute(() -> background.request(text, matches -> shown.add(terms(matches))));
+                    Thread.sleep(1);
+                }
+                // a pause while typing may show an earlier prefix first
+                List<String> last = synchronous.get(synchronous.size() - 1);
+                List<String> shownLast;
+                do {
+                    shownLast = shown.poll(5, TimeUnit.SECONDS);
+                } while (shownLast != null && !shownLast.equals(last));
+                assertEquals(last, shownLast);
+                edt.submit(() -> null).get();
+            } finally {
+                background.shutdown();
+            }
+            System.out.printf("event thread per keystroke: %.1f us looking up there,"
+                    + " %.1f us with SuggestionWorker (%d keystrokes, %d lookups)%n",
+                    synchronousNanos / 1e3 / keystrokes.size(),
+                    busy.get() / 1e3 / keystrokes.size(), keystrokes.size(),
+                    background.lookups());
+        } finally {
+            worker.shutdown();
+            edt.shutdown();
+        }
+    }
+}
@@ -0,0 +1,1314 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+/**
+ * Times the hot paths of the aggregator on synthetic inputs, against the
+ * way they used to be done, so the numbers of a change can be reproduced:
+ *
+ *   java Bench [-scale F] [fetch] [scaling] [cores] [memory] [postings]
+ *              [tokenize] [index] [topk] [query] [startup] [dedup]
+ *              [keystroke] [autocomplete] [fst] [unicode] [loader] [bulk]
+ *              [replay] [edt] [feed]
+ *
+ * It runs from the directory of samplefiles/. Without sections every
+ * section runs. The inputs have the sizes the changes were measured at;
+ * -scale multiplies them (e.g. 0.1 for a quick run). Each measurement is
+ * warmed up, then repeated, and the median time is printed; the memory
+ * figures are the heap retained by a structure after a full collection,
+ * so they are estimates. The inputs are generated with fixed seeds.
+ */
+public class Bench {
+
+    // runs of each measurement, after as many warm-up runs
+    private static final int RUNS = 5;
+
+    // multiplies the sizes of the inputs
+    private static double scale = 1;
+
+    // keeps the results of the measurements reachable
+    private static Object sink;
+
+    public static void main(String[] args) throws Exception {
+        List<String> sections = new ArrayList<>(Arrays.asList(args));
+        if (sections.size() >= 2 && sections.get(0).equals("-scale")) {
+            scale = Double.parseDouble(sections.get(1));
+            if (!(scale > 0)) {
+                throw new IllegalArgumentException("scale must be positive: " + scale);
+            }
+            sections = sections.subList(2, sections.size());
+        }
+        if (sections.isEmpty()) {
+            sections = Arrays.asList("fetch", "scaling", "cores", "memory", "postings", "tokenize",
+                    "index", "topk", "query", "startup", "dedup", "keystroke",
+                    "autocomplete", "fst", "unicode", "loader", "bulk", "replay", "edt", "feed");
+        }
+        for (String section : sections) {
+            System.out.println("== " + section);
+            switch (section) {
+            case "fetch":
+                fetch();
+                break;
+            case "scaling":
+                scaling();
+                break;
+            case "cores":
+                cores();
+                break;
+            case "memory":
+                memory();
+                break;
+            case "postings":
+                postings();
+                break;
+            case "tokenize":
+                tokenize();
+                break;
+            case "index":
+                index();
+                break;
+            case "topk":
+                topK();
+                break;
+            case "query":
+                query();
+                break;
+            case "startup":
+                startup();
+                break;
+            case "dedup":
+                dedup();
+                break;
+            case "keystroke":
+                keystroke();
+                break;
+            case "autocomplete":
+                autocomplete();
+                break;
+            case "fst":
+                fst();
+                break;
+            case "unicode":
+                unicode();
+                break;
+            case "loader":
+                loader();
+                break;
+            case "bulk":
+                bulk();
+                break;
+            case "replay":
+                replay();
+                break;
+            case "edt":
+                edt();
+                break;
+            case "feed":
+                feed();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown section: " + section);
+            }
+        }
+    }
+
+    /**
+     * Downloading 4 feeds of 50 articles from a local server that answers
+     * each request after 20 ms: one download at a time, as parseFeed used
+     * to do, against the concurrent downloads of IndexBuilder.
+     */
+    private static void fetch() throws Exception {
+        int articles = scaled(50);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String base = "http://localhost:" + server.getAddress().getPort() + "/";
+        Map<String, List<String>> pages = corpus(4 * articles, 2_000, 200, 400, 7);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String path = exchange.getRequestURI().getPath();
+            StringBuilder body = new StringBuilder();
+            if (path.startsWith("/feed")) {
+                int feed = Integer.parseInt(path.substring(5, path.indexOf('.')));
+                body.append("<rss version=\"2.0\"><channel>");
+                for (int d = feed * articles; d < (feed + 1) * articles; d++) {
+                    body.append("<item><link>").append(base).append("doc").append(d)
+                            .append(".html</link></item>");
+                }
+                body.append("</channel></rss>");
+            } else {
+                body.append("<html><body><p>")
+                        .append(String.join(" ", pages.get("http://localhost" + path)))
+                        .append("</p></body></html>");
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    path.endsWith(".xml") ? "application/xml" : "text/html");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        ExecutorService threads = Executors.newCachedThreadPool();
+        server.setExecutor(threads);
+        server.start();
+        try {
+            List<String> feeds = new ArrayList<>();
+            for (int f = 0; f < 4; f++) {
+                feeds.add(base + "feed" + f + ".xml");
+            }
+            time("one download at a time, Jsoup DOM", 1, () -> sequentialParseFeed(feeds));
+            for (int parallelism : new int[] { 1, IndexBuilder.DEFAULT_PARALLELISM, 32 }) {
+                IndexBuilder builder = new IndexBuilder(parallelism);
+                time("IndexBuilder.parseFeed, parallelism " + parallelism, 1,
+                        () -> builder.parseFeed(feeds));
+            }
+        } finally {
+            server.stop(0);
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * helper method to download the feeds and their articles one at a
+     * time, as parseFeed used to do.
+     */
+    private static Map<String, List<String>> sequentialParseFeed(List<String> feeds)
+            throws Exception {
+        Map<String, List<String>> map = new HashMap<>();
+        for (String feedUrl : feeds) {
+            Document rssDocument = Jsoup.connect(feedUrl).get();
+            for (Element link : rssDocument.getElementsByTag("link")) {
+                String linkText = link.text();
+                Document htmlDocument = Jsoup.connect(linkText).get();
+                String text = htmlDocument.body().text();
+                map.put(linkText, Arrays.asList(
+                        text.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+")));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * buildIndex on 1k, 10k and 100k documents. The document frequencies
+     * used to be found by scanning the whole corpus for each new word of
+     * each document, which is quadratic in the number of documents: it
+     * takes about a minute at 1k documents, so it only runs there.
+     */
+    private static void scaling() throws Exception {
+        IndexBuilder builder = new IndexBuilder(1);
+        for (int count : new int[] { 1_000, 10_000, 100_000 }) {
+            Map<String, List<String>> docs = corpus(scaled(count), 20_000, 20, 100, 2);
+            if (count == 1_000) {
+                time("corpus scan per word, " + docs.size() + " docs", 1,
+                        () -> scanningBuildIndex(docs));
+            }
+            time("buildIndex, " + docs.size() + " docs", count < 100_000 ? RUNS : 1,
+                    () -> builder.buildIndex(docs));
+        }
+    }
+
+    /**
+     * helper method to build the forward index as buildIndex used to: the
+     * document frequency of each new word of a document is counted by
+     * scanning every document.
+     */
+    private static Map<String, Map<String, Double>> scanningBuildIndex(
+            Map<String, List<String>> docs) {
+        Map<String, Map<String, Double>> map = new HashMap<>();
+        int size = docs.size();
+        for (Map.Entry<String, List<String>> doc : docs.entrySet()) {
+            List<String> words = doc.getValue();
+            Map<String, Integer> wordOneDoc = new HashMap<>();
+            Map<String, Integer> wordTotalDoc = new HashMap<>();
+            for (String word : words) {
+                if (wordOneDoc.merge(word, 1, Integer::sum) == 1) {
+                    int count = 0;
+                    for (List<String> other : docs.values()) {
+                        if (other.contains(word)) {
+                            count++;
+                        }
+                    }
+                    wordTotalDoc.put(word, count);
+                }
+            }
+            Map<String, Double> wordTfIdf = new TreeMap<>();
+            for (String word : wordOneDoc.keySet()) {
+                double tf = (double) wordOneDoc.get(word) / words.size();
+                wordTfIdf.put(word, tf * Math.log((double) size / wordTotalDoc.get(word)));
+            }
+            map.put(doc.getKey(), wordTfIdf);
+        }
+        return map;
+    }
+
+    /**
+     * buildIndex and buildInvertedIndex of 20k documents with 1, 2, 4...
+     * fork-join workers, up to the number of cores (at least 8), and the
+     * speedup over the sequential build of each.
+     */
+    private static void cores() throws Exception {
+        Map<String, List<String>> docs = corpus(scaled(20_000), 20_000, 20, 100, 8);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("  " + cores + " cores available");
+        double sequential = 0;
+        for (int parallelism = 1; parallelism <= Math.max(cores, 8); parallelism *= 2) {
+            IndexBuilder builder = new IndexBuilder(parallelism);
+            Map<String, Map<String, Double>> index = builder.buildIndex(docs);
+            double build = time("buildIndex, " + parallelism + " workers",
+                    () -> builder.buildIndex(docs));
+            double invert = time("buildInvertedIndex, " + parallelism + " workers",
+                    () -> builder.buildInvertedIndex(index));
+            if (parallelism == 1) {
+                sequential = build + invert;
+            }
+            System.out.printf("  %-50s %10.2f x%n", "speedup, " + parallelism + " workers",
+                    sequential / (build + invert));
+        }
+    }
+
+    /**
+     * The heap of the indexes of 100k documents: the maps of strings and
+     * boxed entries that buildIndex and buildInvertedIndex return, against
+     * the int and float arrays of CompactIndex, which holds both.
+     */
+    private static void memory() throws Exception {
+        Map<String, List<String>> docs = corpus(scaled(100_000), 20_000, 20, 100, 9);
+        IndexBuilder builder = new IndexBuilder(1);
+        long inverted = retained("HashMap inverted index",
+                () -> builder.buildInvertedIndex(builder.buildIndex(docs)));
+        long both = retained("HashMap forward and inverted index", () -> {
+            Map<String, Map<String, Double>> index = builder.buildIndex(docs);
+            return new Object[] { index, builder.buildInvertedIndex(index) };
+        });
+        long compact = retained("CompactIndex", () -> CompactIndex.build(docs));
+        System.out.printf("  %-50s %10.2f x%n", "CompactIndex / HashMap inverted index",
+                (double) compact / inverted);
+        System.out.printf("  %-50s %10.2f x%n", "CompactIndex / HashMap forward and inverted",
+                (double) compact / both);
+    }
+
+    /**
+     * The postings of 20k documents: the bytes per posting and the
+     * postings read per second, from the lists of entries of
+     * buildInvertedIndex and from the delta and varint encoded PostingsList
+     * of CompactIndex, walked with a cursor or decoded into arrays.
+     */
+    private static void postings() throws Exception {
+        Map<String, List<String>> docs = corpus(scaled(20_000), 20_000, 20, 100, 10);
+        IndexBuilder builder = new IndexBuilder(1);
+        Map<String, Map<String, Double>> index = builder.buildIndex(docs);
+        Map<?, ?> invertedIndex = builder.buildInvertedIndex(index);
+        List<List<?>> lists = new ArrayList<>();
+        for (Object value : invertedIndex.values()) {
+            lists.add((List<?>) value);
+        }
+        CompactIndex compact = CompactIndex.build(docs);
+        List<PostingsList> encoded = new ArrayList<>();
+        long postings = 0;
+        long bytes = 0;
+        for (int t = 0; t < compact.terms().size(); t++) {
+            PostingsList list = compact.postings(t);
+            encoded.add(list);
+            postings += list.size();
+            bytes += list.byteSize();
+        }
+        // the terms, urls and boxed values are kept by docs and index: only
+        // the map, the lists and the entries are counted
+        long entries = retained("HashMap inverted index",
+                () -> builder.buildInvertedIndex(index));
+        System.out.printf("  %-50s %10.2f B%n", "lists of entries, per posting",
+                (double) entries / postings);
+        System.out.printf("  %-50s %10.2f B%n", "PostingsList, per posting",
+                (double) bytes / postings);
+
+        double ms = time("walk " + postings + " entries", () -> {
+            double sum = 0;
+            for (List<?> list : lists) {
+                for (Object posting : list) {
+                    sum += (Double) ((Map.Entry<?, ?>) posting).getValue();
+                }
+            }
+            return sum;
+        });
+        System.out.printf("  %-50s %10.2f M/s%n", "entries", postings / ms / 1e3);
+        ms = time("walk " + postings + " postings with a cursor", () -> {
+            double sum = 0;
+            for (PostingsList list : encoded) {
+                PostingsList.Cursor cursor = list.cursor();
+                while (cursor.next()) {
+                    sum += cursor.score();
+                }
+            }
+            return sum;
+        });
+        System.out.printf("  %-50s %10.2f M/s%n", "cursor", postings / ms / 1e3);
+        ms = time("decode " + postings + " postings", () -> {
+            int[] ids = new int[docs.size()];
+            float[] scores = new float[docs.size()];
+            double sum = 0;
+            for (PostingsList list : encoded) {
+                list.decode(ids, scores);
+                for (int i = 0; i < list.size(); i++) {
+                    sum += scores[i];
+                }
+            }
+            return sum;
+        });
+        System.out.printf("  %-50s %10.2f M/s%n", "decode", postings / ms / 1e3);
+    }
+
+    /**
+     * The regex split the index builder used to do, against Tokenizer, on
+     * a 200 KB body with about 1.2k distinct words.
+     */
+    private static void tokenize() throws Exception {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200_000) {
+            text.append(random.nextInt(4) == 0 ? "Word" : "word").append(random.nextInt(1200))
+                    .append(random.nextInt(20) == 0 ? ", " : " ");
+        }
+        String body = text.toString();
+        time("regex split and count", () -> {
+            Map<String, Integer> counts = new HashMap<>();
+            for (String word : body.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+")) {
+                counts.merge(word, 1, Integer::sum);
+            }
+            return counts;
+        });
+        time("Tokenizer", () -> Tokenizer.tokenize(body).counts());
+    }
+
+    /**
+     * The TF-IDF index and the inverted index of 10k documents, built as
+     * maps, compactly and incrementally.
+     */
+    private static void index() throws Exception {
+        Map<String, List<String>> docs = corpus(10_000, 20_000, 20, 100, 2);
+        IndexBuilder sequential = new IndexBuilder(1);
+        time("buildIndex + buildInvertedIndex",
+                () -> sequential.buildInvertedIndex(sequential.buildIndex(docs)));
+        time("CompactIndex.build", () -> CompactIndex.build(docs));
+        time("IncrementalIndex.update", () -> {
+            IncrementalIndex index = new IncrementalIndex();
+            index.update(docs);
+            return index;
+        });
+    }
+
+    /**
+     * 1000 lookups of the 20 most frequent terms of 20k documents: the
+     * whole list of urls, copied into a LinkedList as searchArticles used
+     * to, against the top 10 results with their scores, on the maps of
+     * buildInvertedIndex and on the compressed lists of CompactIndex.
+     */
+    private static void topK() throws Exception {
+        Map<String, List<String>> docs = corpus(scaled(20_000), 20_000, 20, 100, 11);
+        IndexBuilder builder = new IndexBuilder(1);
+        Map<?, ?> maps = builder.buildInvertedIndex(builder.buildIndex(docs));
+        Map<?, ?> compact = CompactIndex.build(docs).invertedIndex();
+        long postings = 0;
+        for (int t = 0; t < 20; t++) {
+            postings += ((List<?>) maps.get("w" + t)).size();
+        }
+        System.out.printf("  %-50s %10d%n", "postings per term", postings / 20);
+        for (Map<?, ?> invertedIndex : Arrays.asList(maps, compact)) {
+            String name = invertedIndex == maps ? "maps" : "CompactIndex";
+            time("1000 full lists into a LinkedList, " + name, () -> {
+                int found = 0;
+                for (int i = 0; i < 1000; i++) {
+                    List<String> res = new LinkedList<>();
+                    for (Object posting : (List<?>) invertedIndex.get("w" + i % 20)) {
+                        res.add((String) ((Map.Entry<?, ?>) posting).getKey());
+                    }
+                    found += res.size();
+                }
+                return found;
+            });
+            time("1000 top 10, " + name, () -> {
+                int found = 0;
+                for (int i = 0; i < 1000; i++) {
+                    found += builder.searchArticles("w" + i % 20, invertedIndex, 0, 10).size();
+                }
+                return found;
+            });
+        }
+    }
+
+    /**
+     * 1000 queries of two or three terms over 100k documents: every
+     * posting of the terms scored in a map and the map sorted, against the
+     * top 10 of QueryEngine, which intersects (AND) or prunes (OR) the
+     * postings.
+     */
+    private static void query() throws Exception {
+        Map<String, List<String>> docs = corpus(scaled(100_000), 20_000, 20, 100, 3);
+        Map<?, ?> invertedIndex = CompactIndex.build(docs).invertedIndex();
+        QueryEngine engine = new QueryEngine(invertedIndex);
+        List<String> queries = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            String query = "w" + random.nextInt(200) + " w" + random.nextInt(2000);
+            queries.add(i % 2 == 0 ? query : query + " w" + random.nextInt(20));
+        }
+        for (QueryEngine.Mode mode : QueryEngine.Mode.values()) {
+            time("1000 " + mode + " queries, every posting scored", 1, () -> {
+                int found = 0;
+                for (String query : queries) {
+                    found += scoreEveryPosting(invertedIndex, QueryEngine.terms(query),
+                            mode == QueryEngine.Mode.AND, 10).size();
+                }
+                return found;
+            });
+            time("1000 " + mode + " queries, QueryEngine top 10", () -> {
+                int found = 0;
+                for (String query : queries) {
+                    found += engine.search(query, mode, 10).size();
+                }
+                return found;
+            });
+        }
+    }
+
+    /**
+     * helper method to rank the documents of a query by adding up the
+     * TF-IDF values of all the postings of its terms.
+     */
+    private static List<Map.Entry<String, Double>> scoreEveryPosting(Map<?, ?> invertedIndex,
+            List<String> terms, boolean all, int k) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Integer> matched = new HashMap<>();
+        for (String term : terms) {
+            List<?> postings = (List<?>) invertedIndex.get(term);
+            for (Object posting : postings == null ? Collections.emptyList() : postings) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) posting;
+                scores.merge((String) entry.getKey(), (Double) entry.getValue(), Double::sum);
+                matched.merge((String) entry.getKey(), 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Double>> res = new ArrayList<>();
+        for (Map.Entry<String, Double> doc : scores.entrySet()) {
+            if (!all || matched.get(doc.getKey()) == terms.size()) {
+                res.add(doc);
+            }
+        }
+        res.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        return res.subList(0, Math.min(k, res.size()));
+    }
+
+    /**
+     * Startup with the index of 10k and 100k documents: rebuilding it from
+     * the parsed documents, as every start used to, against opening the
+     * memory-mapped snapshot saved by the previous run, with a first lookup.
+     */
+    private static void startup() throws Exception {
+        IndexBuilder builder = new IndexBuilder(1);
+        for (int count : new int[] { 10_000, 100_000 }) {
+            Map<String, List<String>> docs = corpus(scaled(count), 20_000, 20, 100, 4);
+            int runs = count < 100_000 ? RUNS : 1;
+            time("rebuild, " + docs.size() + " docs", runs, () -> {
+                Map<?, ?> invertedIndex = builder.buildInvertedIndex(builder.buildIndex(docs));
+                return builder.searchArticles("w1", invertedIndex);
+            });
+            Map<?, ?> invertedIndex = CompactIndex.build(docs).invertedIndex();
+            Path dir = Files.createTempDirectory("bench");
+            Path file = dir.resolve("index.bin");
+            try {
+                time("IndexSnapshot.write, " + docs.size() + " docs", runs, () -> {
+                    IndexSnapshot.write(invertedIndex, file);
+                    return file;
+                });
+                // the older generations are deleted, so only the newest is left
+                long size = 0;
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path generation : (Iterable<Path>) files::iterator) {
+                        size += Files.size(generation);
+                    }
+                }
+                System.out.printf("  %-50s %10d KB%n", "snapshot size", size / 1024);
+                time("IndexSnapshot.open, " + docs.size() + " docs",
+                        () -> builder.searchArticles("w1", IndexSnapshot.open(file)));
+            } finally {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path generation : (Iterable<Path>) files::iterator) {
+                        Files.delete(generation);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    /**
+     * Deduplicating 10k documents of 150 to 450 words, with 5% copies:
+     * half of them exact, half with one word changed.
+     */
+    private static void dedup() throws Exception {
+        Map<String, List<String>> docs = corpus(10_000, 20_000, 150, 300, 5);
+        Random random = new Random(5);
+        for (int d = 0; d < 500; d++) {
+            List<String> words = new ArrayList<>(docs.get(url(d)));
+            if (d % 2 == 1) {
+                words.set(random.nextInt(words.size()), "edited");
+            }
+            docs.put("http://localhost/copy" + d + ".html", words);
+        }
+        time("Deduplicator.deduplicate", () -> Deduplicator.deduplicate(docs).aliases().size());
+    }
+
+    /**
+     * The suggestions of 1000 prefixes of each length from 1 to 6 on 200k
+     * words: every word below the prefix collected and sorted for the top
+     * 10, as the search box used to, against the top terms kept at the
+     * node of the prefix. The ms per 1000 prefixes are the us per keystroke.
+     */
+    private static void keystroke() throws Exception {
+        TreeMap<String, Long> words = vocabulary(scaled(200_000), 12);
+        Autocomplete trie = new Autocomplete();
+        trie.addSorted(new ArrayList<>(words.keySet()), new ArrayList<>(words.values()), false);
+        List<String> sorted = new ArrayList<>(words.keySet());
+        Random random = new Random(12);
+        for (int length = 1; length <= 6; length++) {
+            List<String> prefixes = new ArrayList<>();
+            while (prefixes.size() < 1000) {
+                String word = sorted.get(random.nextInt(sorted.size()));
+                if (word.length() >= length) {
+                    prefixes.add(word.substring(0, length));
+                }
+            }
+            time("1000 prefixes of " + length + ", collect and sort", () -> {
+                int found = 0;
+                for (String prefix : prefixes) {
+                    List<ITerm> matches = trie.getSuggestions(prefix);
+                    matches.sort(ITerm.byReverseWeightOrder());
+                    found += matches.subList(0, Math.min(10, matches.size())).size();
+                }
+                return found;
+            });
+            time("1000 prefixes of " + length + ", topSuggestions", () -> {
+                int found = 0;
+                for (String prefix : prefixes) {
+                    found += trie.topSuggestions(prefix).size();
+                }
+                return found;
+            });
+        }
+    }
+
+    /**
+     * Building the trie and the compact trie from 200k words, and the
+     * lookups of the prefixes typed one keystroke at a time.
+     */
+    private static void autocomplete() throws Exception {
+        Random random = new Random(6);
+        TreeMap<String, Long> words = vocabulary(200_000, 6);
+        List<String> sorted = new ArrayList<>(words.keySet());
+        List<Long> weights = new ArrayList<>(words.values());
+        List<String> prefixes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String word = sorted.get(random.nextInt(sorted.size()));
+            for (int c = 1; c <= word.length(); c++) {
+                prefixes.add(word.substring(0, c));
+            }
+        }
+
+        time("Autocomplete.addSorted", () -> {
+            Autocomplete trie = new Autocomplete();
+            trie.addSorted(sorted, weights, false);
+            return trie;
+        });
+        time("CompactAutocomplete.addWords", () -> {
+            CompactAutocomplete compact = new CompactAutocomplete();
+            compact.addWords(words);
+            return compact;
+        });
+
+        Autocomplete trie = new Autocomplete();
+        trie.addSorted(sorted, weights, false);
+        CompactAutocomplete compact = new CompactAutocomplete();
+        compact.addWords(words);
+        List<IAutocomplete> dictionaries = Arrays.asList(trie, compact);
+        for (IAutocomplete dictionary : dictionaries) {
+            String name = dictionary.getClass().getSimpleName();
+            time(name + ", " + prefixes.size() + " topSuggestions", () -> {
+                int found = 0;
+                for (String prefix : prefixes) {
+                    found += dictionary.topSuggestions(prefix).size();
+                }
+                return found;
+            });
+            time(name + ", 100 fuzzySuggestions, 2 edits", () -> {
+                int found = 0;
+                for (String prefix : prefixes.subList(0, 100)) {
+                    found += dictionary.fuzzySuggestions(prefix, 2).size();
+                }
+                return found;
+            });
+        }
+        dictionaries = null;
+        trie = null;
+        compact = null;
+        retained("Autocomplete", () -> {
+            Autocomplete retained = new Autocomplete();
+            retained.addSorted(sorted, weights, false);
+            return retained;
+        });
+        retained("CompactAutocomplete", () -> {
+            CompactAutocomplete retained = new CompactAutocomplete();
+            retained.addWords(words);
+            return retained;
+        });
+    }
+
+    /**
+     * The dictionary of 200k words loaded at startup: autocomplete.txt
+     * parsed into the trie by Autocomplete.buildTrie, against the FST
+     * written once and memory-mapped by FSTAutocomplete.buildTrie. Then
+     * the sizes of both (the mapped states are not on the heap) and their
+     * lookups of prefixes of 1, 3 and 6 letters.
+     */
+    private static void fst() throws Exception {
+        TreeMap<String, Long> words = vocabulary(scaled(200_000), 13);
+        Path dir = Files.createTempDirectory("bench");
+        Path text = dir.resolve("autocomplete.txt");
+        Path file = dir.resolve("autocomplete.fst");
+        try {
+            writeAutocompleteFile(words, text);
+            time("FSTDictionary.build from text + write", () -> {
+                FSTDictionary.build(text.toString()).write(file);
+                return file;
+            });
+            time("Autocomplete.buildTrie, text", () -> {
+                Autocomplete trie = new Autocomplete();
+                trie.buildTrie(text.toString(), Autocomplete.DEFAULT_K);
+                return trie;
+            });
+            time("FSTAutocomplete.buildTrie, mapped", () -> {
+                FSTAutocomplete fst = new FSTAutocomplete();
+                fst.buildTrie(file.toString(), Autocomplete.DEFAULT_K);
+                return fst;
+            });
+            System.out.printf("  %-50s %10d KB%n", "autocomplete.txt", Files.size(text) / 1024);
+            System.out.printf("  %-50s %10d KB%n", "FST file", Files.size(file) / 1024);
+            retained("Autocomplete", () -> {
+                Autocomplete trie = new Autocomplete();
+                trie.buildTrie(text.toString(), Autocomplete.DEFAULT_K);
+                return trie;
+            });
+            retained("FSTAutocomplete, mapped", () -> {
+                FSTAutocomplete fst = new FSTAutocomplete();
+                fst.buildTrie(file.toString(), Autocomplete.DEFAULT_K);
+                return fst;
+            });
+
+            Autocomplete trie = new Autocomplete();
+            trie.buildTrie(text.toString(), Autocomplete.DEFAULT_K);
+            FSTAutocomplete fst = new FSTAutocomplete();
+            fst.buildTrie(file.toString(), Autocomplete.DEFAULT_K);
+            List<String> sorted = new ArrayList<>(words.keySet());
+            Random random = new Random(13);
+            for (int length : new int[] { 1, 3, 6 }) {
+                List<String> prefixes = new ArrayList<>();
+                while (prefixes.size() < 1000) {
+                    String word = sorted.get(random.nextInt(sorted.size()));
+                    if (word.length() >= length) {
+                        prefixes.add(word.substring(0, length));
+                    }
+                }
+                for (IAutocomplete dictionary : Arrays.asList(trie, fst)) {
+                    String name = dictionary.getClass().getSimpleName();
+                    time("1000 prefixes of " + length + ", " + name, () -> {
+                        int found = 0;
+                        for (String prefix : prefixes) {
+                            found += dictionary.topSuggestions(prefix).size();
+                        }
+                        return found;
+                    });
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path path : (Iterable<Path>) files::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * The heap and the prefix walks of the trie with a Node[26] per node,
+     * as Autocomplete used to be, against the adaptive nodes, on 200k words
+     * of lowercase letters and on 200k words that also have digits and
+     * accented letters. The old trie drops the words it cannot hold.
+     */
+    private static void unicode() throws Exception {
+        String ascii = "abcdefghijklmnopqrstuvwxyz";
+        String mixed = ascii + ascii + "0123456789\u00e9\u00e8\u00fc\u00f1\u00e7\u00f8\u00e5";
+        for (String alphabet : new String[] { ascii, mixed }) {
+            String name = alphabet == ascii ? "letters" : "mixed";
+            TreeMap<String, Long> words = vocabulary(scaled(200_000), alphabet, 14);
+            List<String> sorted = new ArrayList<>(words.keySet());
+            List<Long> weights = new ArrayList<>(words.values());
+            ArrayTrie old = new ArrayTrie();
+            for (Map.Entry<String, Long> word : words.entrySet()) {
+                old.addWord(word.getKey(), word.getValue());
+            }
+            int held = old.root.prefixes;
+            System.out.printf("  %-50s %10d%n", "words held by the Node[26] trie, " + name, held);
+            old = null;
+            long oldBytes = retained("Node[26] trie, " + name, () -> {
+                ArrayTrie retained = new ArrayTrie();
+                for (Map.Entry<String, Long> word : words.entrySet()) {
+                    retained.addWord(word.getKey(), word.getValue());
+                }
+                return retained;
+            });
+            long newBytes = retained("Autocomplete, " + name, () -> {
+                Autocomplete retained = new Autocomplete();
+                retained.addSorted(sorted, weights, false);
+                return retained;
+            });
+            System.out.printf("  %-50s %10d B%n", "per word, Node[26] trie, " + name,
+                    oldBytes / held);
+            System.out.printf("  %-50s %10d B%n", "per word, Autocomplete, " + name,
+                    newBytes / words.size());
+
+            ArrayTrie array = new ArrayTrie();
+            for (Map.Entry<String, Long> word : words.entrySet()) {
+                array.addWord(word.getKey(), word.getValue());
+            }
+            Autocomplete adaptive = new Autocomplete();
+            adaptive.addSorted(sorted, weights, false);
+            List<String> prefixes = new ArrayList<>();
+            Random random = new Random(14);
+            for (int i = 0; i < 10_000; i++) {
+                String word = sorted.get(random.nextInt(sorted.size()));
+                prefixes.add(word.substring(0, 1 + random.nextInt(word.length())));
+            }
+            time("10k countPrefixes, Node[26] trie, " + name, () -> {
+                int found = 0;
+                for (String prefix : prefixes) {
+                    found += array.countPrefixes(prefix);
+                }
+                return found;
+            });
+            time("10k countPrefixes, Autocomplete, " + name, () -> {
+                int found = 0;
+                for (String prefix : prefixes) {
+                    found += adaptive.countPrefixes(prefix);
+                }
+                return found;
+            });
+        }
+    }
+
+    /**
+     * Parsing an autocomplete.txt of 1M lines: BufferedReader.readLine and
+     * a regex split per line, as buildTrie used to, against the bytes
+     * parsed by AutocompleteFile; the time and the bytes allocated per
+     * line. Then the whole Autocomplete.buildTrie of the file.
+     */
+    private static void loader() throws Exception {
+        TreeMap<String, Long> words = vocabulary(scaled(1_000_000), 15);
+        Path file = Files.createTempFile("bench", ".txt");
+        try {
+            writeAutocompleteFile(words, file);
+            words = null;
+            long[] lines = new long[1];
+            Callable<Long> split = () -> {
+                long sum = 0;
+                try (BufferedReader reader = Files.newBufferedReader(file)) {
+                    lines[0] = Long.parseLong(reader.readLine().trim());
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.trim().split("\\s+");
+                        if (parts.length == 2) {
+                            sum += Long.parseLong(parts[0]) + parts[1].toLowerCase().length();
+                        }
+                    }
+                }
+                return sum;
+            };
+            Callable<Long> bytes = () -> {
+                long[] sum = new long[1];
+                AutocompleteFile.read(file.toString(), new AutocompleteFile.Visitor() {
+                    @Override
+                    public void count(int count) {
+                    }
+
+                    @Override
+                    public void word(String word, long weight) {
+                        sum[0] += weight + word.length();
+                    }
+                });
+                return sum[0];
+            };
+            time("readLine + split", 3, split);
+            System.out.printf("  %-50s %10d B%n", "allocated per line, readLine + split",
+                    allocated(split) / lines[0]);
+            time("AutocompleteFile.read", 3, bytes);
+            System.out.printf("  %-50s %10d B%n", "allocated per line, AutocompleteFile.read",
+                    allocated(bytes) / lines[0]);
+            time("Autocomplete.buildTrie", 3, () -> {
+                Autocomplete trie = new Autocomplete();
+                trie.buildTrie(file.toString(), Autocomplete.DEFAULT_K);
+                return trie;
+            });
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Building the trie of 100k and 1M sorted words: one addWord per word,
+     * each walking down from the root, against addSorted, which builds it
+     * bottom-up in one pass, sequentially and by first letter in parallel.
+     */
+    private static void bulk() throws Exception {
+        for (int count : new int[] { 100_000, 1_000_000 }) {
+            TreeMap<String, Long> words = vocabulary(scaled(count), 16);
+            List<String> sorted = new ArrayList<>(words.keySet());
+            List<Long> weights = new ArrayList<>(words.values());
+            int runs = count < 1_000_000 ? RUNS : 1;
+            time("addWord, " + sorted.size() + " words", runs, () -> {
+                Autocomplete trie = new Autocomplete();
+                for (int w = 0; w < sorted.size(); w++) {
+                    trie.addWord(sorted.get(w), weights.get(w));
+                }
+                return trie;
+            });
+            for (boolean parallel : new boolean[] { false, true }) {
+                String name = parallel ? "addSorted in parallel, " : "addSorted, ";
+                time(name + sorted.size() + " words", runs, () -> {
+                    Autocomplete trie = new Autocomplete();
+                    trie.addSorted(sorted, weights, parallel);
+                    return trie;
+                });
+            }
+        }
+    }
+
+    /**
+     * A replay of 1000 typing sessions on 200k words: each session types
+     * one of 500 popular words (some far more often than others) a key at
+     * a time, with a typo fixed by a backspace in one session out of four.
+     * Each keystroke asks for the top 10, from every word below the prefix
+     * or from topSuggestions, with and without a CachedAutocomplete in
+     * front; each run starts with an empty cache.
+     */
+    private static void replay() throws Exception {
+        TreeMap<String, Long> words = vocabulary(scaled(200_000), 17);
+        Autocomplete trie = new Autocomplete();
+        trie.addSorted(new ArrayList<>(words.keySet()), new ArrayList<>(words.values()), false);
+        List<String> sorted = new ArrayList<>(words.keySet());
+        Random random = new Random(17);
+        List<String> popular = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            popular.add(sorted.get(random.nextInt(sorted.size())));
+        }
+        List<String> keystrokes = new ArrayList<>();
+        for (int session = 0; session < 1000; session++) {
+            String word = popular.get((int) (popular.size() * Math.pow(random.nextDouble(), 3)));
+            int typo = random.nextInt(4) == 0 ? 1 + random.nextInt(word.length() - 1) : -1;
+            for (int c = 1; c <= word.length(); c++) {
+                if (c == typo) {
+                    keystrokes.add(word.substring(0, c - 1) + "q");
+                }
+                keystrokes.add(word.substring(0, c));
+            }
+        }
+        System.out.printf("  %-50s %10d%n", "keystrokes", keystrokes.size());
+        for (boolean cached : new boolean[] { false, true }) {
+            String name = cached ? ", cached" : "";
+            time("collect and sort" + name, () -> {
+                IAutocomplete dictionary = cached ? new CachedAutocomplete(trie) : trie;
+                int found = 0;
+                for (String prefix : keystrokes) {
+                    List<ITerm> matches = dictionary.getSuggestions(prefix);
+                    matches.sort(ITerm.byReverseWeightOrder());
+                    found += matches.subList(0, Math.min(10, matches.size())).size();
+                }
+                return found;
+            });
+            time("topSuggestions" + name, () -> {
+                IAutocomplete dictionary = cached ? new CachedAutocomplete(trie) : trie;
+                int found = 0;
+                for (String prefix : keystrokes) {
+                    found += dictionary.topSuggestions(prefix).size();
+                }
+                return found;
+            });
+        }
+        CachedAutocomplete cache = new CachedAutocomplete(trie);
+        for (String prefix : keystrokes) {
+            cache.getSuggestions(prefix);
+        }
+        System.out.printf("  %-50s %10s%n", "hits / narrowed / misses, collect and sort",
+                cache.hits() + " / " + cache.narrowedHits() + " / " + cache.misses());
+    }
+
+    /**
+     * The time the event thread is busy per keystroke, typing 30 words of
+     * 200k a key every 20 ms, with a pause after each word, on a stand-in
+     * event thread: the search box used to collect, sort and format every
+     * match there; SuggestionWorker only schedules the lookup there and
+     * shows its result.
+     */
+    private static void edt() throws Exception {
+        TreeMap<String, Long> words = vocabulary(scaled(200_000), 18);
+        Autocomplete trie = new Autocomplete();
+        trie.addSorted(new ArrayList<>(words.keySet()), new ArrayList<>(words.values()), false);
+        List<String> sorted = new ArrayList<>(words.keySet());
+        Random random = new Random(18);
+        List<String> keystrokes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String word = sorted.get(random.nextInt(sorted.size()));
+            for (int c = 1; c <= word.length(); c++) {
+                keystrokes.add(word.substring(0, c));
+            }
+        }
+        ExecutorService edt = Executors.newSingleThreadExecutor();
+        AtomicLong busy = new AtomicLong();
+        Executor timed = task -> edt.execute(() -> {
+            long start = System.nanoTime();
+            task.run();
+            busy.addAndGet(System.nanoTime() - start);
+        });
+        SuggestionWorker worker = new SuggestionWorker(trie,
+                SuggestionWorker.DEFAULT_DELAY_MILLIS, timed);
+        try {
+            for (int run = 0; run < 2; run++) {
+                // the first run warms up
+                busy.set(0);
+                for (String text : keystrokes) {
+                    timed.execute(() -> sink = panelSuggestions(trie, text));
+                }
+                edt.submit(() -> null).get();
+                long panel = busy.getAndSet(0);
+                for (int i = 0; i < keystrokes.size(); i++) {
+                    String text = keystrokes.get(i);
+                    timed.execute(() -> worker.request(text, matches -> sink = matches));
+                    // a pause after each word
+                    boolean end = i + 1 == keystrokes.size()
+                            || keystrokes.get(i + 1).length() == 1;
+                    Thread.sleep(end ? 300 : 20);
+                }
+                edt.submit(() -> null).get();
+                if (run == 1) {
+                    System.out.printf("  %-50s %10.2f us%n", "per keystroke, on the event thread",
+                            panel / 1e3 / keystrokes.size());
+                    System.out.printf("  %-50s %10.2f us%n", "per keystroke, SuggestionWorker",
+                            busy.get() / 1e3 / keystrokes.size());
+                }
+            }
+            System.out.printf("  %-50s %10d%n", "lookups of SuggestionWorker", worker.lookups());
+        } finally {
+            worker.shutdown();
+            edt.shutdown();
+        }
+    }
+
+    /**
+     * helper method to find the suggestions shown for a text as the search
+     * box used to: every match sorted, and the first 10 parsed back from
+     * Term.toString.
+     */
+    private static String[] panelSuggestions(IAutocomplete dictionary, String text) {
+        List<ITerm> matches = dictionary.getSuggestions(text);
+        matches.sort(ITerm.byReverseWeightOrder());
+        ITerm[] all = matches.toArray(new ITerm[0]);
+        String[] results = new String[Math.min(10, all.length)];
+        for (int i = 0; i < results.length; i++) {
+            String next = all[i].toString();
+            int tab = next.indexOf('\t');
+            results[i] = next.substring(tab).trim() + " " + next.substring(0, tab).trim();
+        }
+        return results;
+    }
+
+    /**
+     * Reading the links of samplefiles/sample_rss_feed.xml scaled up to 10k
+     * links, and of an RSS 2.0 feed of 10k items with a title, a guid, a
+     * date and a 1 KB description: the Jsoup document the feeds used to be
+     * parsed into, against the StAX events of FeedReader; the time and the
+     * bytes allocated per feed.
+     */
+    private static void feed() throws Exception {
+        String sample = new String(Files.readAllBytes(Paths.get("samplefiles",
+                "sample_rss_feed.xml")), StandardCharsets.UTF_8);
+        String link = "<link>https://www.seas.upenn.edu/~cit5940/page1.html</link>";
+        int count = scaled(10_000);
+        StringBuilder links = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            links.append("        <link>https://www.seas.upenn.edu/~cit5940/page").append(i)
+                    .append(".html</link>\n");
+        }
+        int first = sample.indexOf(link);
+        int end = sample.lastIndexOf("</link>") + "</link>".length();
+        String scaledSample = sample.substring(0, first) + links.toString().trim()
+                + sample.substring(end);
+        StringBuilder items = new StringBuilder("<rss version=\"2.0\"><channel>");
+        Random random = new Random(19);
+        for (int i = 0; i < count; i++) {
+            items.append("<item><title>Story ").append(i).append("</title><link>http://localhost/")
+                    .append(i).append(".html</link><guid>urn:").append(i).append("</guid>")
+                    .append("<pubDate>Mon, 03 Apr 2023 10:00:00 GMT</pubDate><description>");
+            for (int w = 0; w < 150; w++) {
+                items.append("word").append(random.nextInt(1000)).append(' ');
+            }
+            items.append("</description></item>");
+        }
+        items.append("</channel></rss>");
+
+        for (String feed : new String[] { scaledSample, items.toString() }) {
+            String name = feed == scaledSample ? "sample feed" : "items";
+            byte[] bytes = feed.getBytes(StandardCharsets.UTF_8);
+            Callable<Integer> jsoup = () -> {
+                Document document = Jsoup.parse(new ByteArrayInputStream(bytes), "UTF-8",
+                        "http://localhost/", Parser.xmlParser());
+                int found = 0;
+                for (Element element : document.getElementsByTag("link")) {
+                    found += element.text().isEmpty() ? 0 : 1;
+                }
+                return found;
+            };
+            Callable<Integer> stax = () -> {
+                int[] found = new int[1];
+                FeedReader.read(new ByteArrayInputStream(bytes), item -> found[0]++);
+                return found[0];
+            };
+            System.out.printf("  %-50s %10d KB%n", name + ", " + count + " links",
+                    bytes.length / 1024);
+            time("Jsoup document, " + name, jsoup);
+            System.out.printf("  %-50s %10d KB%n", "allocated, Jsoup document",
+                    allocated(jsoup) / 1024);
+            time("FeedReader, " + name, stax);
+            System.out.printf("  %-50s %10d KB%n", "allocated, FeedReader", allocated(stax) / 1024);
+        }
+    }
+
+    /**
+     * The trie Autocomplete used to be: 26 children per node, one per
+     * lowercase letter, and a term at every node. Words with other
+     * characters are dropped.
+     */
+    private static final class ArrayTrie {
+
+        private static final class ArrayNode {
+            Term term = new Term("", 0);
+            int words;
+            int prefixes;
+            final ArrayNode[] references = new ArrayNode[26];
+        }
+
+        final ArrayNode root = new ArrayNode();
+
+        void addWord(String word, long weight) {
+            ArrayNode node = root;
+            for (int i = 0; i < word.length(); i++) {
+                if (word.charAt(i) < 'a' || word.charAt(i) > 'z') {
+                    return;
+                }
+            }
+            for (int i = 0; i < word.length(); i++) {
+                int index = word.charAt(i) - 'a';
+                if (node.references[index] == null) {
+                    node.references[index] = new ArrayNode();
+                }
+                node = node.references[index];
+                node.prefixes++;
+            }
+            node.term = new Term(word, weight);
+            node.words++;
+            root.prefixes++;
+        }
+
+        int countPrefixes(String prefix) {
+            ArrayNode node = root;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                int index = prefix.charAt(i) - 'a';
+                node = index < 0 || index >= 26 ? null : node.references[index];
+            }
+            return node == null ? 0 : node.prefixes;
+        }
+    }
+
+    /**
+     * helper method to write words in the format of autocomplete.txt.
+     */
+    private static void writeAutocompleteFile(Map<String, Long> words, Path file)
+            throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(Integer.toString(words.size()));
+            writer.newLine();
+            for (Map.Entry<String, Long> word : words.entrySet()) {
+                writer.write(String.format("%8d %s", word.getValue(), word.getKey()));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * helper method to generate documents of skewed random words, as the
+     * tests do: some terms are far more frequent than others.
+     */
+    private static Map<String, List<String>> corpus(int count, int vocabulary, int minLength,
+            int extraLength, long seed) {
+        Random random = new Random(seed);
+        // the documents share the strings of their words, so 100k
+        // documents fit in the heap
+        String[] terms = new String[vocabulary];
+        for (int t = 0; t < vocabulary; t++) {
+            terms[t] = "w" + t;
+        }
+        Map<String, List<String>> docs = new HashMap<>();
+        for (int d = 0; d < count; d++) {
+            int length = minLength + random.nextInt(extraLength);
+            List<String> words = new ArrayList<>(length);
+            for (int w = 0; w < length; w++) {
+                words.add(terms[(int) (vocabulary * Math.pow(random.nextDouble(), 3))]);
+            }
+            docs.put(url(d), Collections.unmodifiableList(words));
+        }
+        return docs;
+    }
+
+    /**
+     * helper method to generate words of 3 to 10 random lowercase letters
+     * with random weights.
+     */
+    private static TreeMap<String, Long> vocabulary(int count, long seed) {
+        return vocabulary(count, "abcdefghijklmnopqrstuvwxyz", seed);
+    }
+
+    /**
+     * helper method to generate words of 3 to 10 random characters of an
+     * alphabet with random weights.
+     */
+    private static TreeMap<String, Long> vocabulary(int count, String alphabet, long seed) {
+        Random random = new Random(seed);
+        TreeMap<String, Long> words = new TreeMap<>();
+        while (words.size() < count) {
+            StringBuilder word = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+            for (int c = 0; c < length; c++) {
+                word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            words.put(word.toString(), (long) random.nextInt(1_000_000));
+        }
+        return words;
+    }
+
+    private static String url(int doc) {
+        return "http://localhost/doc" + doc + ".html";
+    }
+
+    /**
+     * helper method to print the median time of a task, after warming it
+     * up.
+     *
+     * @return the median time in ms
+     */
+    private static double time(String name, Callable<?> task) throws Exception {
+        return time(name, RUNS, task);
+    }
+
+    /**
+     * helper method to print the median time of a slow task, after as many
+     * warm-up runs as timed runs.
+     */
+    private static double time(String name, int runs, Callable<?> task) throws Exception {
+        for (int i = 0; i < runs; i++) {
+            sink = task.call();
+        }
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            sink = task.call();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("  %-50s %10.2f ms%n", name, nanos[runs / 2] / 1e6);
+        sink = null;
+        return nanos[runs / 2] / 1e6;
+    }
+
+    /**
+     * helper method to apply the scale to the size of an input.
+     */
+    private static int scaled(int size) {
+        return Math.max(1, (int) (size * scale));
+    }
+
+    /**
+     * helper method to print the heap retained by the result of a task.
+     *
+     * @return the bytes retained
+     */
+    private static long retained(String name, Callable<?> task) throws Exception {
+        long before = usedHeap();
+        sink = task.call();
+        long after = usedHeap();
+        System.out.printf("  %-50s %10d KB%n", name + " retained", (after - before) / 1024);
+        sink = null;
+        return after - before;
+    }
+
+    /**
+     * helper method to measure the bytes a task allocates on the calling
+     * thread.
+     */
+    private static long allocated(Callable<?> task) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        sink = task.call();
+        long res = threads.getThreadAllocatedBytes(id) - before;
+        sink = null;
+        return res;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
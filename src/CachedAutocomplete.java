@@ -0,0 +1,299 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link IAutocomplete} that remembers the suggestions of recent
+ * prefixes, for a search box that asks again on every keystroke.
+ *
+ * The results of getSuggestions and topSuggestions are kept in an LRU map
+ * holding at most maxTerms terms in all. When the user extends a prefix,
+ * the results are narrowed from a cached shorter prefix instead of walking
+ * the trie again: the suggestions of "elec" are the ones of "ele" that
+ * start with "elec". Top suggestions can only be narrowed from a list that
+ * has every word of the shorter prefix, i.e. fewer than k of them.
+ *
+ * The cache is cleared when the dictionary is rebuilt through it, or
+ * replaced in a {@link SwappableAutocomplete} it wraps. The other methods
+ * are not cached.
+ */
+public class CachedAutocomplete implements IAutocomplete {
+
+    public static final int DEFAULT_MAX_TERMS = 1 << 16;
+
+    // key prefixes of the two kinds of lists
+    private static final String ALL = "a:";
+    private static final String TOP = "t:";
+
+    private final IAutocomplete delegate;
+    private final int maxTerms;
+    // least recently used first
+    private final LinkedHashMap<String, List<ITerm>> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    // number of terms in the entries, plus one per entry
+    private int size;
+    // the dictionary the entries were computed from
+    private Object generation;
+    // number of times the entries were cleared
+    private long epoch;
+    private long hits;
+    private long narrowed;
+    private long misses;
+
+    public CachedAutocomplete(IAutocomplete delegate) {
+        this(delegate, DEFAULT_MAX_TERMS);
+    }
+
+    /**
+     * @param delegate the dictionary
+     * @param maxTerms the maximum number of terms kept in all the entries
+     */
+    public CachedAutocomplete(IAutocomplete delegate, int maxTerms) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("dictionary cannot be null");
+        }
+        if (maxTerms < 0) {
+            throw new IllegalArgumentException("maxTerms cannot be negative");
+        }
+        this.delegate = delegate;
+        this.maxTerms = maxTerms;
+        this.generation = generation();
+    }
+
+    /**
+     * @return the number of lookups answered by an entry of the same prefix
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups answered by narrowing the entry of a
+     *         shorter prefix
+     */
+    public synchronized long narrowedHits() {
+        return narrowed;
+    }
+
+    /**
+     * @return the number of lookups passed on to the dictionary
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the size of the entries: their terms, plus one per entry
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Forget every entry, e.g. after the dictionary was changed directly.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        size = 0;
+        epoch++;
+    }
+
+    @Override
+    public void addWord(String word, long weight) {
+        delegate.addWord(word, weight);
+        invalidate();
+    }
+
+    @Override
+    public Node buildTrie(String filename, int k) {
+        Node root = delegate.buildTrie(filename, k);
+        invalidate();
+        return root;
+    }
+
+    @Override
+    public int numberSuggestions() {
+        return delegate.numberSuggestions();
+    }
+
+    @Override
+    public Node getSubTrie(String prefix) {
+        return delegate.getSubTrie(prefix);
+    }
+
+    @Override
+    public int countPrefixes(String prefix) {
+        return delegate.countPrefixes(prefix);
+    }
+
+    @Override
+    public List<ITerm> getSuggestions(String prefix) {
+        if (prefix == null) {
+            return delegate.getSuggestions(prefix);
+        }
+        String p = prefix.toLowerCase();
+        Object current = generation();
+        long epoch;
+        synchronized (this) {
+            check(current);
+            List<ITerm> cached = entries.get(ALL + p);
+            if (cached != null) {
+                hits++;
+                return copy(cached);
+            }
+            List<ITerm> shorter = shorter(ALL, p, false);
+            if (shorter != null) {
+                narrowed++;
+                List<ITerm> res = filter(shorter, p);
+                put(ALL + p, res);
+                return copy(res);
+            }
+            misses++;
+            epoch = this.epoch;
+        }
+        List<ITerm> res = delegate.getSuggestions(prefix);
+        store(current, epoch, ALL + p, res);
+        return copy(res);
+    }
+
+    @Override
+    public List<ITerm> topSuggestions(String prefix) {
+        if (prefix == null) {
+            return delegate.topSuggestions(prefix);
+        }
+        String p = prefix.toLowerCase();
+        Object current = generation();
+        int k = delegate.numberSuggestions();
+        long epoch;
+        synchronized (this) {
+            check(current);
+            List<ITerm> cached = entries.get(TOP + p);
+            if (cached != null) {
+                hits++;
+                return copy(cached);
+            }
+            List<ITerm> shorter = shorter(TOP, p, true);
+            List<ITerm> res = null;
+            if (shorter != null) {
+                // already heaviest first
+                res = filter(shorter, p);
+            } else if ((shorter = shorter(ALL, p, false)) != null) {
+                res = filter(shorter, p);
+                res.sort(HEAVIEST_FIRST);
+                res = new ArrayList<>(res.subList(0, Math.min(k, res.size())));
+            }
+            if (res != null) {
+                narrowed++;
+                put(TOP + p, res);
+                return copy(res);
+            }
+            misses++;
+            epoch = this.epoch;
+        }
+        List<ITerm> res = delegate.topSuggestions(prefix);
+        store(current, epoch, TOP + p, res);
+        return copy(res);
+    }
+
+    @Override
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits) {
+        return delegate.fuzzySuggestions(prefix, maxEdits);
+    }
+
+    // heaviest first, equal weights in lexicographic order
+    private static final Comparator<ITerm> HEAVIEST_FIRST = (t1, t2) -> {
+        int cmp = Long.compare(((Term) t2).getWeight(), ((Term) t1).getWeight());
+        return cmp != 0 ? cmp : t1.getTerm().compareTo(t2.getTerm());
+    };
+
+    /**
+     * @return the dictionary currently answering lookups
+     */
+    private Object generation() {
+        return delegate instanceof SwappableAutocomplete
+                ? ((SwappableAutocomplete) delegate).current() : delegate;
+    }
+
+    /**
+     * helper method to clear the entries if the dictionary was replaced.
+     */
+    private void check(Object current) {
+        if (current != generation) {
+            invalidate();
+            generation = current;
+        }
+    }
+
+    /**
+     * helper method to find the entry of the longest shorter prefix.
+     *
+     * @param complete true to only accept top suggestions that have every
+     *                 word of their prefix
+     * @return the entry, or null
+     */
+    private List<ITerm> shorter(String kind, String prefix, boolean complete) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            List<ITerm> entry = entries.get(kind + prefix.substring(0, i));
+            if (entry != null) {
+                return complete && entry.size() >= delegate.numberSuggestions() ? null : entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * helper method to copy the terms of an entry for a caller: the
+     * entries are shared, and a term's weight can be changed.
+     */
+    private static List<ITerm> copy(List<ITerm> terms) {
+        List<ITerm> res = new ArrayList<>(terms.size());
+        for (ITerm term : terms) {
+            res.add(new Term(term.getTerm(), ((Term) term).getWeight()));
+        }
+        return res;
+    }
+
+    private static List<ITerm> filter(List<ITerm> terms, String prefix) {
+        List<ITerm> res = new ArrayList<>();
+        for (ITerm term : terms) {
+            if (term.getTerm().startsWith(prefix)) {
+                res.add(term);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * helper method to cache the result of the dictionary, unless it was
+     * replaced or changed while the result was computed.
+     */
+    private void store(Object current, long epoch, String key, List<ITerm> res) {
+        List<ITerm> copy = new ArrayList<>(res);
+        synchronized (this) {
+            if (epoch == this.epoch && current == generation()) {
+                put(key, copy);
+            }
+        }
+    }
+
+    private void put(String key, List<ITerm> terms) {
+        // an empty list still takes a slot
+        int weight = terms.size() + 1;
+        if (weight > maxTerms) {
+            return;
+        }
+        List<ITerm> old = entries.put(key, terms);
+        if (old != null) {
+            size -= old.size() + 1;
+        }
+        size += weight;
+        Iterator<Map.Entry<String, List<ITerm>>> eldest = entries.entrySet().iterator();
+        while (size > maxTerms) {
+            size -= eldest.next().getValue().size() + 1;
+            eldest.remove();
+        }
+    }
+}
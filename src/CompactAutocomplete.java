@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link IAutocomplete} trie stored in a few parallel arrays instead of
+ * one {@link Node} (with its child arrays and a Term) per character.
+ *
+ * The nodes are numbered in breadth-first order, so the children of a node
+ * are consecutive: they are firstChild[i] .. firstChild[i + 1] - 1, sorted
+ * by their label. The words are kept sorted, so the words starting with a
+ * prefix are a range of the word array, and the top k terms of each node
+ * are stored as word indexes in one shared array.
+ *
+ * The arrays are rebuilt from all the words by buildTrie, addWords and
+ * each addWord, so a lookup never changes them: add many words with
+ * buildTrie or addWords rather than word by word. As in {@link Autocomplete}, words
+ * must be made of lowercase letters and digits; adding a word again
+ * replaces its weight.
+ */
+public class CompactAutocomplete implements IAutocomplete {
+
+    private int k = Autocomplete.DEFAULT_K;
+
+    // sorted words and their weights
+    private String[] words = new String[0];
+    private long[] weights = new long[0];
+
+    // per node, in breadth-first order
+    private char[] label = new char[0];
+    private int[] firstChild = { 1, 1 };
+    private int[] wordFrom = { 0 };
+    private int[] wordTo = { 0 };
+    private BitSet terminal = new BitSet();
+    // top terms of node i: topWords[topStart[i] .. topStart[i + 1] - 1]
+    private int[] topStart = { 0, 0 };
+    private int[] topWords = new int[0];
+
+    /**
+     * Rebuilds the arrays: O(number of words).
+     */
+    @Override
+    public void addWord(String word, long weight) {
+        addWords(Collections.singletonMap(word, weight));
+    }
+
+    /**
+     * Add words with a single rebuild of the arrays.
+     *
+     * @param words the words and their weights; invalid words are skipped,
+     *              as in addWord
+     * @throws IllegalArgumentException if a weight is negative
+     */
+    public void addWords(Map<String, Long> words) {
+        Map<String, Long> added = new TreeMap<>();
+        for (Map.Entry<String, Long> word : words.entrySet()) {
+            add(added, word.getKey(), word.getValue());
+        }
+        if (!added.isEmpty()) {
+            build(added);
+        }
+    }
+
+    /**
+     * helper method to check a word and put it in the words to add.
+     */
+    private static void add(Map<String, Long> added, String word, long weight) {
+        if (word == null || word.isEmpty()) {
+            return;
+        }
+        if (!Autocomplete.isValidWord(word)) {
+            return;
+        }
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight cannot be negative");
+        }
+        added.put(word, weight);
+    }
+
+    /**
+     * @return the root, without its children: use getSubTrie for a prefix
+     */
+    @Override
+    public Node buildTrie(String filename, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        this.k = k;
+        Map<String, Long> added = new TreeMap<>();
+        try {
+            AutocompleteFile.read(filename, new AutocompleteFile.Visitor() {
+                @Override
+                public void count(int count) {
+                }
+
+                @Override
+                public void word(String word, long weight) {
+                    add(added, word, weight);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        build(added);
+        return root();
+    }
+
+    /**
+     * helper method to summarize the root without building its subtrie, as
+     * FSTAutocomplete does: getSubTrie("") would build a Node for every
+     * word.
+     */
+    private Node root() {
+        Node res = new Node();
+        res.setPrefixes(wordTo[0] - wordFrom[0]);
+        res.setTopTerms(topTerms(0).toArray(new Term[0]));
+        return res;
+    }
+
+    @Override
+    public int numberSuggestions() {
+        return k;
+    }
+
+    /**
+     * The compact trie has no Node objects: the subtrie is built from the
+     * words of the prefix, in O(number of these words), and changing it
+     * does not change the dictionary.
+     */
+    @Override
+    public Node getSubTrie(String prefix) {
+        int node = find(prefix);
+        if (node < 0) {
+            return null;
+        }
+        List<String> subWords = Arrays.asList(words).subList(wordFrom[node], wordTo[node]);
+        List<Long> subWeights = new ArrayList<>(subWords.size());
+        for (int w = wordFrom[node]; w < wordTo[node]; w++) {
+            subWeights.add(weights[w]);
+        }
+        return Autocomplete.subTrie(prefix, subWords, subWeights, k);
+    }
+
+    @Override
+    public int countPrefixes(String prefix) {
+        int node = find(prefix);
+        return node < 0 ? 0 : wordTo[node] - wordFrom[node];
+    }
+
+    @Override
+    public List<ITerm> getSuggestions(String prefix) {
+        List<ITerm> suggestions = new ArrayList<>();
+        int node = find(prefix);
+        if (node >= 0) {
+            for (int w = wordFrom[node]; w < wordTo[node]; w++) {
+                suggestions.add(new Term(words[w], weights[w]));
+            }
+        }
+        return suggestions;
+    }
+
+    @Override
+    public List<ITerm> topSuggestions(String prefix) {
+        int node = find(prefix);
+        return node < 0 ? new ArrayList<>() : new ArrayList<>(topTerms(node));
+    }
+
+    @Override
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        FuzzyMatcher matcher = new FuzzyMatcher(prefix.toLowerCase(), maxEdits);
+        fuzzy(0, matcher.start(), Integer.MAX_VALUE, matcher);
+        return matcher.top(k);
+    }
+
+    /**
+     * helper method to visit a node of the fuzzy search, as in
+     * {@link Autocomplete#fuzzySuggestions}.
+     *
+     * @param best the smallest distance of the nodes above it
+     */
+    private void fuzzy(int node, int[] row, int best, FuzzyMatcher matcher) {
+        int distance = matcher.distance(row);
+        if (matcher.matches(row) && distance < best) {
+            int from = topStart[node];
+            int size = topStart[node + 1] - from;
+            // the terms are only made for the words the merge looks at
+            matcher.add(new AbstractList<Term>() {
+                @Override
+                public Term get(int i) {
+                    return new Term(words[topWords[from + i]], weights[topWords[from + i]]);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            }, distance);
+            best = distance;
+        }
+        for (int child = firstChild[node]; child < firstChild[node + 1]; child++) {
+            int[] next = matcher.step(row, label[child]);
+            if (next != null) {
+                fuzzy(child, next, best, matcher);
+            }
+        }
+    }
+
+    private List<Term> topTerms(int node) {
+        List<Term> res = new ArrayList<>(topStart[node + 1] - topStart[node]);
+        for (int i = topStart[node]; i < topStart[node + 1]; i++) {
+            res.add(new Term(words[topWords[i]], weights[topWords[i]]));
+        }
+        return res;
+    }
+
+    /**
+     * helper method to find the node of a prefix: a binary search on the
+     * labels of the children at each level.
+     *
+     * @return the node id, or -1 if no word starts with the prefix (the
+     *         root for the empty prefix, even without words)
+     */
+    private int find(String prefix) {
+        if (prefix == null) {
+            return -1;
+        }
+        String p = prefix.toLowerCase();
+        int node = 0;
+        for (int i = 0; i < p.length() && node >= 0; i++) {
+            int lo = firstChild[node];
+            int hi = firstChild[node + 1] - 1;
+            char c = p.charAt(i);
+            node = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (label[mid] == c) {
+                    node = mid;
+                    break;
+                } else if (label[mid] < c) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+        }
+        // every node but the root is on the path of a word
+        return node;
+    }
+
+    /**
+     * helper method to rebuild the arrays from the sorted words and the
+     * words added.
+     */
+    private void build(Map<String, Long> added) {
+        TreeMap<String, Long> all = new TreeMap<>(added);
+        for (int w = 0; w < words.length; w++) {
+            all.putIfAbsent(words[w], weights[w]);
+        }
+        words = all.keySet().toArray(new String[0]);
+        weights = new long[words.length];
+        int w = 0;
+        for (long weight : all.values()) {
+            weights[w++] = weight;
+        }
+
+        // 1. number the nodes in breadth-first order
+        IntList labels = new IntList();
+        IntList firsts = new IntList();
+        IntList froms = new IntList();
+        IntList tos = new IntList();
+        IntList depths = new IntList();
+        BitSet terminals = new BitSet();
+        labels.add(0);
+        froms.add(0);
+        tos.add(words.length);
+        depths.add(0);
+        for (int node = 0; node < froms.size(); node++) {
+            int from = froms.get(node);
+            int to = tos.get(node);
+            int depth = depths.get(node);
+            firsts.add(froms.size());
+            if (from < to && words[from].length() == depth) {
+                terminals.set(node);
+                from++;
+            }
+            // one child per distinct character at this depth
+            while (from < to) {
+                char c = words[from].charAt(depth);
+                int end = from + 1;
+                while (end < to && words[end].charAt(depth) == c) {
+                    end++;
+                }
+                labels.add(c);
+                froms.add(from);
+                tos.add(end);
+                depths.add(depth + 1);
+                from = end;
+            }
+        }
+        int n = froms.size();
+        firsts.add(n);
+        label = new char[n];
+        for (int node = 0; node < n; node++) {
+            label[node] = (char) labels.get(node);
+        }
+        firstChild = firsts.toArray();
+        wordFrom = froms.toArray();
+        wordTo = tos.toArray();
+        terminal = terminals;
+
+        // 2. top terms, children before parents (reverse breadth-first)
+        int[][] tops = new int[n][];
+        for (int node = n - 1; node >= 0; node--) {
+            IntList candidates = new IntList();
+            if (terminal.get(node)) {
+                candidates.add(wordFrom[node]);
+            }
+            for (int child = firstChild[node]; child < firstChild[node + 1]; child++) {
+                for (int top : tops[child]) {
+                    candidates.add(top);
+                }
+            }
+            Integer[] sorted = new Integer[candidates.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = candidates.get(i);
+            }
+            // heaviest first, equal weights in lexicographic (= index) order
+            Arrays.sort(sorted, (a, b) -> {
+                int cmp = Long.compare(weights[b], weights[a]);
+                return cmp != 0 ? cmp : Integer.compare(a, b);
+            });
+            tops[node] = new int[Math.min(k, sorted.length)];
+            for (int i = 0; i < tops[node].length; i++) {
+                tops[node][i] = sorted[i];
+            }
+        }
+        topStart = new int[n + 1];
+        for (int node = 0; node < n; node++) {
+            topStart[node + 1] = topStart[node] + tops[node].length;
+        }
+        topWords = new int[topStart[n]];
+        for (int node = 0; node < n; node++) {
+            System.arraycopy(tops[node], 0, topWords, topStart[node], tops[node].length);
+        }
+    }
+
+    /**
+     * A growable int array.
+     */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
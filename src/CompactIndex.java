@@ -0,0 +1,439 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Forward and inverted TF-IDF indexes stored with int ids instead of
+ * strings. Words and document urls are mapped to dense ids by two
+ * {@link TermDictionary} objects while the documents are tokenized, and
+ * the forward index is kept as int/float arrays indexed by those ids. The
+ * postings of the inverted index are compressed {@link PostingsList}s
+ * (quantized scores, delta-encoded doc ids).
+ *
+ * The maps returned by {@link IIndexBuilder#buildIndex} and
+ * {@link IIndexBuilder#buildInvertedIndex} are available as read-only views
+ * ({@link #forwardIndex()} and {@link #invertedIndex()}), so the index can
+ * be passed to buildHomePage and searchArticles unchanged.
+ */
+public class CompactIndex {
+
+    private final TermDictionary terms;
+    private final TermDictionary docs;
+    // lexicographic rank of each term id
+    private final int[] termRank;
+    // forward index: per document, its term ids in lexicographic order and
+    // their TF-IDF values
+    private final int[][] docTerms;
+    private final float[][] docScores;
+    // inverted index: per term, its documents by reverse TF-IDF value
+    private final PostingsList[] postings;
+
+    CompactIndex(TermDictionary terms, TermDictionary docs, int[] termRank,
+            int[][] docTerms, float[][] docScores, PostingsList[] postings) {
+        this.terms = terms;
+        this.docs = docs;
+        this.termRank = termRank;
+        this.docTerms = docTerms;
+        this.docScores = docScores;
+        this.postings = postings;
+    }
+
+    /**
+     * Build the forward and inverted indexes of the documents.
+     *
+     * @param documents a map computed by {@link IIndexBuilder#parseFeed}
+     * @return the index, with the same TF-IDF values as IndexBuilder
+     *         (stored as floats)
+     */
+    public static CompactIndex build(Map<String, List<String>> documents) {
+        int n = documents.size();
+        TermDictionary terms = new TermDictionary();
+        TermDictionary docs = new TermDictionary(n);
+        int[][] docTerms = new int[n][];
+        int[][] docCounts = new int[n][];
+        int[] lengths = new int[n];
+        // number of documents containing each term
+        int[] docFreq = new int[16];
+        // occurrences of each term in the current document, and the terms
+        // seen in it so the counters can be reset
+        int[] count = new int[16];
+        int[] seen = new int[16];
+
+        // 1. assign ids and count the terms of each document
+        for (Entry<String, List<String>> entry : documents.entrySet()) {
+            int doc = docs.add(entry.getKey());
+            List<String> words = entry.getValue();
+            if (seen.length < words.size()) {
+                seen = new int[words.size()];
+            }
+            int distinct = 0;
+            for (String word : words) {
+                int term = terms.add(word);
+                if (term == count.length) {
+                    count = Arrays.copyOf(count, term * 2);
+                    docFreq = Arrays.copyOf(docFreq, term * 2);
+                }
+                if (count[term]++ == 0) {
+                    seen[distinct++] = term;
+                }
+            }
+            int[] counts = new int[distinct];
+            for (int i = 0; i < distinct; i++) {
+                counts[i] = count[seen[i]];
+                count[seen[i]] = 0;
+                docFreq[seen[i]]++;
+            }
+            docTerms[doc] = Arrays.copyOf(seen, distinct);
+            docCounts[doc] = counts;
+            lengths[doc] = words.size();
+        }
+        return build(terms, docs, docTerms, docCounts, lengths, docFreq);
+    }
+
+    /**
+     * Build the forward and inverted indexes of documents whose words are
+     * already counted, e.g. a copy of an {@link IncrementalIndex}.
+     *
+     * @param counts  document url -> times that each word appears in the
+     *                document
+     * @param lengths document url -> number of words in the document
+     * @return the index, as {@link #build(Map)} of the documents
+     */
+    static CompactIndex build(Map<String, Map<String, Integer>> counts,
+            Map<String, Integer> lengths) {
+        int n = counts.size();
+        TermDictionary terms = new TermDictionary();
+        TermDictionary docs = new TermDictionary(n);
+        int[][] docTerms = new int[n][];
+        int[][] docCounts = new int[n][];
+        int[] docLengths = new int[n];
+        int[] docFreq = new int[16];
+        for (Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+            int doc = docs.add(entry.getKey());
+            int[] ids = new int[entry.getValue().size()];
+            int[] times = new int[ids.length];
+            int i = 0;
+            for (Entry<String, Integer> word : entry.getValue().entrySet()) {
+                int term = terms.add(word.getKey());
+                if (term == docFreq.length) {
+                    docFreq = Arrays.copyOf(docFreq, term * 2);
+                }
+                docFreq[term]++;
+                ids[i] = term;
+                times[i++] = word.getValue();
+            }
+            docTerms[doc] = ids;
+            docCounts[doc] = times;
+            docLengths[doc] = lengths.get(entry.getKey());
+        }
+        return build(terms, docs, docTerms, docCounts, docLengths, docFreq);
+    }
+
+    /**
+     * helper method to compute the TF-IDF values and the postings of
+     * documents whose terms are counted.
+     */
+    private static CompactIndex build(TermDictionary terms, TermDictionary docs,
+            int[][] docTerms, int[][] docCounts, int[] lengths, int[] docFreq) {
+        int n = docs.size();
+        int[] termRank = rankTerms(terms);
+
+        // 2. compute the TF-IDF values, terms in lexicographic order
+        float[][] docScores = new float[n][];
+        for (int doc = 0; doc < n; doc++) {
+            int[] ids = docTerms[doc];
+            long[] keys = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                keys[i] = ((long) termRank[ids[i]] << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] sortedIds = new int[ids.length];
+            float[] scores = new float[ids.length];
+            for (int i = 0; i < keys.length; i++) {
+                int j = (int) keys[i];
+                double tf = (double) docCounts[doc][j] / lengths[doc];
+                double idf = Math.log((double) n / docFreq[ids[j]]);
+                sortedIds[i] = ids[j];
+                scores[i] = (float) (tf * idf);
+            }
+            docTerms[doc] = sortedIds;
+            docScores[doc] = scores;
+        }
+
+        // 3. invert the forward index
+        int v = terms.size();
+        int[][] postingDocs = new int[v][];
+        float[][] postingScores = new float[v][];
+        for (int term = 0; term < v; term++) {
+            postingDocs[term] = new int[docFreq[term]];
+            postingScores[term] = new float[docFreq[term]];
+        }
+        int[] filled = new int[v];
+        for (int doc = 0; doc < n; doc++) {
+            for (int i = 0; i < docTerms[doc].length; i++) {
+                int term = docTerms[doc][i];
+                postingDocs[term][filled[term]] = doc;
+                postingScores[term][filled[term]++] = docScores[doc][i];
+            }
+        }
+        PostingsList[] postings = new PostingsList[v];
+        for (int term = 0; term < v; term++) {
+            sortPostings(postingDocs[term], postingScores[term]);
+            postings[term] = PostingsList.encode(postingDocs[term], postingScores[term]);
+            postingDocs[term] = null;
+            postingScores[term] = null;
+        }
+        return new CompactIndex(terms, docs, termRank, docTerms, docScores, postings);
+    }
+
+    /**
+     * helper method to compute the lexicographic rank of every term id.
+     */
+    static int[] rankTerms(TermDictionary terms) {
+        Integer[] order = new Integer[terms.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> terms.get(a).compareTo(terms.get(b)));
+        int[] rank = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return rank;
+    }
+
+    /**
+     * helper method to sort postings by reverse TF-IDF value, ties by
+     * document id. TF-IDF values are never negative, so the bits of the
+     * float sort like the value.
+     */
+    static void sortPostings(int[] postDocs, float[] postScores) {
+        long[] keys = new long[postDocs.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) (Integer.MAX_VALUE - Float.floatToIntBits(postScores[i])) << 32)
+                    | postDocs[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) {
+            postDocs[i] = (int) keys[i];
+            postScores[i] = Float.intBitsToFloat(Integer.MAX_VALUE - (int) (keys[i] >>> 32));
+        }
+    }
+
+    /**
+     * @return the dictionary of term ids
+     */
+    public TermDictionary terms() {
+        return terms;
+    }
+
+    /**
+     * @return the dictionary of document ids (urls)
+     */
+    public TermDictionary docs() {
+        return docs;
+    }
+
+    /**
+     * @param doc a document id
+     * @return the term ids of the document in lexicographic order of the
+     *         terms
+     */
+    public int[] docTerms(int doc) {
+        return docTerms[doc];
+    }
+
+    /**
+     * @param doc a document id
+     * @return the TF-IDF values matching {@link #docTerms(int)}
+     */
+    public float[] docScores(int doc) {
+        return docScores[doc];
+    }
+
+    /**
+     * @param term a term id
+     * @return the documents of the term by reverse TF-IDF value
+     */
+    public PostingsList postings(int term) {
+        return postings[term];
+    }
+
+    /**
+     * @return the forward index as the map built by
+     *         {@link IIndexBuilder#buildIndex}
+     */
+    public Map<String, Map<String, Double>> forwardIndex() {
+        return new IdMap<Map<String, Double>>(docs) {
+            @Override
+            Map<String, Double> value(int doc) {
+                return new DocumentView(doc);
+            }
+        };
+    }
+
+    /**
+     * @return the inverted index as the map built by
+     *         {@link IIndexBuilder#buildInvertedIndex}
+     */
+    public Map<String, List<Entry<String, Double>>> invertedIndex() {
+        return new IdMap<List<Entry<String, Double>>>(terms) {
+            @Override
+            List<Entry<String, Double>> value(int term) {
+                return new PostingsEntries(postings[term], docs::get);
+            }
+        };
+    }
+
+    /**
+     * A read-only map keyed by the strings of a dictionary.
+     */
+    private abstract static class IdMap<V> extends AbstractMap<String, V> {
+
+        private final TermDictionary keys;
+
+        IdMap(TermDictionary keys) {
+            this.keys = keys;
+        }
+
+        abstract V value(int id);
+
+        @Override
+        public V get(Object key) {
+            int id = key instanceof String ? keys.id((String) key) : -1;
+            return id < 0 ? null : value(id);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && keys.id((String) key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet() {
+            return new AbstractSet<Entry<String, V>>() {
+                @Override
+                public int size() {
+                    return keys.size();
+                }
+
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new Iterator<Entry<String, V>>() {
+                        private int id = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return id < keys.size();
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int current = id++;
+                            return new SimpleImmutableEntry<>(keys.get(current), value(current));
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * The terms of a document and their TF-IDF values, in lexicographic
+     * order.
+     */
+    private class DocumentView extends AbstractMap<String, Double> {
+
+        private final int doc;
+
+        DocumentView(int doc) {
+            this.doc = doc;
+        }
+
+        @Override
+        public Double get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : (double) docScores[doc][i];
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return docTerms[doc].length;
+        }
+
+        // binary search on the lexicographic rank of the terms
+        private int indexOf(Object key) {
+            int term = key instanceof String ? terms.id((String) key) : -1;
+            if (term < 0) {
+                return -1;
+            }
+            int[] ids = docTerms[doc];
+            int lo = 0;
+            int hi = ids.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Integer.compare(termRank[ids[mid]], termRank[term]);
+                if (cmp == 0) {
+                    return mid;
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            return new AbstractSet<Entry<String, Double>>() {
+                @Override
+                public int size() {
+                    return docTerms[doc].length;
+                }
+
+                @Override
+                public Iterator<Entry<String, Double>> iterator() {
+                    return new Iterator<Entry<String, Double>>() {
+                        private int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < docTerms[doc].length;
+                        }
+
+                        @Override
+                        public Entry<String, Double> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Double> entry = new SimpleImmutableEntry<>(
+                                    terms.get(docTerms[doc][i]), (double) docScores[doc][i]);
+                            i++;
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,519 @@
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crawls the feeds into an {@link IncrementalIndex} in three stages that
+ * run at the same time, instead of downloading every article before the
+ * first one is indexed:
+ *
+ * 1. FETCH: {@link IndexBuilder#getParallelism()} threads read the feeds
+ *    and download the article of each item as soon as it is read;
+ * 2. TOKENIZE: threads split the text of each article into words;
+ * 3. INDEX: the calling thread adds each document to the index, unless
+ *    it is a copy of a document of the crawl (see {@link Deduplicator}).
+ *
+ * The stages are connected by bounded queues. A stage that gets ahead
+ * blocks until the next one has room, so the downloads slow down to the
+ * speed of the indexing, and at most about twice the queue capacity of
+ * article texts and word lists are in memory, whatever the size of the
+ * crawl. Only the index itself grows with the corpus.
+ *
+ * At the end, the documents of the index that were not crawled, or are
+ * now copies, are removed, so the index ends up as after
+ * {@code index.update(Deduplicator.deduplicate(docs).documents())} with
+ * {@code docs = builder.parseFeed(feeds)}, up to the grouping of near
+ * copies, which can depend on the order the articles arrive in. The
+ * progress of the FEEDS, ARTICLES and INDEX stages overlaps; the totals of
+ * the last two grow while the feeds are read.
+ */
+public class CrawlPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * The stages of the pipeline.
+     */
+    public enum Step {
+        FETCH, TOKENIZE, INDEX
+    }
+
+    // tells the next stage that no more documents will come
+    private static final FetchCache.Page END_TEXT =
+            new FetchCache.Page(null, null, null, null, null, 0);
+    private static final Entry<String, List<String>> END_DOC = new SimpleImmutableEntry<>(null, null);
+
+    private final IndexBuilder builder;
+    private final int tokenizers;
+    private final int capacity;
+    private volatile Metrics metrics = new Metrics(0);
+    // the copies collapsed by the last run
+    private volatile Map<String, List<String>> aliases = Collections.emptyMap();
+
+    /**
+     * A pipeline with a tokenizer thread per processor.
+     *
+     * @param builder downloads the feeds and articles
+     */
+    public CrawlPipeline(IndexBuilder builder) {
+        this(builder, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param builder    downloads the feeds and articles
+     * @param tokenizers the number of tokenizer threads
+     * @param capacity   the capacity of each queue between two stages
+     */
+    public CrawlPipeline(IndexBuilder builder, int tokenizers, int capacity) {
+        if (builder == null) {
+            throw new IllegalArgumentException("builder cannot be null");
+        }
+        if (tokenizers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("tokenizers and capacity must be positive");
+        }
+        this.builder = builder;
+        this.tokenizers = tokenizers;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the metrics of the current run, or of the last one
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the urls of the copies of each canonical document that had
+     *         copies in the last run, as computed by
+     *         {@link Deduplicator#aliases()}
+     */
+    public Map<String, List<String>> aliases() {
+        return aliases;
+    }
+
+    /**
+     * Crawl the feeds into an index. If the calling thread is interrupted,
+     * the crawl is abandoned: the index then has some documents of the new
+     * crawl and some of the previous one, as with an interrupted
+     * {@link IncrementalIndex#update}.
+     *
+     * @param feeds    the rss feeds to crawl
+     * @param index    the index to update, only used by the calling thread
+     * @param progress receives the progress of the run
+     * @return the number of documents added, replaced or removed
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    public int run(List<String> feeds, IncrementalIndex index, IndexingProgress progress)
+            throws InterruptedException {
+        Run run = new Run(feeds, progress);
+        metrics = run.metrics;
+        try {
+            return run.index(index);
+        } finally {
+            run.stop();
+        }
+    }
+
+    /**
+     * A run of the pipeline.
+     */
+    private final class Run {
+        final List<String> feeds;
+        final IndexingProgress progress;
+        final BlockingQueue<FetchCache.Page> texts = new ArrayBlockingQueue<>(capacity);
+        final BlockingQueue<Entry<String, List<String>>> docs = new ArrayBlockingQueue<>(capacity);
+        final ThreadPoolExecutor fetchers;
+        final ExecutorService tokenizerPool;
+        final Metrics metrics;
+        // the article links submitted, across feeds
+        final Set<String> submitted = ConcurrentHashMap.newKeySet();
+        // feeds and articles not downloaded yet, plus one until every feed
+        // is submitted
+        final AtomicInteger pending = new AtomicInteger(1);
+        // guarded by the run
+        int feedsDone;
+        int articlesDone;
+
+        Run(List<String> feeds, IndexingProgress progress) {
+            this.feeds = feeds;
+            this.progress = progress;
+            fetchers = new ThreadPoolExecutor(builder.getParallelism(), builder.getParallelism(),
+                    0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), daemon("crawl-fetch"));
+            tokenizerPool = Executors.newFixedThreadPool(tokenizers, daemon("crawl-tokenize"));
+            metrics = new Metrics(capacity);
+            metrics.cache = builder.getCache();
+            metrics.cacheStart = metrics.cache == null ? null : metrics.cache.stats();
+            metrics.queues[Step.FETCH.ordinal()] = fetchers.getQueue();
+            metrics.queues[Step.TOKENIZE.ordinal()] = texts;
+            metrics.queues[Step.INDEX.ordinal()] = docs;
+        }
+
+        /**
+         * helper method to start the other stages and run the INDEX stage.
+         */
+        int index(IncrementalIndex index) throws InterruptedException {
+            for (int i = 0; i < tokenizers; i++) {
+                tokenizerPool.execute(this::tokenize);
+            }
+            for (String feedUrl : feeds) {
+                pending.incrementAndGet();
+                fetchers.execute(() -> fetchFeed(feedUrl));
+            }
+            done();
+
+            // the canonical documents of the crawl
+            Set<String> crawled = new HashSet<>();
+            Deduplicator dedup = new Deduplicator();
+            int changed = 0;
+            int ended = 0;
+            while (ended < tokenizers) {
+                Entry<String, List<String>> doc = docs.take();
+                if (doc == END_DOC) {
+                    ended++;
+                    continue;
+                }
+                long start = System.nanoTime();
+                String url = doc.getKey();
+                Deduplicator.Outcome outcome = dedup.add(url, doc.getValue());
+                if (outcome.getReplaced() != null) {
+                    // a copy with a smaller url came: the document it
+                    // replaces is now a duplicate
+                    metrics.duplicates.incrementAndGet();
+                    crawled.remove(outcome.getReplaced());
+                    if (index.removeDocument(outcome.getReplaced())) {
+                        changed++;
+                    }
+                }
+                if (outcome.getCanonical().equals(url)) {
+                    crawled.add(url);
+                    if (index.addDocument(url, doc.getValue())) {
+                        changed++;
+                    }
+                } else {
+                    metrics.duplicates.incrementAndGet();
+                }
+                metrics.processed(Step.INDEX, start);
+                report(IndexingProgress.Stage.INDEX, dedup.size(),
+                        submitted.size() - (int) metrics.failed());
+            }
+            aliases = dedup.aliases();
+            // remove the documents that are no longer in the feeds, or are
+            // now copies
+            Set<String> removed = index.documents();
+            removed.removeAll(crawled);
+            int done = dedup.size();
+            for (String url : removed) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (index.removeDocument(url)) {
+                    changed++;
+                }
+                report(IndexingProgress.Stage.INDEX, ++done, dedup.size() + removed.size());
+            }
+            metrics.end = System.nanoTime();
+            return changed;
+        }
+
+        /**
+         * helper method to read a feed and submit the download of each item.
+         */
+        void fetchFeed(String feedUrl) {
+            try {
+                builder.fetchItems(feedUrl, item -> {
+                    String link = item.getLink();
+                    if (submitted.add(link)) {
+                        pending.incrementAndGet();
+                        fetchers.execute(() -> fetchArticle(link));
+                        metrics.queued(Step.FETCH);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                if (!fetchers.isShutdown()) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (this) {
+                report(IndexingProgress.Stage.FEEDS, ++feedsDone, feeds.size());
+            }
+            done();
+        }
+
+        /**
+         * helper method to download an article and pass its text on, or its
+         * cached words straight to INDEX if it did not change.
+         */
+        void fetchArticle(String link) {
+            FetchCache.Page page = null;
+            try {
+                long start = System.nanoTime();
+                page = builder.fetchPage(link);
+                metrics.processed(Step.FETCH, start);
+            } catch (IOException | RuntimeException e) {
+                metrics.failed.incrementAndGet();
+                if (!fetchers.isShutdown()) {
+                    e.printStackTrace();
+                }
+            }
+            synchronized (this) {
+                report(IndexingProgress.Stage.ARTICLES, ++articlesDone, submitted.size());
+            }
+            try {
+                if (page != null && page.getWords() != null) {
+                    put(docs, new SimpleImmutableEntry<>(link, page.getWords()), Step.FETCH,
+                            Step.INDEX);
+                } else if (page != null) {
+                    put(texts, page, Step.FETCH, Step.TOKENIZE);
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+                return;
+            }
+            done();
+        }
+
+        /**
+         * helper method to end a download, and the stage after the last one.
+         */
+        void done() {
+            if (pending.decrementAndGet() == 0) {
+                try {
+                    for (int i = 0; i < tokenizers; i++) {
+                        texts.put(END_TEXT);
+                    }
+                } catch (InterruptedException e) {
+                    // cancelled
+                }
+            }
+        }
+
+        /**
+         * helper method to run a thread of the TOKENIZE stage.
+         */
+        void tokenize() {
+            try {
+                while (true) {
+                    FetchCache.Page page = texts.take();
+                    if (page == END_TEXT) {
+                        docs.put(END_DOC);
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    List<String> words = builder.words(page);
+                    metrics.processed(Step.TOKENIZE, start);
+                    put(docs, new SimpleImmutableEntry<>(page.getUrl(), words),
+                            Step.TOKENIZE, Step.INDEX);
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        }
+
+        /**
+         * helper method to pass an item to the next stage, waiting for room.
+         */
+        <T> void put(BlockingQueue<T> queue, T item, Step from, Step next)
+                throws InterruptedException {
+            if (!queue.offer(item)) {
+                long start = System.nanoTime();
+                queue.put(item);
+                metrics.blocked[from.ordinal()].addAndGet(System.nanoTime() - start);
+            }
+            metrics.queued(next);
+        }
+
+        // the stages report one at a time
+        synchronized void report(IndexingProgress.Stage stage, int done, int total) {
+            progress.progress(stage, done, total);
+        }
+
+        void stop() {
+            fetchers.shutdownNow();
+            tokenizerPool.shutdownNow();
+            if (metrics.end == 0) {
+                metrics.end = System.nanoTime();
+            }
+            if (metrics.cache != null) {
+                metrics.cacheEnd = metrics.cache.stats();
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * The throughput of each stage and the depth of the queue in front of
+     * it, for a run, and the hits of the fetch cache. The queue of FETCH
+     * holds the article links waiting for a download thread; it is not
+     * bounded, but only holds urls.
+     */
+    public static final class Metrics {
+        private final int capacity;
+        private final long start = System.nanoTime();
+        // 0 while running
+        private volatile long end;
+        private final AtomicLong[] items = counters();
+        private final AtomicLong[] busy = counters();
+        // time FETCH and TOKENIZE waited for room in the next queue
+        private final AtomicLong[] blocked = counters();
+        private final AtomicLong[] maxDepth = counters();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong duplicates = new AtomicLong();
+        private final BlockingQueue<?>[] queues = new BlockingQueue<?>[Step.values().length];
+        // the cache of the builder, or null, and its counters at the start
+        // and the end of the run
+        private FetchCache cache;
+        private FetchCache.Stats cacheStart;
+        private volatile FetchCache.Stats cacheEnd;
+
+        Metrics(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private static AtomicLong[] counters() {
+            AtomicLong[] counters = new AtomicLong[Step.values().length];
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = new AtomicLong();
+            }
+            return counters;
+        }
+
+        void processed(Step step, long startNanos) {
+            items[step.ordinal()].incrementAndGet();
+            busy[step.ordinal()].addAndGet(System.nanoTime() - startNanos);
+        }
+
+        void queued(Step step) {
+            BlockingQueue<?> queue = queues[step.ordinal()];
+            maxDepth[step.ordinal()].accumulateAndGet(queue == null ? 0 : queue.size(), Math::max);
+        }
+
+        /**
+         * @return the number of items a stage processed
+         */
+        public long items(Step step) {
+            return items[step.ordinal()].get();
+        }
+
+        /**
+         * @return the time the threads of a stage spent processing items
+         */
+        public long busyMillis(Step step) {
+            return busy[step.ordinal()].get() / 1_000_000;
+        }
+
+        /**
+         * @return the time the threads of a stage waited for the next stage
+         *         to make room (backpressure); 0 for INDEX
+         */
+        public long blockedMillis(Step step) {
+            return step == Step.FETCH || step == Step.TOKENIZE
+                    ? blocked[step.ordinal()].get() / 1_000_000 : 0;
+        }
+
+        /**
+         * @return the items a stage processed per second of the run so far
+         */
+        public double throughput(Step step) {
+            double seconds = elapsedMillis() / 1000.0;
+            return seconds > 0 ? items(step) / seconds : 0;
+        }
+
+        /**
+         * @return the number of items waiting for a stage
+         */
+        public int queueDepth(Step step) {
+            BlockingQueue<?> queue = queues[step.ordinal()];
+            return queue == null ? 0 : queue.size();
+        }
+
+        /**
+         * @return the largest number of items that waited for a stage
+         */
+        public int maxQueueDepth(Step step) {
+            return (int) maxDepth[step.ordinal()].get();
+        }
+
+        /**
+         * @return the capacity of the queues in front of TOKENIZE and INDEX
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return the number of articles that could not be downloaded
+         */
+        public long failed() {
+            return failed.get();
+        }
+
+        /**
+         * @return the requests, hits and bytes saved of the fetch cache
+         *         during the run, or null without a cache
+         */
+        public FetchCache.Stats cache() {
+            if (cache == null) {
+                return null;
+            }
+            FetchCache.Stats last = cacheEnd;
+            return (last == null ? cache.stats() : last).minus(cacheStart);
+        }
+
+        /**
+         * @return the number of articles that were copies of another, and
+         *         were not indexed
+         */
+        public long duplicates() {
+            return duplicates.get();
+        }
+
+        /**
+         * @return the duration of the run so far
+         */
+        public long elapsedMillis() {
+            long last = end == 0 ? System.nanoTime() : end;
+            return (last - start) / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder res = new StringBuilder();
+            for (Step step : Step.values()) {
+                res.append(String.format("%s: %d items, %.1f/s, busy %d ms, blocked %d ms, "
+                        + "queue %d (max %d)%n", step, items(step), throughput(step),
+                        busyMillis(step), blockedMillis(step), queueDepth(step),
+                        maxQueueDepth(step)));
+            }
+            res.append("failed: ").append(failed())
+                    .append(", duplicates: ").append(duplicates());
+            if (cache != null) {
+                res.append(String.format("%ncache: ")).append(cache());
+            }
+            return res.toString();
+        }
+    }
+}
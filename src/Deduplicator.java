@@ -0,0 +1,383 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the articles published under several urls, e.g. the same wire
+ * story in two feeds, so each story is indexed once: the copies of a
+ * document are collapsed into one canonical document, and their urls
+ * become aliases of its url.
+ *
+ * Exact copies have the same words, found with a 64-bit hash of the word
+ * sequence and confirmed by comparing the words, so two documents whose
+ * hashes collide are not merged; documents without words are never
+ * copies. Near copies (a changed headline, a different footer) are found
+ * with MinHash: a document is summarized by the minimum of each of
+ * {@link #HASHES} hash functions over its shingles (the runs of
+ * {@link #SHINGLE} consecutive words), and the fraction of equal minimums
+ * of two documents estimates the Jaccard similarity of their shingles. A
+ * document is a near copy of another if that estimate reaches the
+ * threshold. Only documents of at least {@link #MIN_WORDS} words can be
+ * near copies; shorter ones are too easily alike.
+ *
+ * Documents are not compared pairwise: the signatures are split into
+ * bands of rows, and a document is only compared with the documents that
+ * share a band with it (locality-sensitive hashing). Pairs above the
+ * threshold share a band with high probability, so adding a document
+ * costs about the same whatever the number of documents.
+ *
+ * The canonical document of a group of copies is the one with the
+ * smallest url. Exact copies end up in the same group whatever the order
+ * in which they are added. Near copies are not transitive (a document can
+ * be close to two others that are not close to each other), so the group
+ * a near copy joins can depend on that order: among the groups it is
+ * close to, it joins the one with the smallest canonical url.
+ */
+public class Deduplicator {
+
+    // number of words of a shingle
+    public static final int SHINGLE = 3;
+    // number of hash functions of a signature: BANDS * ROWS
+    public static final int HASHES = 64;
+    public static final int BANDS = 16;
+    public static final int ROWS = HASHES / BANDS;
+    // minimum number of words of a near copy
+    public static final int MIN_WORDS = 20;
+    public static final double DEFAULT_THRESHOLD = 0.8;
+
+    // seeds of the hash functions
+    private static final long[] SEEDS = new long[HASHES];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < HASHES; i++) {
+            seed = mix(seed + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private final double threshold;
+    // hash of the words -> the documents with distinct words and that hash
+    private final Map<Long, List<Exact>> exact = new HashMap<>();
+    // band -> hash of its rows -> documents
+    private final List<Map<Long, List<Doc>>> bands = new ArrayList<>();
+    // url -> group, for every document added
+    private final Map<String, Group> groups = new HashMap<>();
+
+    /**
+     * A document added, with its signature (null if too short to be a near
+     * copy).
+     */
+    private static final class Doc {
+        final long[] signature;
+        final Group group;
+
+        Doc(long[] signature, Group group) {
+            this.signature = signature;
+            this.group = group;
+        }
+    }
+
+    /**
+     * The words of the first document added with them, and its group.
+     */
+    private static final class Exact {
+        final List<String> words;
+        final Group group;
+
+        Exact(List<String> words, Group group) {
+            this.words = words;
+            this.group = group;
+        }
+    }
+
+    /**
+     * The copies of a document.
+     */
+    private static final class Group {
+        String canonical;
+        final List<String> aliases = new ArrayList<>();
+    }
+
+    /**
+     * What became of a document added.
+     */
+    public static final class Outcome {
+        private final String canonical;
+        private final String replaced;
+
+        Outcome(String canonical, String replaced) {
+            this.canonical = canonical;
+            this.replaced = replaced;
+        }
+
+        /**
+         * @return the url of the canonical document of the copies of the
+         *         document: its own url if it is canonical
+         */
+        public String getCanonical() {
+            return canonical;
+        }
+
+        /**
+         * @return the url of the document that was canonical before this
+         *         one replaced it, or null
+         */
+        public String getReplaced() {
+            return replaced;
+        }
+    }
+
+    /**
+     * The documents of a crawl without their copies.
+     */
+    public static final class Result {
+        private final Map<String, List<String>> documents;
+        private final Map<String, List<String>> aliases;
+
+        Result(Map<String, List<String>> documents, Map<String, List<String>> aliases) {
+            this.documents = documents;
+            this.aliases = aliases;
+        }
+
+        /**
+         * @return the canonical documents and their words, to pass to
+         *         {@link IIndexBuilder#buildIndex}
+         */
+        public Map<String, List<String>> documents() {
+            return documents;
+        }
+
+        /**
+         * @return the urls of the copies of each canonical document that
+         *         has copies, in order
+         */
+        public Map<String, List<String>> aliases() {
+            return aliases;
+        }
+    }
+
+    public Deduplicator() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold the minimum estimated Jaccard similarity of the
+     *                  shingles of two near copies, in (0, 1]; above 1,
+     *                  only exact copies are found
+     */
+    public Deduplicator(double threshold) {
+        if (!(threshold > 0)) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        this.threshold = threshold;
+        for (int b = 0; b < BANDS; b++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Collapse the copies of a crawl.
+     *
+     * @param docs a map computed by {@link IIndexBuilder#parseFeed}
+     * @return the canonical documents and their aliases
+     */
+    public static Result deduplicate(Map<String, List<String>> docs) {
+        Deduplicator dedup = new Deduplicator();
+        Map<String, List<String>> documents = new HashMap<>();
+        // in url order, the canonical document of a group comes first
+        for (Map.Entry<String, List<String>> doc : new TreeMap<>(docs).entrySet()) {
+            if (dedup.add(doc.getKey(), doc.getValue()).getCanonical().equals(doc.getKey())) {
+                documents.put(doc.getKey(), doc.getValue());
+            }
+        }
+        return new Result(documents, dedup.aliases());
+    }
+
+    /**
+     * Add a document.
+     *
+     * @param url   the url of the document, not added yet
+     * @param words the words of the document, not changed afterwards
+     * @return its canonical document, and the one it replaced if it became
+     *         canonical in place of another
+     * @throws IllegalArgumentException if the url was already added
+     */
+    public Outcome add(String url, List<String> words) {
+        if (groups.containsKey(url)) {
+            throw new IllegalArgumentException("document already added: " + url);
+        }
+        long hash = hash(words);
+        long[] signature = words.size() >= MIN_WORDS && threshold <= 1 ? signature(words) : null;
+        // documents without words are not copies of each other
+        Group group = words.isEmpty() ? null : exactCopy(hash, words);
+        boolean copy = group != null;
+        if (group == null && signature != null) {
+            group = similar(signature);
+        }
+        String replaced = null;
+        if (group == null) {
+            group = new Group();
+            group.canonical = url;
+        } else if (url.compareTo(group.canonical) < 0) {
+            replaced = group.canonical;
+            group.aliases.add(replaced);
+            group.canonical = url;
+        } else {
+            group.aliases.add(url);
+        }
+        if (!words.isEmpty() && !copy) {
+            exact.computeIfAbsent(hash, key -> new ArrayList<>(1)).add(new Exact(words, group));
+        }
+        groups.put(url, group);
+        if (signature != null) {
+            Doc doc = new Doc(signature, group);
+            for (int b = 0; b < BANDS; b++) {
+                bands.get(b).computeIfAbsent(band(signature, b), key -> new ArrayList<>(1))
+                        .add(doc);
+            }
+        }
+        return new Outcome(group.canonical, replaced);
+    }
+
+    /**
+     * @return the number of documents added
+     */
+    public int size() {
+        return groups.size();
+    }
+
+    /**
+     * @param url the url of a document added
+     * @return the url of its canonical document, or null if it was not
+     *         added
+     */
+    public String canonical(String url) {
+        Group group = groups.get(url);
+        return group == null ? null : group.canonical;
+    }
+
+    /**
+     * @return the urls of the copies of each canonical document that has
+     *         copies, in order
+     */
+    public Map<String, List<String>> aliases() {
+        Map<String, List<String>> res = new HashMap<>();
+        for (Group group : groups.values()) {
+            if (!group.aliases.isEmpty() && !res.containsKey(group.canonical)) {
+                List<String> aliases = new ArrayList<>(group.aliases);
+                Collections.sort(aliases);
+                res.put(group.canonical, Collections.unmodifiableList(aliases));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * helper method to find the group of a document with the same words.
+     */
+    private Group exactCopy(long hash, List<String> words) {
+        List<Exact> candidates = exact.get(hash);
+        if (candidates != null) {
+            for (Exact candidate : candidates) {
+                if (candidate.words.equals(words)) {
+                    return candidate.group;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * helper method to find the group with the smallest canonical url among
+     * the groups of the documents close enough, among the documents sharing
+     * a band.
+     */
+    private Group similar(long[] signature) {
+        Group best = null;
+        for (int b = 0; b < BANDS; b++) {
+            List<Doc> candidates = bands.get(b).get(band(signature, b));
+            if (candidates == null) {
+                continue;
+            }
+            for (Doc doc : candidates) {
+                if (doc.group != best
+                        && (best == null || doc.group.canonical.compareTo(best.canonical) < 0)
+                        && similarity(signature, doc.signature) >= threshold) {
+                    best = doc.group;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the estimated Jaccard similarity of two signatures
+     */
+    static double similarity(long[] s1, long[] s2) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (s1[i] == s2[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / HASHES;
+    }
+
+    /**
+     * @return the MinHash signature of the shingles of a document
+     */
+    static long[] signature(List<String> words) {
+        // only called with at least MIN_WORDS >= SHINGLE words
+        long[] signature = new long[HASHES];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int n = words.size();
+        long[] terms = new long[n];
+        for (int i = 0; i < n; i++) {
+            terms[i] = words.get(i).hashCode();
+        }
+        for (int i = 0; i + SHINGLE <= n; i++) {
+            long shingle = 0;
+            for (int j = i; j < i + SHINGLE; j++) {
+                shingle = mix(shingle * 31 + terms[j]);
+            }
+            for (int h = 0; h < HASHES; h++) {
+                long value = mix(shingle ^ SEEDS[h]);
+                if (value < signature[h]) {
+                    signature[h] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    private static long band(long[] signature, int b) {
+        long hash = b;
+        for (int r = b * ROWS; r < (b + 1) * ROWS; r++) {
+            hash = mix(hash * 31 + signature[r]);
+        }
+        return hash;
+    }
+
+    /**
+     * @return a 64-bit hash of the word sequence of a document
+     */
+    static long hash(List<String> words) {
+        long hash = words.size();
+        for (String word : words) {
+            hash = mix(hash * 31 + word.hashCode());
+        }
+        return hash;
+    }
+
+    // finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
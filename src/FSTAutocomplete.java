@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An {@link IAutocomplete} backed by an {@link FSTDictionary}. buildTrie
+ * accepts either a dictionary file, which is memory-mapped, or a text file
+ * in the format of autocomplete.txt, which is read in one pass.
+ *
+ * The dictionary is immutable: words given to addWord are buffered and the
+ * dictionary is rebuilt from all the words before the next lookup. As in
+ * {@link Autocomplete}, words must be made of lowercase letters and
+ * digits; adding a word again replaces its weight.
+ */
+public class FSTAutocomplete implements IAutocomplete {
+
+    private int k = Autocomplete.DEFAULT_K;
+    private FSTDictionary dictionary = FSTDictionary.build(new ArrayList<>(), new ArrayList<>());
+    // words added since the last build
+    private final Map<String, Long> pending = new TreeMap<>();
+
+    @Override
+    public void addWord(String word, long weight) {
+        if (word == null || word.isEmpty()) {
+            return;
+        }
+        if (!Autocomplete.isValidWord(word)) {
+            return;
+        }
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight cannot be negative");
+        }
+        pending.put(word, weight);
+    }
+
+    @Override
+    public Node buildTrie(String filename, int k) {
+        try {
+            return load(filename, k);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return getSubTrie("");
+        }
+    }
+
+    /**
+     * helper method to load a file, as buildTrie does, but throwing the
+     * error if it cannot be read or is not a valid dictionary. A failed
+     * load leaves the dictionary as it was.
+     */
+    Node load(String filename, int k) throws IOException {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        Path file = Paths.get(filename);
+        FSTDictionary next;
+        try {
+            next = FSTDictionary.isDictionary(file)
+                    ? FSTDictionary.open(file) : FSTDictionary.build(filename);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid autocomplete file: " + filename, e);
+        }
+        this.k = k;
+        dictionary = next;
+        pending.clear();
+        return getSubTrie("");
+    }
+
+    /**
+     * @return the dictionary, including the words added so far
+     */
+    public FSTDictionary dictionary() {
+        if (!pending.isEmpty()) {
+            build();
+        }
+        return dictionary;
+    }
+
+    @Override
+    public int numberSuggestions() {
+        return k;
+    }
+
+    /**
+     * @return a copy of the node of the prefix, without its children (the
+     *         dictionary has no Node objects)
+     */
+    @Override
+    public Node getSubTrie(String prefix) {
+        if (prefix == null) {
+            return null;
+        }
+        String p = prefix.toLowerCase();
+        int count = dictionary().countPrefixes(p);
+        if (count == 0) {
+            return null;
+        }
+        Node res = new Node();
+        long weight = dictionary.weight(p);
+        if (weight >= 0) {
+            res.setTerm(new Term(p, weight));
+            res.setWords(1);
+        }
+        res.setPrefixes(count);
+        res.setTopTerms(dictionary.top(p, k).toArray(new Term[0]));
+        return res;
+    }
+
+    @Override
+    public int countPrefixes(String prefix) {
+        return prefix == null ? 0 : dictionary().countPrefixes(prefix.toLowerCase());
+    }
+
+    @Override
+    public List<ITerm> getSuggestions(String prefix) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(dictionary().completions(prefix.toLowerCase()));
+    }
+
+    @Override
+    public List<ITerm> topSuggestions(String prefix) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(dictionary().top(prefix.toLowerCase(), k));
+    }
+
+    @Override
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(dictionary().fuzzyTop(prefix.toLowerCase(), maxEdits, k));
+    }
+
+    /**
+     * helper method to rebuild the dictionary from its words and the
+     * pending ones.
+     */
+    private void build() {
+        TreeMap<String, Long> all = new TreeMap<>(pending);
+        for (Term term : dictionary.completions("")) {
+            all.putIfAbsent(term.getTerm(), term.getWeight());
+        }
+        pending.clear();
+        dictionary = FSTDictionary.build(new ArrayList<>(all.keySet()), new ArrayList<>(all.values()));
+    }
+}
@@ -0,0 +1,586 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An autocomplete dictionary stored as a minimal finite-state transducer
+ * (FST): words that share a prefix share the arcs of the prefix, and words
+ * that share a suffix (with the same weights below it) share its states.
+ *
+ * The transducer maps each word to a cost, Long.MAX_VALUE - weight, split
+ * over the arcs of the word. Costs are pushed towards the root (each state
+ * keeps the smallest cost below it at 0), so the heaviest completions of a
+ * prefix are found by a best-first search that stops after k words.
+ *
+ * The dictionary is built in one pass from words in lexicographic order,
+ * such as the autocomplete.txt written by
+ * {@link IIndexBuilder#createAutocompleteFile}: states are frozen when the
+ * next word leaves them and shared with an identical frozen state if there
+ * is one. It is kept in a single byte buffer, which can be written to a
+ * file and memory-mapped back. A state is encoded as
+ *
+ * <pre>
+ * varint   arcCount &lt;&lt; 1 | final
+ * varlong  final output (if final)
+ * varint   number of words below the state
+ * arcs     varint label, varlong output, varint address of the target
+ * </pre>
+ *
+ * and a file holds the magic number, the version, the address of the root
+ * state and the length of the states, followed by the states.
+ */
+public class FSTDictionary {
+
+    public static final int MAGIC = 0x4E414653;
+    public static final int VERSION = 1;
+
+    private static final int HEADER = 4 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int root;
+
+    private FSTDictionary(ByteBuffer buffer, int root) {
+        this.buffer = buffer;
+        this.root = root;
+    }
+
+    /**
+     * A state of the word being added, not frozen yet.
+     */
+    private static final class Pending {
+        final StringBuilder labels = new StringBuilder();
+        final List<long[]> arcs = new ArrayList<>(); // {output, target address}
+        boolean isFinal;
+        long finalOutput;
+        int count;
+
+        void addOutput(long output) {
+            for (long[] arc : arcs) {
+                arc[0] += output;
+            }
+            if (isFinal) {
+                finalOutput += output;
+            }
+        }
+    }
+
+    /**
+     * Build a dictionary.
+     *
+     * @param words   the words, in strictly increasing lexicographic order
+     * @param weights the weights of the words
+     * @return the dictionary
+     * @throws IllegalArgumentException if the words are not sorted or a
+     *         weight is negative
+     */
+    public static FSTDictionary build(List<String> words, List<Long> weights) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<ByteBuffer, Integer> frozen = new HashMap<>();
+        List<Pending> frontier = new ArrayList<>();
+        frontier.add(new Pending());
+        String previous = null;
+        for (int w = 0; w < words.size(); w++) {
+            String word = words.get(w);
+            long weight = weights.get(w);
+            if (word.isEmpty() || previous != null && word.compareTo(previous) <= 0) {
+                throw new IllegalArgumentException("Words must be non-empty and sorted: " + word);
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException("weight cannot be negative");
+            }
+            int common = 0;
+            if (previous != null) {
+                while (common < previous.length() && common < word.length()
+                        && previous.charAt(common) == word.charAt(common)) {
+                    common++;
+                }
+                // 1. freeze the states the new word does not go through
+                for (int i = previous.length(); i > common; i--) {
+                    freeze(frontier, i, out, frozen);
+                }
+            }
+            // 2. add the states of the new suffix
+            for (int i = common + 1; i <= word.length(); i++) {
+                frontier.get(i - 1).labels.append(word.charAt(i - 1));
+                frontier.get(i - 1).arcs.add(new long[] { 0, -1 });
+                if (i < frontier.size()) {
+                    frontier.set(i, new Pending());
+                } else {
+                    frontier.add(new Pending());
+                }
+            }
+            frontier.get(word.length()).isFinal = true;
+            for (int i = 0; i <= word.length(); i++) {
+                frontier.get(i).count++;
+            }
+            // 3. keep the common part of the costs on the shared arcs and
+            //    push the rest down
+            long cost = Long.MAX_VALUE - weight;
+            for (int i = 1; i <= common; i++) {
+                long[] arc = last(frontier.get(i - 1));
+                long shared = Math.min(arc[0], cost);
+                long rest = arc[0] - shared;
+                arc[0] = shared;
+                if (rest > 0) {
+                    frontier.get(i).addOutput(rest);
+                }
+                cost -= shared;
+            }
+            last(frontier.get(common))[0] = cost;
+            previous = word;
+        }
+        for (int i = previous == null ? 0 : previous.length(); i > 0; i--) {
+            freeze(frontier, i, out, frozen);
+        }
+        int root = freeze(frontier.get(0), out, frozen);
+        return new FSTDictionary(ByteBuffer.wrap(out.toByteArray()), root);
+    }
+
+    /**
+     * Build a dictionary from a file in the format of autocomplete.txt: the
+     * number of words, then one "weight word" line per word in
+     * lexicographic order.
+     *
+     * @param filename the file to read
+     * @return the dictionary
+     * @throws IOException if the file cannot be read
+     */
+    public static FSTDictionary build(String filename) throws IOException {
+        ArrayList<String> words = new ArrayList<>();
+        ArrayList<Long> weights = new ArrayList<>();
+        AutocompleteFile.read(filename, new AutocompleteFile.Visitor() {
+            @Override
+            public void count(int count) {
+                words.ensureCapacity(AutocompleteFile.capacity(count));
+                weights.ensureCapacity(AutocompleteFile.capacity(count));
+            }
+
+            @Override
+            public void word(String word, long weight) {
+                words.add(word);
+                weights.add(weight);
+            }
+        });
+        return build(words, weights);
+    }
+
+    private static long[] last(Pending state) {
+        return state.arcs.get(state.arcs.size() - 1);
+    }
+
+    // freeze frontier state i and point the last arc of its parent to it
+    private static void freeze(List<Pending> frontier, int i,
+            ByteArrayOutputStream out, Map<ByteBuffer, Integer> frozen) {
+        last(frontier.get(i - 1))[1] = freeze(frontier.get(i), out, frozen);
+    }
+
+    /**
+     * helper method to write a state, or find the identical state already
+     * written.
+     *
+     * @return the address of the state
+     */
+    private static int freeze(Pending state, ByteArrayOutputStream out,
+            Map<ByteBuffer, Integer> frozen) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeVarLong(bytes, (long) state.arcs.size() << 1 | (state.isFinal ? 1 : 0));
+        if (state.isFinal) {
+            writeVarLong(bytes, state.finalOutput);
+        }
+        writeVarLong(bytes, state.count);
+        for (int a = 0; a < state.arcs.size(); a++) {
+            writeVarLong(bytes, state.labels.charAt(a));
+            writeVarLong(bytes, state.arcs.get(a)[0]);
+            writeVarLong(bytes, state.arcs.get(a)[1]);
+        }
+        ByteBuffer key = ByteBuffer.wrap(bytes.toByteArray());
+        Integer address = frozen.get(key);
+        if (address == null) {
+            address = out.size();
+            out.write(key.array(), 0, key.limit());
+            frozen.put(key, address);
+        }
+        return address;
+    }
+
+    /**
+     * Write the dictionary to a file.
+     *
+     * @param file the file to (over)write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(root).putInt(buffer.limit()).flip();
+        // write a new file and rename it, so a mapped dictionary is never
+        // truncated under its readers
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer states = buffer.duplicate();
+            states.position(0);
+            while (header.hasRemaining() || states.hasRemaining()) {
+                channel.write(new ByteBuffer[] { header, states });
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Open a dictionary written by {@link #write}; the file is
+     * memory-mapped and its states are checked in one pass, so a corrupt
+     * file is rejected here rather than by a lookup.
+     *
+     * @param file the dictionary file
+     * @return the dictionary
+     * @throws IOException if the file cannot be read or is not a dictionary
+     */
+    public static FSTDictionary open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not an autocomplete dictionary: " + file);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported dictionary version " + buffer.getInt(4));
+            }
+            int root = buffer.getInt(8);
+            int length = buffer.getInt(12);
+            if (length <= 0 || root < 0 || root >= length
+                    || HEADER + (long) length > buffer.limit()) {
+                throw new IOException("Truncated autocomplete dictionary: " + file);
+            }
+            ByteBuffer states = buffer.position(HEADER).limit(HEADER + length).slice();
+            try {
+                check(states, root);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt autocomplete dictionary: " + file, e);
+            } catch (IOException e) {
+                throw new IOException("Corrupt autocomplete dictionary: " + file + ": "
+                        + e.getMessage(), e);
+            }
+            return new FSTDictionary(states, root);
+        }
+    }
+
+    /**
+     * helper method to check the states of a dictionary: they follow each
+     * other to the end of the buffer, the arcs of a state are sorted by
+     * label, and every arc, as the root, points to the start of a state.
+     * A state is frozen after the states below it, so an arc points back.
+     */
+    private static void check(ByteBuffer states, int root) throws IOException {
+        BitSet starts = new BitSet(states.limit());
+        int[] pos = new int[1];
+        while (pos[0] < states.limit()) {
+            int address = pos[0];
+            long flags = readVarLong(states, pos);
+            if (flags < 0 || (flags >>> 1) > states.limit() - pos[0]) {
+                throw new IOException("bad arc count at " + address);
+            }
+            if ((flags & 1) != 0 && readVarLong(states, pos) < 0) {
+                throw new IOException("bad final output at " + address);
+            }
+            long count = readVarLong(states, pos);
+            if (count < 0 || count > Integer.MAX_VALUE) {
+                throw new IOException("bad word count at " + address);
+            }
+            long label = -1;
+            for (long a = flags >>> 1; a > 0; a--) {
+                long next = readVarLong(states, pos);
+                long output = readVarLong(states, pos);
+                long target = readVarLong(states, pos);
+                if (next <= label || next > Character.MAX_VALUE || output < 0
+                        || target >= address || !starts.get((int) target)) {
+                    throw new IOException("bad arc at " + address);
+                }
+                label = next;
+            }
+            starts.set(address);
+        }
+        if (!starts.get(root)) {
+            throw new IOException("bad root " + root);
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file starts with the magic number of a dictionary
+     */
+    public static boolean isDictionary(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the first 4 bytes
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of bytes of the states
+     */
+    public int byteSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * @param word a word
+     * @return the weight of the word, or -1 if it is not in the dictionary
+     */
+    public long weight(String word) {
+        long[] found = find(word);
+        if (found == null) {
+            return -1;
+        }
+        State state = new State((int) found[0]);
+        return state.isFinal ? Long.MAX_VALUE - (found[1] + state.finalOutput) : -1;
+    }
+
+    /**
+     * @param prefix a prefix
+     * @return the number of words starting with prefix
+     */
+    public int countPrefixes(String prefix) {
+        long[] found = find(prefix);
+        return found == null ? 0 : new State((int) found[0]).count;
+    }
+
+    /**
+     * @param prefix a prefix
+     * @return all the words starting with prefix, in lexicographic order
+     */
+    public List<Term> completions(String prefix) {
+        List<Term> res = new ArrayList<>();
+        long[] found = find(prefix);
+        if (found != null) {
+            collect((int) found[0], new StringBuilder(prefix), found[1], res);
+        }
+        return res;
+    }
+
+    private void collect(int address, StringBuilder word, long cost, List<Term> res) {
+        State state = new State(address);
+        if (state.isFinal) {
+            res.add(new Term(word.toString(), Long.MAX_VALUE - (cost + state.finalOutput)));
+        }
+        for (int a = 0; a < state.arcCount; a++) {
+            long[] arc = state.arc(a);
+            word.append((char) arc[0]);
+            collect((int) arc[2], word, cost + arc[1], res);
+            word.setLength(word.length() - 1);
+        }
+    }
+
+    /**
+     * @param prefix a prefix
+     * @param k      the maximum number of words to return
+     * @return the k heaviest words starting with prefix, heaviest first
+     *         (equal weights in lexicographic order)
+     */
+    public List<Term> top(String prefix, int k) {
+        long[] found = find(prefix);
+        if (found == null) {
+            return new ArrayList<>();
+        }
+        return top(prefix, found[1], (int) found[0], k);
+    }
+
+    /**
+     * @param prefix   a prefix
+     * @param maxEdits the maximum edit distance
+     * @param k        the maximum number of words to return
+     * @return the k best words starting with a prefix within maxEdits
+     *         edits of prefix, closest first, then heaviest first
+     */
+    public List<ITerm> fuzzyTop(String prefix, int maxEdits, int k) {
+        FuzzyMatcher matcher = new FuzzyMatcher(prefix, maxEdits);
+        fuzzy(root, new StringBuilder(), 0, matcher.start(), Integer.MAX_VALUE, k, matcher);
+        return matcher.top(k);
+    }
+
+    /**
+     * helper method to visit a state of the fuzzy search: the heaviest
+     * words below a matching state are its top k.
+     *
+     * @param best the smallest distance of the states above it
+     */
+    private void fuzzy(int address, StringBuilder word, long cost, int[] row, int best, int k,
+            FuzzyMatcher matcher) {
+        State state = new State(address);
+        if (state.count == 0) {
+            return;
+        }
+        int distance = matcher.distance(row);
+        if (matcher.matches(row) && distance < best) {
+            matcher.add(top(word.toString(), cost, address, k), distance);
+            best = distance;
+        }
+        for (int a = 0; a < state.arcCount; a++) {
+            long[] arc = state.arc(a);
+            int[] next = matcher.step(row, (char) arc[0]);
+            if (next != null) {
+                word.append((char) arc[0]);
+                fuzzy((int) arc[2], word, cost + arc[1], next, best, k, matcher);
+                word.setLength(word.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * helper method to find the k heaviest words below a state.
+     *
+     * @param prefix  the prefix of the state
+     * @param cost    the cost of the arcs from the root to the state
+     * @param address the address of the state
+     */
+    private List<Term> top(String prefix, long cost, int address, int k) {
+        List<Term> res = new ArrayList<>();
+        if (k <= 0) {
+            return res;
+        }
+        // best-first search: the cost of an entry is a lower bound of the
+        // costs of the words below it, since each state keeps 0 below it
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate(prefix, cost, address));
+        while (!queue.isEmpty() && res.size() < k) {
+            Candidate next = queue.poll();
+            if (next.address < 0) {
+                res.add(new Term(next.word, Long.MAX_VALUE - next.cost));
+                continue;
+            }
+            State state = new State(next.address);
+            if (state.isFinal) {
+                queue.add(new Candidate(next.word, next.cost + state.finalOutput, -1));
+            }
+            for (int a = 0; a < state.arcCount; a++) {
+                long[] arc = state.arc(a);
+                queue.add(new Candidate(next.word + (char) arc[0], next.cost + arc[1], (int) arc[2]));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * A word or prefix found by the best-first search; address is -1 for
+     * a complete word.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        final String word;
+        final long cost;
+        final int address;
+
+        Candidate(String word, long cost, int address) {
+            this.word = word;
+            this.cost = cost;
+            this.address = address;
+        }
+
+        @Override
+        public int compareTo(Candidate that) {
+            int cmp = Long.compare(cost, that.cost);
+            if (cmp == 0) {
+                cmp = word.compareTo(that.word);
+            }
+            // a word before the prefixes equal to it
+            return cmp != 0 ? cmp : Integer.compare(address, that.address);
+        }
+    }
+
+    /**
+     * helper method to follow a prefix from the root.
+     *
+     * @return {address of the state, cost of the arcs}, or null if no
+     *         word starts with the prefix
+     */
+    private long[] find(String prefix) {
+        int address = root;
+        long cost = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            State state = new State(address);
+            long[] arc = state.find(prefix.charAt(i));
+            if (arc == null) {
+                return null;
+            }
+            cost += arc[1];
+            address = (int) arc[2];
+        }
+        return new State(address).count > 0 ? new long[] { address, cost } : null;
+    }
+
+    /**
+     * A state decoded from the buffer; its arcs are decoded on demand.
+     */
+    private final class State {
+        final boolean isFinal;
+        final long finalOutput;
+        final int count;
+        final int arcCount;
+        private final int[] pos = new int[1];
+        private int decoded = 0;
+
+        State(int address) {
+            pos[0] = address;
+            long flags = readVarLong(buffer, pos);
+            isFinal = (flags & 1) != 0;
+            arcCount = (int) (flags >>> 1);
+            finalOutput = isFinal ? readVarLong(buffer, pos) : 0;
+            count = (int) readVarLong(buffer, pos);
+        }
+
+        // arc a as {label, output, target}; arcs must be read in order
+        long[] arc(int a) {
+            if (a != decoded++) {
+                throw new IllegalStateException("arcs must be read in order");
+            }
+            return new long[] { readVarLong(buffer, pos), readVarLong(buffer, pos),
+                readVarLong(buffer, pos) };
+        }
+
+        // the arc with this label, or null; arcs are sorted by label
+        long[] find(char label) {
+            for (int a = 0; a < arcCount; a++) {
+                long[] arc = arc(a);
+                if (arc[0] == label) {
+                    return arc;
+                }
+                if (arc[0] > label) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in, int[] pos) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get(pos[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
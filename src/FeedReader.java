@@ -0,0 +1,214 @@
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the items of an RSS 2.0 or Atom feed as the feed is downloaded,
+ * with a StAX parser instead of a document tree: an item is passed on as
+ * soon as its closing tag is read, so its article can be fetched while the
+ * rest of the feed is still coming in, and the descriptions are never kept.
+ *
+ * An item is an RSS {@code <item>} or an Atom {@code <entry>}. Its link is
+ * the text of its {@code <link>} (RSS), the href of its alternate
+ * {@code <link>} (Atom), or else its permalink {@code <guid>}. A
+ * {@code <link>} outside of any item is an item on its own, as in the
+ * sample feeds of the course, except the links of the feed itself (in
+ * {@code <channel>}, {@code <feed>} or {@code <image>}).
+ *
+ * Elements are matched by local name, whatever their namespace. DTDs and
+ * external entities are not loaded.
+ */
+final class FeedReader {
+
+    private FeedReader() {
+    }
+
+    /**
+     * An item of a feed. Only the link is always set.
+     */
+    static final class Item {
+        private String link;
+        private String title;
+        private String guid;
+        private String pubDate;
+        // the guid is not a url
+        private boolean guidNotLink;
+
+        Item() {
+        }
+
+        Item(String link) {
+            this.link = link;
+        }
+
+        public String getLink() {
+            return link;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getGuid() {
+            return guid;
+        }
+
+        /**
+         * @return the publication date, as written in the feed (pubDate,
+         *         published, updated or dc:date)
+         */
+        public String getPubDate() {
+            return pubDate;
+        }
+    }
+
+    /**
+     * Read the items of a feed.
+     *
+     * @param in    the feed; not closed
+     * @param items receives each item, in the order of the feed
+     * @throws XMLStreamException if the feed is not well-formed XML; the
+     *                            items before the error were passed on
+     */
+    static void read(InputStream in, Consumer<Item> items) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            read(reader, items);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void read(XMLStreamReader reader, Consumer<Item> items)
+            throws XMLStreamException {
+        // the local names of the open elements
+        String[] path = new String[16];
+        int depth = 0;
+        // the item being read, and its depth
+        Item item = null;
+        int itemDepth = 0;
+        // the field of the item being read, and its text so far
+        String field = null;
+        StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                String name = reader.getLocalName();
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = name;
+                if (item == null && (name.equals("item") || name.equals("entry"))) {
+                    item = new Item();
+                    itemDepth = depth;
+                } else if (item != null && depth == itemDepth + 1) {
+                    field = name;
+                    text.setLength(0);
+                    if (name.equals("link") && item.link == null) {
+                        item.link = atomLink(reader);
+                    } else if (name.equals("guid")) {
+                        item.guidNotLink =
+                                "false".equals(reader.getAttributeValue(null, "isPermaLink"));
+                    }
+                } else if (item == null && name.equals("link")) {
+                    String parent = depth > 1 ? path[depth - 2] : "";
+                    if (!parent.equals("channel") && !parent.equals("feed")
+                            && !parent.equals("image")) {
+                        field = name;
+                        text.setLength(0);
+                        String href = atomLink(reader);
+                        if (href != null) {
+                            items.accept(new Item(href));
+                        }
+                    }
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (field != null) {
+                    text.append(reader.getTextCharacters(), reader.getTextStart(),
+                            reader.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (item != null && depth == itemDepth + 1 && field != null) {
+                    set(item, field, text.toString().trim());
+                    field = null;
+                } else if (item == null && field != null) {
+                    String link = text.toString().trim();
+                    if (!link.isEmpty()) {
+                        items.accept(new Item(link));
+                    }
+                    field = null;
+                } else if (item != null && depth == itemDepth) {
+                    if (item.link == null && item.guid != null && !item.guidNotLink
+                            && item.guid.startsWith("http")) {
+                        item.link = item.guid;
+                    }
+                    if (item.link != null) {
+                        items.accept(item);
+                    }
+                    item = null;
+                }
+                depth--;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * helper method to get the url of an Atom link, if it is the alternate
+     * one.
+     */
+    private static String atomLink(XMLStreamReader reader) {
+        String href = reader.getAttributeValue(null, "href");
+        String rel = reader.getAttributeValue(null, "rel");
+        if (href == null || href.trim().isEmpty() || rel != null && !rel.equals("alternate")) {
+            return null;
+        }
+        return href.trim();
+    }
+
+    private static void set(Item item, String field, String value) {
+        if (value.isEmpty()) {
+            return;
+        }
+        switch (field) {
+        case "link":
+            if (item.link == null) {
+                item.link = value;
+            }
+            break;
+        case "title":
+            item.title = value;
+            break;
+        case "guid":
+        case "id":
+            item.guid = value;
+            break;
+        case "pubDate":
+        case "published":
+        case "date":
+            item.pubDate = value;
+            break;
+        case "updated":
+            if (item.pubDate == null) {
+                item.pubDate = value;
+            }
+            break;
+        default:
+            break;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+
+/**
+ * An on-disk cache of the feeds and articles downloaded by
+ * {@link IndexBuilder}, revalidated with HTTP conditional requests.
+ *
+ * Each url has a file named after its SHA-256 with the validators of the
+ * last response (ETag and Last-Modified). A later download sends them back
+ * (If-None-Match, If-Modified-Since); when the server answers 304 Not
+ * Modified, the cached copy is used and nothing is downloaded. A feed
+ * keeps its body, which is read again as it was downloaded. An article
+ * keeps its words instead of its html, so an unchanged article is neither
+ * downloaded nor parsed again.
+ *
+ * Responses without validators are not cached. The files are replaced
+ * atomically, so the cache can be shared by threads, and an unreadable
+ * file is downloaded again. The counters add up all the downloads; compare
+ * two {@link #stats()} to get the ones of a crawl.
+ */
+public class FetchCache {
+
+    private static final int MAGIC = 0x46434831; // "FCH1"
+    private static final String FEED = ".feed";
+    private static final String WORDS = ".words";
+
+    private final Path dir;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param dir the directory of the cache, created if needed
+     * @throws IOException if the directory cannot be created
+     */
+    public FetchCache(Path dir) throws IOException {
+        if (dir == null) {
+            throw new IllegalArgumentException("directory cannot be null");
+        }
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * The counters of a cache at some point.
+     */
+    public static final class Stats {
+        private final long requests;
+        private final long hits;
+        private final long bytesDownloaded;
+        private final long bytesSaved;
+
+        Stats(long requests, long hits, long bytesDownloaded, long bytesSaved) {
+            this.requests = requests;
+            this.hits = hits;
+            this.bytesDownloaded = bytesDownloaded;
+            this.bytesSaved = bytesSaved;
+        }
+
+        /**
+         * @return the number of downloads
+         */
+        public long requests() {
+            return requests;
+        }
+
+        /**
+         * @return the number of downloads answered by the cache (304)
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * @return hits / requests, or 0 without requests
+         */
+        public double hitRate() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        /**
+         * @return the bytes of the bodies downloaded
+         */
+        public long bytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        /**
+         * @return the bytes of the bodies the hits did not download again
+         */
+        public long bytesSaved() {
+            return bytesSaved;
+        }
+
+        /**
+         * @param before the counters at the start of a crawl
+         * @return the counters of the crawl
+         */
+        public Stats minus(Stats before) {
+            return new Stats(requests - before.requests, hits - before.hits,
+                    bytesDownloaded - before.bytesDownloaded, bytesSaved - before.bytesSaved);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d hits (%.0f%%), %d bytes downloaded, "
+                    + "%d bytes saved", requests, hits, hitRate() * 100, bytesDownloaded, bytesSaved);
+        }
+    }
+
+    /**
+     * An article downloaded through the cache: either its text, or the
+     * words cached the last time if it did not change.
+     */
+    public static final class Page {
+        private final String url;
+        private final String text;
+        private final List<String> words;
+        private final String etag;
+        private final String lastModified;
+        private final long length;
+
+        Page(String url, String text, List<String> words, String etag, String lastModified,
+                long length) {
+            this.url = url;
+            this.text = text;
+            this.words = words;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the text of the body, or null if the article did not change
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the cached words, or null if the article was downloaded
+         */
+        public List<String> getWords() {
+            return words;
+        }
+    }
+
+    /**
+     * @return the counters since the cache was created
+     */
+    public Stats stats() {
+        return new Stats(requests.get(), hits.get(), bytesDownloaded.get(), bytesSaved.get());
+    }
+
+    /**
+     * Download an article, unless it did not change since it was cached.
+     *
+     * @param url the url of the article
+     * @return the article, with its words if it did not change; otherwise
+     *         pass its words to {@link #store} to cache them
+     * @throws IOException if the article cannot be downloaded
+     */
+    public Page article(String url) throws IOException {
+        DataInputStream in = open(file(url, WORDS));
+        try {
+            Map<String, String> cached = in == null ? null : header(in, url);
+            if (cached != null) {
+                Connection.Response res = conditional(url, cached).execute();
+                if (res.statusCode() != 304) {
+                    return downloaded(url, res);
+                }
+                try {
+                    List<String> words = readWords(in);
+                    long length = Long.parseLong(cached.get("length"));
+                    requests.incrementAndGet();
+                    hits.incrementAndGet();
+                    bytesSaved.addAndGet(length);
+                    return new Page(url, null, words, null, null, length);
+                } catch (IOException | RuntimeException e) {
+                    // the cached words are unreadable: download them again
+                }
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+        return downloaded(url, Jsoup.connect(url).execute());
+    }
+
+    private Page downloaded(String url, Connection.Response res) throws IOException {
+        byte[] body = res.bodyAsBytes();
+        requests.incrementAndGet();
+        bytesDownloaded.addAndGet(body.length);
+        String text = res.parse().body().text();
+        return new Page(url, text, null, res.header("ETag"), res.header("Last-Modified"),
+                body.length);
+    }
+
+    /**
+     * Cache the words of a downloaded article, if its response had a
+     * validator.
+     *
+     * @param page  the article, as returned by {@link #article}
+     * @param words its words
+     * @throws IOException if the cache cannot be written
+     */
+    public void store(Page page, List<String> words) throws IOException {
+        if (page.words != null || page.etag == null && page.lastModified == null) {
+            return;
+        }
+        // the distinct words, then the term id of each word
+        Map<String, Integer> ids = new HashMap<>();
+        int[] seq = new int[words.size()];
+        for (int i = 0; i < seq.length; i++) {
+            seq[i] = ids.computeIfAbsent(words.get(i), word -> ids.size());
+        }
+        String[] terms = new String[ids.size()];
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            terms[entry.getValue()] = entry.getKey();
+        }
+        write(file(page.url, WORDS), out -> {
+            writeHeader(out, page.url, page.etag, page.lastModified, page.length);
+            out.writeInt(terms.length);
+            for (String term : terms) {
+                out.writeUTF(term);
+            }
+            out.writeInt(seq.length);
+            for (int id : seq) {
+                out.writeInt(id);
+            }
+        });
+    }
+
+    /**
+     * Open a feed: the cached body if it did not change, otherwise the
+     * download, which is cached as it is read; only a download read to the
+     * end is kept.
+     *
+     * @param url the url of the feed
+     * @return the body of the feed, to be closed
+     * @throws IOException if the feed cannot be downloaded
+     */
+    public InputStream feed(String url) throws IOException {
+        Path file = file(url, FEED);
+        DataInputStream in = open(file);
+        Map<String, String> cached = in == null ? null : header(in, url);
+        if (cached != null) {
+            Connection.Response res;
+            try {
+                res = conditional(url, cached).maxBodySize(0).ignoreContentType(true).execute();
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+            if (res.statusCode() == 304) {
+                requests.incrementAndGet();
+                hits.incrementAndGet();
+                return new Counting(in, bytesSaved);
+            }
+            in.close();
+            return downloading(url, file, res);
+        }
+        if (in != null) {
+            in.close();
+        }
+        return downloading(url, file,
+                Jsoup.connect(url).maxBodySize(0).ignoreContentType(true).execute());
+    }
+
+    private InputStream downloading(String url, Path file, Connection.Response res)
+            throws IOException {
+        requests.incrementAndGet();
+        InputStream body = new Counting(res.bodyStream(), bytesDownloaded);
+        String etag = res.header("ETag");
+        String lastModified = res.header("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return body;
+        }
+        Path tmp = Files.createTempFile(dir, "feed", ".tmp");
+        DataOutputStream copy = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)));
+        writeHeader(copy, url, etag, lastModified, -1);
+        // copies the body as it is read; a failure to write the copy only
+        // leaves the feed out of the cache
+        return new FilterInputStream(body) {
+            boolean complete;
+            boolean broken;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b < 0) {
+                    complete = true;
+                } else {
+                    copy(new byte[] { (byte) b }, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n < 0) {
+                    complete = true;
+                } else {
+                    copy(buf, off, n);
+                }
+                return n;
+            }
+
+            private void copy(byte[] buf, int off, int len) {
+                try {
+                    if (!broken) {
+                        copy.write(buf, off, len);
+                    }
+                } catch (IOException e) {
+                    broken = true;
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    try {
+                        copy.close();
+                        if (complete && !broken) {
+                            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                        }
+                        Files.deleteIfExists(tmp);
+                    } catch (IOException e) {
+                        // not cached
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * helper method to build a request that only gets the body if it
+     * changed since it was cached.
+     */
+    private static Connection conditional(String url, Map<String, String> cached) {
+        Connection conn = Jsoup.connect(url);
+        if (!cached.get("etag").isEmpty()) {
+            conn.header("If-None-Match", cached.get("etag"));
+        }
+        if (!cached.get("lastModified").isEmpty()) {
+            conn.header("If-Modified-Since", cached.get("lastModified"));
+        }
+        return conn;
+    }
+
+    private Path file(String url, String suffix) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return dir.resolve(name.append(suffix).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DataInputStream open(Path file) {
+        try {
+            return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        } catch (IOException e) {
+            // not cached
+            return null;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, String url, String etag,
+            String lastModified, long length) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(url);
+        out.writeUTF(etag == null ? "" : etag);
+        out.writeUTF(lastModified == null ? "" : lastModified);
+        out.writeLong(length);
+    }
+
+    /**
+     * helper method to read the header of a cache file.
+     *
+     * @return the validators and length of the cached body, or null if the
+     *         file is not the one of the url
+     */
+    private static Map<String, String> header(DataInputStream in, String url) {
+        try {
+            if (in.readInt() != MAGIC || !in.readUTF().equals(url)) {
+                return null;
+            }
+            Map<String, String> res = new HashMap<>();
+            res.put("etag", in.readUTF());
+            res.put("lastModified", in.readUTF());
+            res.put("length", Long.toString(in.readLong()));
+            return res;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readWords(DataInputStream in) throws IOException {
+        String[] terms = new String[in.readInt()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = in.readUTF();
+        }
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+        }
+        return new Tokenizer.Tokens(terms, ids);
+    }
+
+    private interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * helper method to replace a cache file atomically.
+     */
+    private void write(Path file, Content content) throws IOException {
+        Path tmp = Files.createTempFile(dir, "words", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                content.write(out);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    private static final class Counting extends FilterInputStream {
+        private final AtomicLong counter;
+
+        Counting(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
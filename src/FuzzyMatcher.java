@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The state of a fuzzy prefix search: finds the prefixes of a trie within
+ * a bounded edit distance (Levenshtein: insertions, deletions and
+ * substitutions) of a typed prefix, and ranks the words below them.
+ *
+ * The trie is walked depth-first, one row of the edit distance table per
+ * node: row[i] is the distance between the first i characters of the typed
+ * prefix and the prefix of the node. A child's row is computed from its
+ * parent's in O(prefix length), and a subtrie is skipped as soon as every
+ * entry of the row exceeds the bound, since they only grow further down.
+ * At a node whose prefix is close enough, the top terms of the node are
+ * candidates: they are the heaviest words at that distance or less.
+ *
+ * The results are ranked by distance, then heaviest first, then in
+ * lexicographic order, so exact prefix matches come first. They are
+ * merged lazily from the lists of top terms, which are already sorted, so
+ * only about k terms are looked at per distance however many nodes match.
+ */
+final class FuzzyMatcher {
+
+    private final String prefix;
+    private final int maxEdits;
+    // the top terms of the matching nodes, by distance
+    private final List<List<List<Term>>> candidates = new ArrayList<>();
+
+    /**
+     * @param prefix   the typed prefix, lowercased
+     * @param maxEdits the maximum edit distance
+     */
+    FuzzyMatcher(String prefix, int maxEdits) {
+        this.prefix = prefix;
+        this.maxEdits = Math.max(0, maxEdits);
+        for (int d = 0; d <= this.maxEdits; d++) {
+            candidates.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return the row of the root (the empty prefix)
+     */
+    int[] start() {
+        int[] row = new int[prefix.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        return row;
+    }
+
+    /**
+     * @param row   the row of a node
+     * @param label the label of one of its children
+     * @return the row of the child, or null if no word below the child is
+     *         within the bound
+     */
+    int[] step(int[] row, char label) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        int min = next[0];
+        for (int i = 1; i < row.length; i++) {
+            int cost = prefix.charAt(i - 1) == label ? 0 : 1;
+            next[i] = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+            min = Math.min(min, next[i]);
+        }
+        return min <= maxEdits ? next : null;
+    }
+
+    /**
+     * @param row the row of a node
+     * @return the edit distance between the typed prefix and the prefix of
+     *         the node
+     */
+    int distance(int[] row) {
+        return row[prefix.length()];
+    }
+
+    /**
+     * @return true if the prefix of a node with this row is within the
+     *         bound
+     */
+    boolean matches(int[] row) {
+        return distance(row) <= maxEdits;
+    }
+
+    /**
+     * Add the top terms of a matching node.
+     *
+     * @param top      the heaviest words below the node, heaviest first
+     *                 (equal weights in lexicographic order)
+     * @param distance the distance of the node
+     */
+    void add(List<Term> top, int distance) {
+        if (!top.isEmpty()) {
+            candidates.get(distance).add(top);
+        }
+    }
+
+    /**
+     * @param k the maximum number of words
+     * @return the k best words found, closest first, then heaviest first
+     */
+    List<ITerm> top(int k) {
+        List<ITerm> res = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (int d = 0; d <= maxEdits && res.size() < k; d++) {
+            // merge the lists of this distance: {list, position}
+            List<List<Term>> lists = candidates.get(d);
+            PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, lists.size()),
+                    (a, b) -> compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1])));
+            for (int i = 0; i < lists.size(); i++) {
+                queue.add(new int[] { i, 0 });
+            }
+            while (!queue.isEmpty() && res.size() < k) {
+                int[] next = queue.poll();
+                Term term = lists.get(next[0]).get(next[1]);
+                // a word below several matching nodes is taken at the smallest
+                // distance
+                if (seen.add(term.getTerm())) {
+                    res.add(new Term(term.getTerm(), term.getWeight()));
+                }
+                if (++next[1] < lists.get(next[0]).size()) {
+                    queue.add(next);
+                }
+            }
+        }
+        return res;
+    }
+
+    // heaviest first, equal weights in lexicographic order
+    private static int compare(Term t1, Term t2) {
+        int cmp = Long.compare(t2.getWeight(), t1.getWeight());
+        return cmp != 0 ? cmp : t1.getTerm().compareTo(t2.getTerm());
+    }
+}
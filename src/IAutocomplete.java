@@ -58,4 +58,29 @@ public interface IAutocomplete
      */
     public List<ITerm> getSuggestions(String prefix);
 
+
+    /**
+     * This method should not throw an exception
+     * @param prefix
+     * @return a List containing the numberSuggestions() heaviest ITerm
+     *         objects with query starting with prefix, heaviest first
+     *         (equal weights in lexicographic order). Return an empty list
+     *         if there are no ITerm object starting with prefix.
+     */
+    public List<ITerm> topSuggestions(String prefix);
+
+
+    /**
+     * This method should not throw an exception
+     * @param prefix
+     * @param maxEdits the maximum number of insertions, deletions and
+     *                 substitutions, typically 1 or 2
+     * @return a List containing the numberSuggestions() best ITerm objects
+     *         with query starting with a string within maxEdits edits of
+     *         prefix: closest first, then heaviest first (equal weights in
+     *         lexicographic order). Return an empty list if there are no
+     *         such ITerm objects.
+     */
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits);
+
 }
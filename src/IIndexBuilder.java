@@ -1,3 +1,4 @@
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -88,6 +89,47 @@ public interface IIndexBuilder
         String queryTerm,
         Map<?, ?> invertedIndex);
 
+
+    /**
+     * Ranked search: the documents of the term by reverse TF-IDF value,
+     * from rank offset to rank offset + limit. The postings are already
+     * sorted, so the search stops after the last requested document.
+     *
+     * @param queryTerm
+     * @param invertedIndex
+     * @param offset the number of best documents to skip
+     * @param limit the maximum number of documents to return
+     * @return the documents and their TF-IDF values for the term, an empty
+     *         list if the term is not in the index
+     */
+    public List<Entry<String, Double>> searchArticles(
+        String queryTerm,
+        Map<?, ?> invertedIndex,
+        int offset,
+        int limit);
+
+
+    /**
+     * Save the inverted index into a binary file that can be reopened by
+     * {@loadIndex} without parsing the feeds again.
+     *
+     * @param invertedIndex the inverted index computed by {@buildInvertedIndex}
+     * @param filename the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void saveIndex(Map<?, ?> invertedIndex, String filename)
+        throws IOException;
+
+
+    /**
+     * @param filename a file written by {@saveIndex}
+     * @return the inverted index saved in the file. buildHomePage and
+     *         searchArticles give the same results on it as on the saved
+     *         index
+     * @throws IOException if the file cannot be read
+     */
+    public Map<?, ?> loadIndex(String filename) throws IOException;
+
     // Stop words
     public static String[] STOPW = { "a", "about", "above", "across",
         "after", "afterwards", "again", "against", "all", "almost", "alone",
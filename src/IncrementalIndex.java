@@ -0,0 +1,463 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An inverted index that can be updated one document at a time when the
+ * feeds are refreshed, instead of running buildIndex and
+ * buildInvertedIndex over the whole corpus again.
+ *
+ * The postings keep the term frequency (TF) of each document rather than
+ * its TF-IDF value. The IDF of a term, log(N / df), changes with the
+ * number of documents N on every update, so it is only applied when the
+ * postings are read: an update touches the terms of the changed document
+ * and nothing else. Each postings list is kept sorted as documents are
+ * added and removed, so reading the index never changes it.
+ *
+ * {@link #forwardIndex()} and {@link #invertedIndex()} give the same
+ * values as buildIndex and buildInvertedIndex on the current documents.
+ *
+ * The index is not thread-safe: reads can run concurrently, but not with
+ * an update. {@link #snapshot()} is the exception: it returns the inverted
+ * index as it is when it is called, which later updates do not change and
+ * which can be read while they run. The postings a snapshot shares are
+ * copied the first time an update changes them (copy on write), so taking
+ * a snapshot and the next update only cost the terms that change, not the
+ * whole corpus. {@link IndexingPipeline} updates the index on its thread
+ * and publishes a snapshot after each crawl.
+ */
+public class IncrementalIndex {
+
+    // document url -> times that each word appears in the document
+    private final Map<String, Map<String, Integer>> docCounts = new HashMap<>();
+    // document url -> number of words in the document
+    private final Map<String, Integer> docLengths = new HashMap<>();
+    // term -> postings of the term, read by the snapshots while it changes
+    private final Map<String, Postings> postings = new ConcurrentHashMap<>();
+    // incremented by each snapshot; the postings of an older generation
+    // may be shared with a snapshot and are copied before they change
+    private long generation;
+    // the last snapshot taken, or null
+    private Snapshot published;
+
+    /**
+     * The documents of a term and their TF.
+     */
+    private static class Postings {
+        final long generation;
+        final Map<String, Double> tf;
+        // the same documents by reverse TF
+        final List<Entry<String, Double>> sorted;
+
+        Postings(long generation) {
+            this.generation = generation;
+            this.tf = new HashMap<>();
+            this.sorted = new ArrayList<>();
+        }
+
+        Postings(Postings other, long generation) {
+            this.generation = generation;
+            this.tf = new HashMap<>(other.tf);
+            this.sorted = new ArrayList<>(other.sorted);
+        }
+
+        void put(String url, double value) {
+            tf.put(url, value);
+            sorted.add(after(value), new AbstractMap.SimpleImmutableEntry<>(url, value));
+        }
+
+        void remove(String url) {
+            double value = tf.remove(url);
+            // among the documents with the same TF, before after(value)
+            int i = after(value) - 1;
+            while (!sorted.get(i).getKey().equals(url)) {
+                i--;
+            }
+            sorted.remove(i);
+        }
+
+        // the index of the first document with a TF below value
+        private int after(double value) {
+            int lo = 0;
+            int hi = sorted.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted.get(mid).getValue() >= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Add a document, or replace it if a document with the same url is
+     * already indexed. Only the terms of the old and new versions of the
+     * document are updated.
+     *
+     * @param url   the url of the document
+     * @param words the words of the document, as computed by parseFeed
+     * @return false if the document was already indexed with these words
+     */
+    public boolean addDocument(String url, List<String> words) {
+        Map<String, Integer> counts = IndexBuilder.countWords(words);
+        if (counts.equals(docCounts.get(url)) && docLengths.get(url) == words.size()) {
+            return false;
+        }
+        removeDocument(url);
+        docCounts.put(url, counts);
+        docLengths.put(url, words.size());
+        for (Entry<String, Integer> entry : counts.entrySet()) {
+            writable(entry.getKey()).put(url, (double) entry.getValue() / words.size());
+        }
+        return true;
+    }
+
+    /**
+     * Remove a document from the index.
+     *
+     * @param url the url of the document
+     * @return false if the document was not indexed
+     */
+    public boolean removeDocument(String url) {
+        Map<String, Integer> counts = docCounts.remove(url);
+        if (counts == null) {
+            return false;
+        }
+        docLengths.remove(url);
+        for (String term : counts.keySet()) {
+            Postings list = writable(term);
+            list.remove(url);
+            if (list.tf.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make the index match a new crawl: add the new documents, replace the
+     * changed ones and remove the documents that are no longer in docs.
+     *
+     * @param docs a map computed by {@link IIndexBuilder#parseFeed}
+     * @return the number of documents added, replaced or removed
+     */
+    public int update(Map<String, List<String>> docs) {
+        return update(docs, IndexingProgress.NONE);
+    }
+
+    /**
+     * update, reporting the documents compared so far. If the calling
+     * thread is interrupted, the update stops between two documents: the
+     * index then has some documents of the new crawl and some of the
+     * previous one, until the next update.
+     *
+     * @param docs     a map computed by {@link IIndexBuilder#parseFeed}
+     * @param progress receives the progress of the INDEX stage
+     * @return the number of documents added, replaced or removed
+     */
+    public int update(Map<String, List<String>> docs, IndexingProgress progress) {
+        List<String> removed = new ArrayList<>();
+        for (String url : docCounts.keySet()) {
+            if (!docs.containsKey(url)) {
+                removed.add(url);
+            }
+        }
+        int total = removed.size() + docs.size();
+        int done = 0;
+        int changed = 0;
+        for (String url : removed) {
+            if (Thread.currentThread().isInterrupted()) {
+                return changed;
+            }
+            if (removeDocument(url)) {
+                changed++;
+            }
+            progress.progress(IndexingProgress.Stage.INDEX, ++done, total);
+        }
+        for (Entry<String, List<String>> entry : docs.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return changed;
+            }
+            if (addDocument(entry.getKey(), entry.getValue())) {
+                changed++;
+            }
+            progress.progress(IndexingProgress.Stage.INDEX, ++done, total);
+        }
+        return changed;
+    }
+
+    /**
+     * helper method to get the postings of a term that an update can
+     * change: new ones if the term has none, a copy if they are shared
+     * with a snapshot. The snapshot keeps the postings it had.
+     */
+    private Postings writable(String term) {
+        Postings list = postings.get(term);
+        if (list != null && list.generation == generation) {
+            return list;
+        }
+        if (published != null) {
+            // before the postings are replaced, so that a snapshot reading
+            // the new ones also finds the old ones
+            published.frozen.putIfAbsent(term, list == null ? ABSENT : list);
+        }
+        Postings copy = list == null ? new Postings(generation) : new Postings(list, generation);
+        postings.put(term, copy);
+        return copy;
+    }
+
+    /**
+     * @return a read-only view of the inverted index of the current
+     *         documents, as computed by {@link IIndexBuilder#buildInvertedIndex},
+     *         that later updates do not change. It can be read from any
+     *         thread, while the index is updated.
+     */
+    public Map<String, List<Entry<String, Double>>> snapshot() {
+        Snapshot next = new Snapshot(docCounts.size());
+        if (published != null) {
+            published.next = next;
+        }
+        published = next;
+        generation++;
+        return next;
+    }
+
+    /**
+     * @return a read-only copy of the current documents with int term and
+     *         document ids, to serve searches while this index is updated
+     */
+    public CompactIndex compact() {
+        return CompactIndex.build(docCounts, docLengths);
+    }
+
+    /**
+     * @return the number of documents in the index
+     */
+    public int size() {
+        return docCounts.size();
+    }
+
+    /**
+     * @return the urls of the documents in the index
+     */
+    public Set<String> documents() {
+        return new HashSet<>(docCounts.keySet());
+    }
+
+    // IDF of a term for the current number of documents
+    private double idf(String term) {
+        return idf(docCounts.size(), postings.get(term));
+    }
+
+    private static double idf(int documents, Postings list) {
+        return Math.log((double) documents / list.tf.size());
+    }
+
+    /**
+     * @return the forward index of the current documents, as computed by
+     *         {@link IIndexBuilder#buildIndex}
+     */
+    public Map<String, Map<String, Double>> forwardIndex() {
+        Map<String, Map<String, Double>> map = new HashMap<>();
+        for (Entry<String, Map<String, Integer>> doc : docCounts.entrySet()) {
+            int sumWords = docLengths.get(doc.getKey());
+            Map<String, Double> wordTfIdf = new TreeMap<>();
+            for (Entry<String, Integer> entry : doc.getValue().entrySet()) {
+                double tf = (double) entry.getValue() / sumWords;
+                wordTfIdf.put(entry.getKey(), tf * idf(entry.getKey()));
+            }
+            map.put(doc.getKey(), wordTfIdf);
+        }
+        return map;
+    }
+
+    /**
+     * @return a read-only view of the inverted index of the current
+     *         documents, as computed by {@link IIndexBuilder#buildInvertedIndex}.
+     *         The TF-IDF values are computed when a term is read.
+     */
+    public Map<String, List<Entry<String, Double>>> invertedIndex() {
+        return new AbstractMap<String, List<Entry<String, Double>>>() {
+            @Override
+            public List<Entry<String, Double>> get(Object key) {
+                return postings.containsKey(key) ? scored((String) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return postings.containsKey(key);
+            }
+
+            @Override
+            public int size() {
+                return postings.size();
+            }
+
+            @Override
+            public Set<Entry<String, List<Entry<String, Double>>>> entrySet() {
+                return new AbstractSet<Entry<String, List<Entry<String, Double>>>>() {
+                    @Override
+                    public int size() {
+                        return postings.size();
+                    }
+
+                    @Override
+                    public Iterator<Entry<String, List<Entry<String, Double>>>> iterator() {
+                        Iterator<String> terms = postings.keySet().iterator();
+                        return new Iterator<Entry<String, List<Entry<String, Double>>>>() {
+                            @Override
+                            public boolean hasNext() {
+                                return terms.hasNext();
+                            }
+
+                            @Override
+                            public Entry<String, List<Entry<String, Double>>> next() {
+                                String term = terms.next();
+                                return new SimpleImmutableEntry<>(term, scored(term));
+                            }
+                        };
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * helper method to get the postings of a term with their TF-IDF values,
+     * by reverse TF-IDF value. The IDF is the same for all the documents of
+     * the term, so sorting by TF gives the same order.
+     */
+    private List<Entry<String, Double>> scored(String term) {
+        return scored(postings.get(term), idf(term));
+    }
+
+    private static List<Entry<String, Double>> scored(Postings list, double idf) {
+        List<Entry<String, Double>> res = new ArrayList<>(list.sorted.size());
+        for (Entry<String, Double> entry : list.sorted) {
+            res.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue() * idf));
+        }
+        return res;
+    }
+
+    // stands for a term without postings in Snapshot.frozen
+    private static final Postings ABSENT = new Postings(-1);
+
+    /**
+     * The inverted index at the time of a snapshot. A term reads the
+     * postings the first update after the snapshot replaced, or else those
+     * the next snapshot sees, or else the current ones.
+     */
+    private final class Snapshot extends AbstractMap<String, List<Entry<String, Double>>> {
+        final int documents;
+        // term -> its postings at this snapshot, for the terms an update
+        // changed before the next snapshot
+        final Map<String, Postings> frozen = new ConcurrentHashMap<>();
+        volatile Snapshot next;
+        // computed on first use
+        private volatile Set<String> terms;
+
+        Snapshot(int documents) {
+            this.documents = documents;
+        }
+
+        Postings postings(Object term) {
+            if (!(term instanceof String)) {
+                return null;
+            }
+            // the current postings first: if they were replaced since, the
+            // old ones are already frozen
+            Postings list = IncrementalIndex.this.postings.get(term);
+            for (Snapshot s = this; s != null; s = s.next) {
+                Postings old = s.frozen.get(term);
+                if (old != null) {
+                    return old == ABSENT ? null : old;
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public List<Entry<String, Double>> get(Object key) {
+            Postings list = postings(key);
+            return list == null ? null : scored(list, idf(documents, list));
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return postings(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return terms().size();
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return terms();
+        }
+
+        /**
+         * helper method to list the terms of the snapshot, among the
+         * current ones and the ones frozen since.
+         */
+        private Set<String> terms() {
+            Set<String> res = terms;
+            if (res == null) {
+                Set<String> candidates = new HashSet<>(IncrementalIndex.this.postings.keySet());
+                for (Snapshot s = this; s != null; s = s.next) {
+                    candidates.addAll(s.frozen.keySet());
+                }
+                res = new HashSet<>();
+                for (String term : candidates) {
+                    if (postings(term) != null) {
+                        res.add(term);
+                    }
+                }
+                res = Collections.unmodifiableSet(res);
+                terms = res;
+            }
+            return res;
+        }
+
+        @Override
+        public Set<Entry<String, List<Entry<String, Double>>>> entrySet() {
+            return new AbstractSet<Entry<String, List<Entry<String, Double>>>>() {
+                @Override
+                public int size() {
+                    return terms().size();
+                }
+
+                @Override
+                public Iterator<Entry<String, List<Entry<String, Double>>>> iterator() {
+                    Iterator<String> it = terms().iterator();
+                    return new Iterator<Entry<String, List<Entry<String, Double>>>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, List<Entry<String, Double>>> next() {
+                            String term = it.next();
+                            return new SimpleImmutableEntry<>(term, get(term));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
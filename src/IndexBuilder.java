@@ -1,58 +1,258 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.jsoup.parser.Parser;
 
 public class IndexBuilder implements IIndexBuilder {
 
+    // default number of threads used to download and index the documents
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    // maximum number of concurrent downloads / fork-join indexing workers
+    private final int parallelism;
+    // revalidates the feeds and articles downloaded before, or null
+    private final FetchCache cache;
+    // runs the parallel streams of the indexing, or null if parallelism is 1;
+    // its workers are daemon threads that exit when idle, so it is never
+    // shut down
+    private final ForkJoinPool pool;
+
+    public IndexBuilder() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the maximum number of feeds/articles fetched at the
+     *                    same time, and the number of fork-join workers used
+     *                    by buildIndex and buildInvertedIndex (1 does
+     *                    everything sequentially)
+     */
+    public IndexBuilder(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * @param parallelism see {@link #IndexBuilder(int)}
+     * @param cache       the cache the feeds and articles are downloaded
+     *                    through, or null to download them every time
+     */
+    public IndexBuilder(int parallelism, FetchCache cache) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        this.cache = cache;
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return the cache of the downloads, or null
+     */
+    public FetchCache getCache() {
+        return cache;
+    }
+
     // <parseFeed> Parse each document/rss feed in the list and return a Map of 
     // each document and all the words in it. (punctuation and special
     // characters removed)
     //
+    // The feeds are read as they are downloaded, and the article of each
+    // item is downloaded as soon as the item is read, at most `parallelism`
+    // requests at a time.
+    //
     // @param feeds a List of rss feeds to parse
     // @return a Map of each documents (identified by its url) and the list of
     //         words in it.
     @Override
     public Map<String, List<String>> parseFeed(List<String> feeds) {
+        return parseFeed(feeds, IndexingProgress.NONE);
+    }
+
+    /**
+     * parseFeed, reporting the feeds and articles downloaded so far. If the
+     * calling thread is interrupted, the downloads are abandoned and the
+     * documents downloaded so far are returned.
+     *
+     * @param feeds    a List of rss feeds to parse
+     * @param progress receives the progress of the FEEDS and ARTICLES stages
+     * @return a Map of each documents (identified by its url) and the list
+     *         of words in it.
+     */
+    public Map<String, List<String>> parseFeed(List<String> feeds, IndexingProgress progress) {
         Map<String, List<String>> map = new HashMap<>();
-        for (String feedUrl : feeds) {
-            try {
-                // handle RSS file
-                Document rssDocument = Jsoup.connect(feedUrl).get();
-                Elements links = rssDocument.getElementsByTag("link");
-                for (Element link : links) {
-                    // deal with html file
-                    // get the link text
-                    String linkText = link.text(); // get the url
-                    Document htmlDocument = Jsoup.connect(linkText).get();  // get the html document
-                    Element body = htmlDocument.body(); // get the body
-                    String text = body.text(); // get the text
-                    // extract words from the text
-                    List<String> words = extractWords(text);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            // 1. read every rss feed; each article is submitted as soon as
+            //    its item is read, so articles download while feeds are read
+            List<Map<String, Future<List<String>>>> feedArticles = new ArrayList<>();
+            List<Future<?>> feedTasks = new ArrayList<>();
+            Set<String> submitted = ConcurrentHashMap.newKeySet();
+            for (String feedUrl : feeds) {
+                // only written by the feed task; read once it is done
+                Map<String, Future<List<String>>> articles = new LinkedHashMap<>();
+                feedArticles.add(articles);
+                feedTasks.add(pool.submit(() -> {
+                    fetchItems(feedUrl, item -> {
+                        String link = item.getLink();
+                        if (submitted.add(link)) {
+                            articles.put(link, pool.submit(() -> fetchWords(link)));
+                        }
+                    });
+                    return null;
+                }));
+            }
+            for (int i = 0; i < feedTasks.size() && !Thread.currentThread().isInterrupted(); i++) {
+                await(feedTasks.get(i));
+                progress.progress(IndexingProgress.Stage.FEEDS, i + 1, feeds.size());
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return map;
+            }
+
+            // 2. collect the articles of all feeds, the items read before a
+            //    feed failed included
+            List<String> links = new ArrayList<>();
+            List<Future<List<String>>> articleTasks = new ArrayList<>();
+            for (Map<String, Future<List<String>>> articles : feedArticles) {
+                links.addAll(articles.keySet());
+                articleTasks.addAll(articles.values());
+            }
+            for (int i = 0; i < links.size() && !Thread.currentThread().isInterrupted(); i++) {
+                List<String> words = await(articleTasks.get(i));
+                if (words != null) {
                     // put the linkText and words into the map
-                    map.put(linkText, words);
+                    map.put(links.get(i), words);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                progress.progress(IndexingProgress.Stage.ARTICLES, i + 1, links.size());
             }
+        } finally {
+            pool.shutdownNow();
         }
         return map;
     }
+
+    /**
+     * helper method to download a rss feed and pass on its items as they are
+     * read. The body is kept while it is read, so a feed that is not
+     * well-formed XML is read again by Jsoup, which takes the text of every
+     * link; the items already passed on are skipped.
+     */
+    void fetchItems(String feedUrl, Consumer<FeedReader.Item> items) throws IOException {
+        Set<String> seen = new HashSet<>();
+        Consumer<FeedReader.Item> unique = item -> {
+            if (seen.add(item.getLink())) {
+                items.accept(item);
+            }
+        };
+        // handle RSS file
+        try (InputStream in = new BufferedInputStream(cache != null ? cache.feed(feedUrl)
+                : Jsoup.connect(feedUrl).maxBodySize(0).ignoreContentType(true)
+                        .execute().bodyStream())) {
+            in.mark(Integer.MAX_VALUE);
+            try {
+                FeedReader.read(in, unique);
+            } catch (XMLStreamException e) {
+                in.reset();
+                Document rssDocument = Jsoup.parse(in, null, feedUrl, Parser.xmlParser());
+                for (Element link : rssDocument.getElementsByTag("link")) {
+                    if (!link.text().isEmpty()) {
+                        unique.accept(new FeedReader.Item(link.text())); // get the url
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * helper method to download an article and extract the words of its body.
+     */
+    private List<String> fetchWords(String linkText) throws IOException {
+        return words(fetchPage(linkText));
+    }
+
+    /**
+     * helper method to download an article. Through the cache, an article
+     * that did not change comes with its words and without its text.
+     */
+    FetchCache.Page fetchPage(String linkText) throws IOException {
+        if (cache != null) {
+            return cache.article(linkText);
+        }
+        // deal with html file
+        Document htmlDocument = Jsoup.connect(linkText).get();  // get the html document
+        Element body = htmlDocument.body(); // get the body
+        return new FetchCache.Page(linkText, body.text(), null, null, null, 0);
+    }
+
+    /**
+     * helper method to get the words of a downloaded article, and cache
+     * them.
+     */
+    List<String> words(FetchCache.Page page) {
+        if (page.getWords() != null) {
+            return page.getWords();
+        }
+        // extract words from the text
+        List<String> words = extractWords(page.getText());
+        if (cache != null) {
+            try {
+                cache.store(page, words);
+            } catch (IOException e) {
+                // only missing from the cache
+                e.printStackTrace();
+            }
+        }
+        return words;
+    }
+
+    /**
+     * helper method to wait for a download; failures are reported and
+     * give null so the other documents are still indexed.
+     */
+    private static <T> T await(Future<T> task) {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
     
     /**
-     * helper method to extract words from a string.
+     * helper method to extract words from a string: punctuation removed and
+     * lowercased, see {@link Tokenizer}. The words are counted as they are
+     * read, so countWords does not need to count them again.
      */
     private List<String> extractWords(String text) {
-        //Remove all punctuation and set everything to lowercase in the words
-        //Split the string into an array of words using whitespace as a delimiter
-        String[] words = text.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+");
-        return Arrays.asList(words);
+        return Tokenizer.tokenize(text);
     }
 
     // @param docs a map computed by {@parseFeed}
@@ -67,59 +267,64 @@ public class IndexBuilder implements IIndexBuilder {
         Map<String, Map<String, Double>> map = new HashMap<>();
         // 1. calculate the number of documents
         int size = docs.size();
-        
-        for (Entry<String,List<String>> entrySet : docs.entrySet()) {
-            String documentName = entrySet.getKey();
-            List<String> words = entrySet.getValue();
-            // sort the words by lexicographic order
-            Collections.sort(words);
-
-            int sumWords = words.size();
-            // 2. calculate the times that each word appears in the document
-            // the times that each word appears in the document
-            Map<String, Integer> wordOneDoc = new HashMap<String, Integer>();
-            // the number of documents that contain this word
-            Map<String, Integer> wordTotalDoc = new HashMap<String, Integer>();
-            // the TF-IDF value for each term in the document
-            Map<String, Double> wordTfIdf = new TreeMap<String, Double>();
-
-            // calculate the times that each word appears in the document
-            // and the number of documents that contain this word
-            for (String word : words) {
-                if (wordOneDoc.containsKey(word)) {
-                    wordOneDoc.put(word, wordOneDoc.get(word) + 1);
-                } else {
-                    wordOneDoc.put(word, 1);
-                    // 3. calculate the number of documents that contain this word 
-                    //   (the number of documents that contain this word is
-                    //   the number of documents that contain this word in the first time)
-                    int count = 0;
-                    for (Entry<String,List<String>> entrySet2 : docs.entrySet()) {
-                        List<String> words2 = entrySet2.getValue();
-                        for (String word2 : words2) {
-                            if (word2.equals(word)) {
-                                count++;
-                                break;
-                            }
-                        }
-                    }
-                    wordTotalDoc.put(word, count);
-                }
-            }
+        List<Entry<String, List<String>>> entries = new ArrayList<>(docs.entrySet());
 
-            // 4. calculate the TF-IDF value for each term in the document
-            for (String word : words) {
-                int wordCount = wordOneDoc.get(word);
-                double tf = (double)wordCount / sumWords;
-                double idf = Math.log((double)size / wordTotalDoc.get(word));
-                double tfIdf = tf * idf;
-                wordTfIdf.put(word, tfIdf);
-            }
-            map.put(documentName, wordTfIdf);
+        // 2. calculate the times that each word appears in each document
+        List<Map<String, Integer>> wordCounts = fork(() -> stream(entries)
+                .map(entrySet -> countWords(entrySet.getValue()))
+                .collect(Collectors.toList()));
+
+        // 3. calculate the number of documents that contain each word
+        Map<String, Integer> wordTotalDoc = fork(() -> stream(wordCounts)
+                .flatMap(wordOneDoc -> wordOneDoc.keySet().stream())
+                .collect(Collectors.toMap(word -> word, word -> 1, Integer::sum)));
+
+        // 4. calculate the TF-IDF value for each term in each document
+        List<Map<String, Double>> scores = fork(() -> indices(entries.size())
+                .mapToObj(i -> scoreWords(wordCounts.get(i),
+                        entries.get(i).getValue().size(), wordTotalDoc, size))
+                .collect(Collectors.toList()));
+        for (int i = 0; i < entries.size(); i++) {
+            map.put(entries.get(i).getKey(), scores.get(i));
         }
         return map;
     }
 
+    /**
+     * helper method to count the times that each word appears in a document.
+     */
+    static Map<String, Integer> countWords(List<String> words) {
+        if (words instanceof Tokenizer.Tokens) {
+            return ((Tokenizer.Tokens) words).counts();
+        }
+        Map<String, Integer> wordOneDoc = new HashMap<>();
+        for (String word : words) {
+            wordOneDoc.merge(word, 1, Integer::sum);
+        }
+        return wordOneDoc;
+    }
+
+    /**
+     * helper method to compute the TF-IDF value of each word of a document.
+     *
+     * @param wordOneDoc   the times that each word appears in the document
+     * @param sumWords     the number of words in the document
+     * @param wordTotalDoc the number of documents that contain each word
+     * @param size         the number of documents
+     * @return the TF-IDF values sorted by lexicographic order on the word
+     */
+    private static Map<String, Double> scoreWords(Map<String, Integer> wordOneDoc,
+            int sumWords, Map<String, Integer> wordTotalDoc, int size) {
+        Map<String, Double> wordTfIdf = new TreeMap<String, Double>();
+        for (Entry<String, Integer> entry : wordOneDoc.entrySet()) {
+            String word = entry.getKey();
+            double tf = (double) entry.getValue() / sumWords;
+            double idf = Math.log((double) size / wordTotalDoc.get(word));
+            wordTfIdf.put(word, tf * idf);
+        }
+        return wordTfIdf;
+    }
+
     
     /**
      * Build an inverted index consisting of a map of each tag term and a Collection (Java)
@@ -139,37 +344,83 @@ public class IndexBuilder implements IIndexBuilder {
         // key- tag term, value- a Collection of Entry objects
         // mapping a document with the TFIDF value of the term
         Map<String, List<Entry<String, Double>>> map = new HashMap<>();
-        // 1. swith the two key(string)
-        for (Entry<String, Map<String, Double>> entrySet : index.entrySet()) {
-            String documentName = entrySet.getKey();
-            Map<String, Double> wordTfIdf = entrySet.getValue();
-            for (Entry<String, Double> entrySet2 : wordTfIdf.entrySet()) {
-                String word = entrySet2.getKey();
-                Double tfIdf = entrySet2.getValue();
-                if (map.containsKey(word)) {
-                    map.get(word).add(new AbstractMap.SimpleEntry<>(documentName, tfIdf));
+        // 1. swith the two key(string), each worker inverting a contiguous
+        //    slice of the documents
+        List<Entry<String, Map<String, Double>>> entries = new ArrayList<>(index.entrySet());
+        int slices = Math.min(entries.size(), parallelism * 4);
+        List<Map<String, List<Entry<String, Double>>>> partials = fork(() -> indices(slices)
+                .mapToObj(i -> invertDocuments(entries.subList(
+                        i * entries.size() / slices, (i + 1) * entries.size() / slices)))
+                .collect(Collectors.toList()));
+        // 2. merge the partial postings in document order, so the lists are
+        //    the same as the ones of a sequential build
+        for (Map<String, List<Entry<String, Double>>> partial : partials) {
+            for (Entry<String, List<Entry<String, Double>>> entrySet : partial.entrySet()) {
+                List<Entry<String, Double>> list = map.get(entrySet.getKey());
+                if (list == null) {
+                    map.put(entrySet.getKey(), entrySet.getValue());
                 } else {
-                    List<Entry<String, Double>> list = new ArrayList<>();
-                    list.add(new AbstractMap.SimpleEntry<>(documentName, tfIdf));
-                    map.put(word, list);
+                    list.addAll(entrySet.getValue());
                 }
             }
         }
-        // sort the value of the map by reverse tag term TFIDF value
-        for (Entry<String, List<Entry<String, Double>>> entrySet : map.entrySet()) {
-            // 2. get the value of the map
-            List<Entry<String, Double>> list = entrySet.getValue();
-            // 3. sort the value of the map by reverse tag term TFIDF value
-            list.sort(new Comparator<Entry<String, Double>>() {
-                @Override
-                public int compare(Entry<String, Double> o1, Entry<String, Double> o2) {
-                    return o2.getValue().compareTo(o1.getValue());
-                }
-            });
+        // 3. sort the value of the map by reverse tag term TFIDF value
+        fork(() -> {
+            stream(map.values()).forEach(list -> list.sort(
+                    new Comparator<Entry<String, Double>>() {
+                        @Override
+                        public int compare(Entry<String, Double> o1, Entry<String, Double> o2) {
+                            return o2.getValue().compareTo(o1.getValue());
+                        }
+                    }));
+            return null;
+        });
+        return map;
+    }
+
+    /**
+     * helper method to build the postings of a slice of the forward index.
+     */
+    private static Map<String, List<Entry<String, Double>>> invertDocuments(
+            List<Entry<String, Map<String, Double>>> documents) {
+        Map<String, List<Entry<String, Double>>> map = new HashMap<>();
+        for (Entry<String, Map<String, Double>> entrySet : documents) {
+            String documentName = entrySet.getKey();
+            for (Entry<String, Double> entrySet2 : entrySet.getValue().entrySet()) {
+                map.computeIfAbsent(entrySet2.getKey(), word -> new ArrayList<>())
+                        .add(new AbstractMap.SimpleEntry<>(documentName, entrySet2.getValue()));
+            }
         }
         return map;
     }
 
+    /**
+     * helper method to run a task on the fork-join pool of the builder, so
+     * the parallel streams it uses do not share the common pool.
+     */
+    private <T> T fork(Supplier<T> task) {
+        if (pool == null) {
+            return task.get();
+        }
+        return pool.submit(task::get).join();
+    }
+
+    /**
+     * helper method to stream a collection, in parallel unless
+     * parallelism is 1.
+     */
+    private <T> Stream<T> stream(Collection<T> items) {
+        return parallelism == 1 ? items.stream() : items.parallelStream();
+    }
+
+    /**
+     * helper method to stream the indices 0..n-1, in parallel unless
+     * parallelism is 1.
+     */
+    private IntStream indices(int n) {
+        return parallelism == 1 ? IntStream.range(0, n) : IntStream.range(0, n).parallel();
+    }
+
     /**
      *  homepage displays the tag terms and their associated articles. 
      * Tag terms are sorted by the number of articles. 
@@ -277,17 +528,60 @@ public class IndexBuilder implements IIndexBuilder {
         // 2. get the key -- value <map>
             // check if the key exists.
         // 3. iterate the map, and then add the document's name to the list
-        List<String> res =  new LinkedList<>();
         List<Entry<String, Double>> value =
                 (List<Entry<String, Double>>) invertedIndex.get(queryTerm);
         if (value == null) {
+            return new ArrayList<>();
+        }
+        List<String> res = new ArrayList<>(value.size());
+        for (Entry<String, Double> entry : value) {
+            res.add(entry.getKey());
+        }
+        return res;
+    }
+
+    /*
+     * Only the requested page of results is read: the postings are sorted
+     * by reverse TF-IDF value, and the compressed lists are decoded one
+     * posting at a time by their iterator.
+     */
+    @Override
+    public List<Entry<String, Double>> searchArticles(String queryTerm, Map<?, ?> invertedIndex,
+            int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit cannot be negative");
+        }
+        List<Entry<String, Double>> res = new ArrayList<>();
+        List<?> value = (List<?>) invertedIndex.get(queryTerm);
+        if (value == null || offset >= value.size()) {
             return res;
-        } else {
-            for (Entry<String, Double> entry : value) {
-                res.add(entry.getKey());
+        }
+        int end = (int) Math.min((long) offset + limit, value.size());
+        Iterator<?> iter = value.iterator();
+        for (int rank = 0; rank < end; rank++) {
+            Entry<?, ?> entry = (Entry<?, ?>) iter.next();
+            if (rank >= offset) {
+                res.add(new AbstractMap.SimpleEntry<>((String) entry.getKey(),
+                        (Double) entry.getValue()));
             }
         }
         return res;
     }
+
+    /**
+     * Save the inverted index into a binary snapshot (see IndexSnapshot).
+     */
+    @Override
+    public void saveIndex(Map<?, ?> invertedIndex, String filename) throws IOException {
+        IndexSnapshot.write(invertedIndex, Paths.get(filename));
+    }
+
+    /**
+     * Open a snapshot written by saveIndex; the file is memory-mapped
+     * instead of being read into the heap.
+     */
+    @Override
+    public Map<?, ?> loadIndex(String filename) throws IOException {
+        return IndexSnapshot.open(Paths.get(filename));
+    }
 }
-        
@@ -1,7 +1,28 @@
  
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.xml.stream.XMLStreamException;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test; 
@@ -19,6 +40,14 @@ public class IndexBuilderTest {
     List<String> feeds;
     Map<String,List<String>> parseFeed;
     Map<String, Map<String, Double>> buildIndexMap;
+    // pages served with extra words, and the number of 304s served
+    Set<String> changedPages = Collections.synchronizedSet(new HashSet<>());
+    int notModified;
+    // the requests being served, and the most served at once
+    int activeRequests;
+    int maxActiveRequests;
+    // the paths of the requests served
+    List<String> served = Collections.synchronizedList(new ArrayList<>());
     @Before
     public void before() throws Exception {
         indexBuilder = new IndexBuilder();
@@ -159,4 +188,1107 @@ public class IndexBuilderTest {
         assertTrue(strings.contains("https://www.seas.upenn.edu/~cit5940/page1.html"));
     }
 
-} 
+    /**
+     * Start a local stand-in for the feed server. It serves the pages of
+     * samplefiles/ and a feed linking to them, waiting latencyMs before
+     * answering each request. Responses have an ETag and a Last-Modified
+     * date, and conditional requests for an unchanged body get a 304.
+     */
+    private HttpServer startServer(long latencyMs) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String base = "http://localhost:" + server.getAddress().getPort() + "/";
+        HttpHandler pages = exchange -> {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String name = exchange.getRequestURI().getPath().substring(1);
+            byte[] body;
+            served.add(name);
+            if (name.equals("feed.xml") || name.equals("dup.xml") || name.equals("bad.xml")) {
+                StringBuilder feed = new StringBuilder("<rss version=\"2.0\">");
+                for (int i = 1; i <= 4; i++) {
+                    feed.append("<link>").append(base).append("page").append(i)
+                            .append(".html</link>");
+                    if (name.equals("bad.xml")) {
+                        // an entity XML does not define
+                        feed.append("&nbsp;");
+                    }
+                }
+                if (name.equals("dup.xml")) {
+                    // the same article under another url
+                    feed.append("<link>").append(base).append("page3.html?from=dup</link>");
+                }
+                body = feed.append("</rss>").toString().getBytes(StandardCharsets.UTF_8);
+            } else {
+                Path page = Paths.get("samplefiles", name);
+                if (!Files.exists(page)) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                body = Files.readAllBytes(page);
+                if (changedPages.contains(name)) {
+                    body = (new String(body, StandardCharsets.UTF_8) + "<p>Changed since</p>")
+                            .getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+            String lastModified = changedPages.contains(name)
+                    ? "Tue, 04 Apr 2023 10:00:00 GMT" : "Mon, 03 Apr 2023 10:00:00 GMT";
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Last-Modified", lastModified);
+            if (ifNoneMatch != null ? ifNoneMatch.equals(etag) : lastModified.equals(ifModifiedSince)) {
+                synchronized (this) {
+                    notModified++;
+                }
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type",
+                    name.endsWith(".xml") ? "application/xml" : "text/html");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        };
+        server.createContext("/", exchange -> {
+            synchronized (this) {
+                activeRequests++;
+                maxActiveRequests = Math.max(maxActiveRequests, activeRequests);
+            }
+            try {
+                pages.handle(exchange);
+            } finally {
+                synchronized (this) {
+                    activeRequests--;
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    /**
+     * Stop a server started by {@link #startServer} and its threads.
+     */
+    private static void stopServer(HttpServer server) {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    /**
+     * @return the most requests served at once since the last call
+     */
+    private synchronized int takeMaxActiveRequests() {
+        int max = maxActiveRequests;
+        maxActiveRequests = 0;
+        return max;
+    }
+
+    private String feedUrl(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/feed.xml";
+    }
+
+    /**
+     *
+     * Method: parseFeed(List<String> feeds) with concurrent downloads
+     *
+     */
+    @Test
+    public void testParseFeedConcurrent() throws Exception {
+        HttpServer server = startServer(200);
+        try {
+            List<String> local = Collections.singletonList(feedUrl(server));
+
+            Map<String, List<String>> sequential = new IndexBuilder(1).parseFeed(local);
+            int sequentialRequests = takeMaxActiveRequests();
+            Map<String, List<String>> concurrent = new IndexBuilder(4).parseFeed(local);
+            int concurrentRequests = takeMaxActiveRequests();
+
+            // same documents and words whatever the parallelism
+            assertEquals(4, concurrent.size());
+            assertEquals(sequential, concurrent);
+            assertEquals(10, concurrent.get(local.get(0).replace("feed.xml", "page1.html")).size());
+            // one request at a time, then the 200ms downloads of the
+            // articles overlap
+            assertEquals(1, sequentialRequests);
+            assertTrue(concurrentRequests > 1);
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    /**
+     *
+     * Method: buildIndex(Map<String, List<String>> docs) on a local corpus
+     *
+     */
+    @Test
+    public void testBuildIndexDocumentFrequency() throws Exception {
+        Map<String, List<String>> docs = new HashMap<>();
+        docs.put("doc1", new ArrayList<>(Arrays.asList("data", "structures", "data", "trees")));
+        docs.put("doc2", new ArrayList<>(Arrays.asList("data", "lists")));
+        docs.put("doc3", new ArrayList<>(Arrays.asList("trees", "heaps", "heaps")));
+        buildIndexMap = indexBuilder.buildIndex(docs);
+        assertEquals(3, buildIndexMap.size());
+        Map<String, Double> doc1 = buildIndexMap.get("doc1");
+        // sorted by lexicographic order on the term
+        assertEquals(Arrays.asList("data", "structures", "trees"), new ArrayList<>(doc1.keySet()));
+        // "data" appears twice in doc1 and in 2 of the 3 documents
+        assertEquals(2.0 / 4 * Math.log(3.0 / 2), doc1.get("data"), 1e-12);
+        assertEquals(1.0 / 4 * Math.log(3.0), doc1.get("structures"), 1e-12);
+        assertEquals(2.0 / 3 * Math.log(3.0), buildIndexMap.get("doc3").get("heaps"), 1e-12);
+    }
+
+    /**
+     * Build a random corpus of docs documents drawing words from a
+     * vocabulary of vocabulary words.
+     */
+    private Map<String, List<String>> syntheticCorpus(int docs, int vocabulary, long seed) {
+        Random random = new Random(seed);
+        Map<String, List<String>> corpus = new HashMap<>();
+        for (int d = 0; d < docs; d++) {
+            int length = 20 + random.nextInt(80);
+            List<String> words = new ArrayList<>(length);
+            for (int w = 0; w < length; w++) {
+                // skew the draws so some terms are far more frequent
+                int id = (int) (vocabulary * Math.pow(random.nextDouble(), 3));
+                words.add("w" + id);
+            }
+            corpus.put("http://localhost/doc" + d + ".html", words);
+        }
+        return corpus;
+    }
+
+    /**
+     *
+     * Method: buildIndex and buildInvertedIndex with fork-join workers
+     *
+     */
+    @Test
+    public void testParallelIndexMatchesSequential() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(500, 300, 42);
+        IndexBuilder sequential = new IndexBuilder(1);
+        IndexBuilder parallel = new IndexBuilder(4);
+
+        Map<String, Map<String, Double>> index = sequential.buildIndex(docs);
+        assertEquals(index, parallel.buildIndex(docs));
+        // same postings in the same order
+        assertEquals(sequential.buildInvertedIndex(index), parallel.buildInvertedIndex(index));
+    }
+
+    /**
+     *
+     * Method: CompactIndex.build(Map<String, List<String>> docs)
+     *
+     */
+    @Test
+    public void testCompactIndexViews() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(300, 200, 7);
+        Map<String, Map<String, Double>> index = indexBuilder.buildIndex(docs);
+        Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(index);
+        CompactIndex compact = CompactIndex.build(docs);
+
+        // forward index: same documents, terms in the same order, float values
+        Map<String, Map<String, Double>> forward = compact.forwardIndex();
+        assertEquals(index.keySet(), forward.keySet());
+        for (Map.Entry<String, Map<String, Double>> doc : index.entrySet()) {
+            Map<String, Double> view = forward.get(doc.getKey());
+            assertEquals(new ArrayList<>(doc.getValue().keySet()), new ArrayList<>(view.keySet()));
+            for (Map.Entry<String, Double> term : doc.getValue().entrySet()) {
+                assertEquals(term.getValue(), view.get(term.getKey()), 1e-6);
+            }
+        }
+
+        // inverted index: same postings sorted by reverse TF-IDF value
+        // (quantized to 1/65535 of the highest value of the list)
+        Map<String, List<Map.Entry<String, Double>>> inverted = compact.invertedIndex();
+        assertEquals(invertedIndex.size(), inverted.size());
+        for (Map.Entry<?, ?> term : invertedIndex.entrySet()) {
+            List<?> expected = (List<?>) term.getValue();
+            List<Map.Entry<String, Double>> actual = inverted.get(term.getKey());
+            assertEquals(expected.size(), actual.size());
+            Set<String> docsOfTerm = new HashSet<>();
+            for (int i = 0; i < expected.size(); i++) {
+                Map.Entry<?, ?> posting = (Map.Entry<?, ?>) expected.get(i);
+                assertEquals((Double) posting.getValue(), actual.get(i).getValue(), 1e-4);
+                docsOfTerm.add((String) posting.getKey());
+            }
+            assertEquals(docsOfTerm.size(), new HashSet<>(
+                    indexBuilder.searchArticles((String) term.getKey(), inverted)).size());
+            assertTrue(docsOfTerm.containsAll(
+                    indexBuilder.searchArticles((String) term.getKey(), inverted)));
+        }
+        assertEquals(indexBuilder.buildHomePage(invertedIndex).size(),
+                indexBuilder.buildHomePage(inverted).size());
+        assertTrue(inverted.get("not a term") == null);
+    }
+
+    /**
+     *
+     * Method: PostingsList.encode(int[] docs, float[] scores)
+     *
+     */
+    @Test
+    public void testPostingsListRoundTrip() throws Exception {
+        Random random = new Random(3);
+        int n = 1000;
+        int[] docs = new int[n];
+        float[] scores = new float[n];
+        for (int i = 0; i < n; i++) {
+            docs[i] = random.nextInt(100000);
+            // many equal scores, as in short documents
+            scores[i] = random.nextInt(40) / 100f;
+        }
+        CompactIndex.sortPostings(docs, scores);
+
+        PostingsList list = PostingsList.encode(docs, scores);
+        assertEquals(n, list.size());
+        assertEquals(scores[0], list.maxScore(), 0);
+        // far smaller than a SimpleEntry and a Double per posting
+        assertTrue(list.byteSize() < 4 * n);
+
+        PostingsList.Cursor cursor = list.cursor();
+        Set<Integer> expected = new HashSet<>();
+        Set<Integer> actual = new HashSet<>();
+        float previous = Float.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            assertTrue(cursor.next());
+            assertTrue(cursor.score() <= previous);
+            assertEquals(scores[i], cursor.score(), scores[0] / PostingsList.LEVELS);
+            previous = cursor.score();
+            expected.add(docs[i]);
+            actual.add(cursor.doc());
+        }
+        assertFalse(cursor.next());
+        assertEquals(expected, actual);
+
+        // a copy of the bytes decodes the same way
+        int[] decodedDocs = new int[n];
+        float[] decodedScores = new float[n];
+        new PostingsList(list.bytes()).decode(decodedDocs, decodedScores);
+        cursor = list.cursor();
+        for (int i = 0; i < n; i++) {
+            cursor.next();
+            assertEquals(cursor.doc(), decodedDocs[i]);
+        }
+        assertEquals(0, PostingsList.encode(new int[0], new float[0]).size());
+    }
+
+    /**
+     *
+     * Method: saveIndex(Map<?, ?> invertedIndex, String filename) and loadIndex
+     *
+     */
+    @Test
+    public void testSaveAndLoadIndex() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(300, 200, 11);
+        Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs));
+        Path dir = Files.createTempDirectory("index");
+        Path file = dir.resolve("index.bin");
+        try {
+            try {
+                indexBuilder.loadIndex(file.toString());
+                fail("expected a NoSuchFileException");
+            } catch (NoSuchFileException e) {
+                // expected
+            }
+            indexBuilder.saveIndex(invertedIndex, file.toString());
+            Map<?, ?> loaded = indexBuilder.loadIndex(file.toString());
+
+            assertEquals(invertedIndex.keySet(), loaded.keySet());
+            for (Object term : invertedIndex.keySet()) {
+                assertEquals(indexBuilder.searchArticles((String) term, invertedIndex),
+                        indexBuilder.searchArticles((String) term, loaded));
+            }
+            assertEquals(new ArrayList<>(indexBuilder.buildHomePage(invertedIndex)),
+                    new ArrayList<>(indexBuilder.buildHomePage(loaded)));
+            assertTrue(indexBuilder.searchArticles("not a term", loaded).isEmpty());
+
+            // saving again writes a new generation, which is read from then
+            // on; the opened index stays readable
+            Map<String, List<String>> fewer = new HashMap<>(docs);
+            fewer.remove("http://localhost/doc0.html");
+            Map<?, ?> next = indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(fewer));
+            indexBuilder.saveIndex(next, file.toString());
+            assertEquals(invertedIndex.size(), loaded.size());
+            assertEquals(indexBuilder.searchArticles("w1", invertedIndex),
+                    indexBuilder.searchArticles("w1", loaded));
+            assertEquals(indexBuilder.searchArticles("w1", next),
+                    indexBuilder.searchArticles("w1", indexBuilder.loadIndex(file.toString())));
+            Path newest = dir.resolve("index.bin.1");
+            assertTrue(Files.exists(newest));
+
+            Files.write(newest, "not an index".getBytes(StandardCharsets.UTF_8));
+            try {
+                indexBuilder.loadIndex(file.toString());
+                fail("expected an IOException");
+            } catch (IOException e) {
+                // expected
+            }
+
+            // a snapshot cut short is rejected instead of read past its end
+            indexBuilder.saveIndex(invertedIndex, file.toString());
+            newest = dir.resolve("index.bin.2");
+            byte[] bytes = Files.readAllBytes(newest);
+            for (int length : new int[] { 20, bytes.length / 2, bytes.length - 1 }) {
+                Files.write(newest, Arrays.copyOf(bytes, length));
+                try {
+                    indexBuilder.loadIndex(file.toString());
+                    fail("expected an IOException");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+
+            // so is a snapshot whose offsets leave their blobs or go back:
+            // the first document, term and postings offsets
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            int docOffsets = 16;
+            int termOffsets = docOffsets + (header.getInt(8) + 1) * 4;
+            int postOffsets = termOffsets + (header.getInt(12) + 1) * 4;
+            for (int offset : new int[] { docOffsets, termOffsets, postOffsets }) {
+                for (int value : new int[] { -1, Integer.MAX_VALUE }) {
+                    ByteBuffer corrupt = ByteBuffer.wrap(bytes.clone());
+                    corrupt.putInt(offset + 4, value);
+                    Files.write(newest, corrupt.array());
+                    try {
+                        indexBuilder.loadIndex(file.toString());
+                        fail("expected an IOException");
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path path : files) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     *
+     * Method: IncrementalIndex.addDocument, removeDocument and update
+     *
+     */
+    @Test
+    public void testIncrementalIndexMatchesRebuild() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(200, 150, 5);
+        IncrementalIndex incremental = new IncrementalIndex();
+        assertEquals(200, incremental.update(docs));
+        assertEquals(0, incremental.update(docs));
+        // a snapshot is not changed by the updates that follow it
+        Map<String, List<Map.Entry<String, Double>>> before = incremental.snapshot();
+
+        // replace, remove and add a few documents
+        Map<String, List<String>> changed = syntheticCorpus(230, 180, 6);
+        Map<String, List<String>> next = new HashMap<>(docs);
+        for (int d = 0; d < 10; d++) {
+            String url = "http://localhost/doc" + d + ".html";
+            next.put(url, changed.get(url));
+            next.remove("http://localhost/doc" + (100 + d) + ".html");
+            url = "http://localhost/doc" + (200 + d) + ".html";
+            next.put(url, changed.get(url));
+        }
+        assertEquals(30, incremental.update(next));
+        assertTrue(incremental.removeDocument("http://localhost/doc50.html"));
+        assertFalse(incremental.removeDocument("http://localhost/doc50.html"));
+        next.remove("http://localhost/doc50.html");
+        assertEquals(next.keySet(), incremental.documents());
+
+        Map<String, Map<String, Double>> index = indexBuilder.buildIndex(next);
+        assertEquals(index, incremental.forwardIndex());
+        Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(index);
+        assertSameIndex(invertedIndex, incremental.invertedIndex());
+        assertSameIndex(invertedIndex, incremental.snapshot());
+        assertSameIndex(indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs)), before);
+
+        // snapshots taken one after the other keep their own versions
+        Map<String, List<Map.Entry<String, Double>>> after = incremental.snapshot();
+        incremental.update(docs);
+        Map<String, List<Map.Entry<String, Double>>> last = incremental.snapshot();
+        incremental.update(next);
+        assertSameIndex(indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs)), before);
+        assertSameIndex(invertedIndex, after);
+        assertSameIndex(indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs)), last);
+
+        // the read-only copy with int ids
+        CompactIndex compact = incremental.compact();
+        CompactIndex rebuilt = CompactIndex.build(next);
+        assertEquals(rebuilt.forwardIndex(), compact.forwardIndex());
+        assertEquals(rebuilt.invertedIndex().keySet(), compact.invertedIndex().keySet());
+    }
+
+    /**
+     * The same terms with the same values in the same order; documents
+     * with equal values may be listed in another order.
+     */
+    private static void assertSameIndex(Map<?, ?> expected, Map<String, List<Map.Entry<String, Double>>> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<?, ?> term : expected.entrySet()) {
+            List<?> postings = (List<?>) term.getValue();
+            List<Map.Entry<String, Double>> found = actual.get(term.getKey());
+            assertEquals(new HashSet<>(postings), new HashSet<>(found));
+            for (int i = 0; i < postings.size(); i++) {
+                assertEquals(((Map.Entry<?, ?>) postings.get(i)).getValue(), found.get(i).getValue());
+            }
+        }
+    }
+
+    /**
+     *
+     * Method: searchArticles(String queryTerm, Map<?, ?> invertedIndex, int offset, int limit)
+     *
+     */
+    @Test
+    public void testSearchArticlesRanked() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(300, 100, 13);
+        Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs));
+        List<String> all = indexBuilder.searchArticles("w1", invertedIndex);
+        assertTrue(all.size() > 20);
+
+        List<Map.Entry<String, Double>> top = indexBuilder.searchArticles("w1", invertedIndex, 0, 10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(all.get(i), top.get(i).getKey());
+            if (i > 0) {
+                assertTrue(top.get(i - 1).getValue() >= top.get(i).getValue());
+            }
+        }
+        List<Map.Entry<String, Double>> page = indexBuilder.searchArticles("w1", invertedIndex, 10, 5);
+        assertEquals(all.subList(10, 15), Arrays.asList(page.get(0).getKey(), page.get(1).getKey(),
+                page.get(2).getKey(), page.get(3).getKey(), page.get(4).getKey()));
+        assertEquals(3, indexBuilder.searchArticles("w1", invertedIndex, all.size() - 3, 10).size());
+        assertTrue(indexBuilder.searchArticles("w1", invertedIndex, all.size(), 10).isEmpty());
+        assertTrue(indexBuilder.searchArticles("not a term", invertedIndex, 0, 10).isEmpty());
+
+        // same page on the compressed index
+        Map<?, ?> compact = CompactIndex.build(docs).invertedIndex();
+        assertEquals(10, indexBuilder.searchArticles("w1", compact, 0, 10).size());
+    }
+
+    /**
+     *
+     * Method: QueryEngine.search(String query, Mode mode, int k)
+     *
+     */
+    @Test
+    public void testQueryEngineMatchesExhaustiveSearch() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(2000, 400, 17);
+        Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(docs));
+        QueryEngine engine = new QueryEngine(invertedIndex);
+        String[] queries = { "w1 w2", "w3 w40 w7", "w0 w100", "w250 w2 w399", "W5, w5 w6!" };
+        for (String query : queries) {
+            for (QueryEngine.Mode mode : QueryEngine.Mode.values()) {
+                // score every document, adding the values in query order
+                List<String> terms = QueryEngine.terms(query);
+                Map<String, Double> scores = new HashMap<>();
+                Map<String, Integer> matched = new HashMap<>();
+                for (String term : terms) {
+                    List<?> postings = (List<?>) invertedIndex.get(term);
+                    for (Object posting : postings == null ? Collections.emptyList() : postings) {
+                        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) posting;
+                        scores.merge((String) entry.getKey(), (Double) entry.getValue(), Double::sum);
+                        matched.merge((String) entry.getKey(), 1, Integer::sum);
+                    }
+                }
+                List<Double> expected = new ArrayList<>();
+                for (Map.Entry<String, Double> doc : scores.entrySet()) {
+                    if (mode == QueryEngine.Mode.OR || matched.get(doc.getKey()) == terms.size()) {
+                        expected.add(doc.getValue());
+                    }
+                }
+                expected.sort(Collections.reverseOrder());
+                expected = expected.subList(0, Math.min(10, expected.size()));
+
+                List<Map.Entry<String, Double>> top = engine.search(query, mode, 10);
+                List<Double> actual = new ArrayList<>();
+                for (Map.Entry<String, Double> hit : top) {
+                    assertEquals(scores.get(hit.getKey()), hit.getValue());
+                    actual.add(hit.getValue());
+                }
+                assertEquals(query + " " + mode, expected, actual);
+            }
+        }
+        assertTrue(engine.search("w1 nothere", QueryEngine.Mode.AND, 10).isEmpty());
+        assertEquals(10, engine.search("w1 nothere", QueryEngine.Mode.OR, 10).size());
+        assertEquals(Arrays.asList(3, 4, 4, 8),
+                Arrays.asList(QueryEngine.gallop(new int[] { 1, 2, 3, 5, 8, 9, 10, 12 }, 0, 4),
+                        QueryEngine.gallop(new int[] { 1, 2, 3, 5, 8, 9, 10, 12 }, 3, 6),
+                        QueryEngine.gallop(new int[] { 1, 2, 3, 5, 8, 9, 10, 12 }, 4, 8),
+                        QueryEngine.gallop(new int[] { 1, 2, 3, 5, 8, 9, 10, 12 }, 0, 13)));
+    }
+
+    /**
+     *
+     * Method: IndexingPipeline.start, cancel and current
+     *
+     */
+    @Test
+    public void testIndexingPipeline() throws Exception {
+        HttpServer server = startServer(100);
+        try {
+            List<String> local = Collections.singletonList(feedUrl(server));
+            Map<?, ?> expected = indexBuilder.buildInvertedIndex(
+                    indexBuilder.buildIndex(indexBuilder.parseFeed(local)));
+
+            IndexingPipeline pipeline = new IndexingPipeline(indexBuilder, new IncrementalIndex(), null);
+            Map<?, ?> previous = new HashMap<>();
+            pipeline.publish(previous);
+            List<String> stages = Collections.synchronizedList(new ArrayList<>());
+            CompletableFuture<Boolean> finished = new CompletableFuture<>();
+            Future<?> run = pipeline.start(local, new IndexingProgress() {
+                @Override
+                public void progress(Stage stage, int done, int total) {
+                    // the previous index is served until the new one is ready
+                    assertSame(previous, pipeline.current());
+                    stages.add(stage + " " + done + "/" + total);
+                }
+
+                @Override
+                public void finished(boolean published) {
+                    finished.complete(published);
+                }
+            });
+            assertTrue(pipeline.isRunning());
+            try {
+                pipeline.start(local, IndexingProgress.NONE);
+                fail("expected an IllegalStateException");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            run.get(10, TimeUnit.SECONDS);
+            assertTrue(finished.get());
+            // the stages overlap, each one reports in order
+            assertEquals("FEEDS 1/1", stages.get(0));
+            assertEquals(Arrays.asList("ARTICLES 1/4", "ARTICLES 2/4", "ARTICLES 3/4", "ARTICLES 4/4"),
+                    stage(stages, "ARTICLES"));
+            assertEquals(Arrays.asList("INDEX 1/4", "INDEX 2/4", "INDEX 3/4", "INDEX 4/4"),
+                    stage(stages, "INDEX"));
+            assertEquals(expected.keySet(), pipeline.current().keySet());
+            for (Object term : expected.keySet()) {
+                assertEquals(indexBuilder.searchArticles((String) term, expected),
+                        indexBuilder.searchArticles((String) term, pipeline.current()));
+            }
+
+            // a run that changes nothing keeps the published index
+            Map<?, ?> published = pipeline.current();
+            CompletableFuture<Boolean> unchanged = new CompletableFuture<>();
+            pipeline.start(local, new IndexingProgress() {
+                @Override
+                public void progress(Stage stage, int done, int total) {
+                }
+
+                @Override
+                public void finished(boolean published) {
+                    unchanged.complete(published);
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertTrue(unchanged.get());
+            assertSame(published, pipeline.current());
+
+            // a cancelled run publishes nothing
+            CompletableFuture<Boolean> cancelled = new CompletableFuture<>();
+            pipeline.start(Collections.singletonList(feedUrl(server).replace("feed", "missing")),
+                    new IndexingProgress() {
+                        @Override
+                        public void progress(Stage stage, int done, int total) {
+                        }
+
+                        @Override
+                        public void finished(boolean published) {
+                            cancelled.complete(published);
+                        }
+                    });
+            assertTrue(pipeline.cancel());
+            assertFalse(cancelled.get(10, TimeUnit.SECONDS));
+            assertFalse(pipeline.isRunning());
+            Thread.sleep(300);
+            assertSame(published, pipeline.current());
+            pipeline.shutdown();
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    /**
+     *
+     * Method: Tokenizer.tokenize
+     *
+     */
+    @Test
+    public void testTokenizerMatchesRegex() throws Exception {
+        List<String> texts = new ArrayList<>(Arrays.asList("", "   ", "Data Structures",
+                "  Don't  STOP\tme-now!\n\r42 x\u000B\fy", "caf\u00e9 na\u00efve\u00a0bar",
+                "--- ... ?!", "a a a b A B", "tab\u2003space \u0130stanbul"));
+        Random random = new Random(21);
+        String alphabet = "abcXYZ019 \t\n.,'-\u00e9\u00a0";
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(300); i > 0; i--) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            texts.add(text.toString());
+        }
+        for (String text : texts) {
+            // the former regex version, without the empty word it gave for
+            // leading whitespace
+            List<String> expected = new ArrayList<>();
+            for (String word : text.replaceAll("[^a-zA-Z0-9\\s]", "").toLowerCase().split("\\s+")) {
+                if (!word.isEmpty()) {
+                    expected.add(word);
+                }
+            }
+            Tokenizer.Tokens tokens = Tokenizer.tokenize(text);
+            assertEquals(text, expected, tokens);
+            assertEquals(new HashSet<>(expected).size(), tokens.distinct());
+            Map<String, Integer> counts = new HashMap<>();
+            for (String word : expected) {
+                counts.merge(word, 1, Integer::sum);
+            }
+            assertEquals(counts, IndexBuilder.countWords(tokens));
+            assertEquals(counts, IndexBuilder.countWords(new ArrayList<>(tokens)));
+        }
+
+        // repeated words are stored once
+        Tokenizer.Tokens tokens = Tokenizer.tokenize("Tree tree TREE trees");
+        assertSame(tokens.get(0), tokens.get(2));
+        try {
+            tokens.get(4);
+            fail("expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     *
+     * Method: FeedReader.read
+     *
+     */
+    @Test
+    public void testFeedReader() throws Exception {
+        // the sample feed of the course: bare links
+        List<String> links = new ArrayList<>();
+        Path sample = Paths.get("samplefiles", "sample_rss_feed.xml");
+        try (InputStream in = Files.newInputStream(sample)) {
+            FeedReader.read(in, item -> links.add(item.getLink()));
+        }
+        assertEquals(5, links.size());
+        assertEquals("https://www.seas.upenn.edu/~cit5940/page1.html", links.get(0));
+
+        // RSS 2.0: the channel link is not an article
+        String rss = "<?xml version=\"1.0\"?>"
+                + "<rss version=\"2.0\" xmlns:atom=\"http://www.w3.org/2005/Atom\"><channel>"
+                + "<title>News</title><link>http://localhost/</link>"
+                + "<atom:link href=\"http://localhost/feed.xml\" rel=\"self\"/>"
+                + "<image><link>http://localhost/logo</link></image>"
+                + "<item><title><![CDATA[First & best]]></title>"
+                + "<link> http://localhost/a.html </link><description>long text</description>"
+                + "<guid isPermaLink=\"false\">a-1</guid>"
+                + "<pubDate>Mon, 03 Apr 2023 10:00:00 GMT</pubDate></item>"
+                + "<item><title>Only a guid</title><guid>http://localhost/b.html</guid></item>"
+                + "<item><title>No link</title><guid isPermaLink=\"false\">c</guid></item>"
+                + "</channel></rss>";
+        List<FeedReader.Item> items = readFeed(rss);
+        assertEquals(2, items.size());
+        assertEquals("http://localhost/a.html", items.get(0).getLink());
+        assertEquals("First & best", items.get(0).getTitle());
+        assertEquals("a-1", items.get(0).getGuid());
+        assertEquals("Mon, 03 Apr 2023 10:00:00 GMT", items.get(0).getPubDate());
+        assertEquals("http://localhost/b.html", items.get(1).getLink());
+        assertNull(items.get(1).getPubDate());
+
+        // Atom: the alternate link of each entry
+        String atom = "<feed xmlns=\"http://www.w3.org/2005/Atom\"><title>News</title>"
+                + "<link href=\"http://localhost/\"/>"
+                + "<entry><title>One</title>"
+                + "<link rel=\"enclosure\" href=\"http://localhost/1.mp3\"/>"
+                + "<link href=\"http://localhost/1.html\"/><id>urn:1</id>"
+                + "<updated>2023-04-02T00:00:00Z</updated>"
+                + "<published>2023-04-01T00:00:00Z</published></entry>"
+                + "<entry><title>Two</title>"
+                + "<link rel=\"alternate\" href=\"http://localhost/2.html\"/>"
+                + "<updated>2023-04-03T00:00:00Z</updated></entry></feed>";
+        items = readFeed(atom);
+        assertEquals(2, items.size());
+        assertEquals("http://localhost/1.html", items.get(0).getLink());
+        assertEquals("urn:1", items.get(0).getGuid());
+        assertEquals("2023-04-01T00:00:00Z", items.get(0).getPubDate());
+        assertEquals("http://localhost/2.html", items.get(1).getLink());
+        assertEquals("2023-04-03T00:00:00Z", items.get(1).getPubDate());
+
+        // an item is passed on before the rest of the feed is read
+        StringBuilder big = new StringBuilder("<rss><channel>");
+        for (int i = 0; i < 2000; i++) {
+            big.append("<item><link>http://localhost/").append(i).append(".html</link></item>");
+        }
+        byte[] bytes = big.append("</channel></rss>").toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        List<Integer> remaining = new ArrayList<>();
+        FeedReader.read(in, item -> remaining.add(in.available()));
+        assertEquals(2000, remaining.size());
+        assertTrue(remaining.get(0) > bytes.length / 2);
+
+        // not well-formed: the items before the error are passed on
+        items = new ArrayList<>();
+        try {
+            FeedReader.read(new ByteArrayInputStream(
+                    "<rss><item><link>http://localhost/a</link></item><item>&nbsp;</item></rss>"
+                            .getBytes(StandardCharsets.UTF_8)), items::add);
+            fail("expected an XMLStreamException");
+        } catch (XMLStreamException e) {
+            // expected
+        }
+        assertEquals(1, items.size());
+    }
+
+    /**
+     *
+     * Method: fetchItems(String feedUrl, Consumer<FeedReader.Item> items) on a feed that is not well-formed
+     *
+     */
+    @Test
+    public void testFetchItemsMalformed() throws Exception {
+        HttpServer server = startServer(0);
+        Path dir = Files.createTempDirectory("fetchcache");
+        try {
+            String bad = base(server) + "bad.xml";
+            List<String> expected = new ArrayList<>();
+            for (int i = 1; i <= 4; i++) {
+                expected.add(base(server) + "page" + i + ".html");
+            }
+
+            // the body read by StAX is read again by Jsoup, not downloaded again
+            List<String> links = new ArrayList<>();
+            new IndexBuilder(1).fetchItems(bad, item -> links.add(item.getLink()));
+            assertEquals(expected, links);
+            assertEquals(Collections.singletonList("bad.xml"), served);
+
+            // through the cache: one request, and the body read to the end is kept
+            IndexBuilder cached = new IndexBuilder(1, new FetchCache(dir));
+            for (int i = 0; i < 2; i++) {
+                links.clear();
+                cached.fetchItems(bad, item -> links.add(item.getLink()));
+                assertEquals(expected, links);
+            }
+            FetchCache.Stats stats = cached.getCache().stats();
+            assertEquals(2, stats.requests());
+            assertEquals(1, stats.hits());
+            assertEquals(Arrays.asList("bad.xml", "bad.xml", "bad.xml"), served);
+        } finally {
+            stopServer(server);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private List<FeedReader.Item> readFeed(String feed) throws Exception {
+        List<FeedReader.Item> items = new ArrayList<>();
+        FeedReader.read(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)),
+                items::add);
+        return items;
+    }
+
+    private static List<String> stage(List<String> stages, String name) {
+        List<String> res = new ArrayList<>();
+        for (String stage : stages) {
+            if (stage.startsWith(name + " ")) {
+                res.add(stage);
+            }
+        }
+        return res;
+    }
+
+    /**
+     *
+     * Method: CrawlPipeline.run
+     *
+     */
+    @Test
+    public void testCrawlPipelineMatchesBatch() throws Exception {
+        HttpServer server = startServer(100);
+        try {
+            List<String> local = Collections.singletonList(feedUrl(server));
+            IndexBuilder sequential = new IndexBuilder(1);
+            Map<?, ?> expected = indexBuilder.buildInvertedIndex(
+                    indexBuilder.buildIndex(sequential.parseFeed(local)));
+
+            // a document of a previous crawl is removed
+            IncrementalIndex index = new IncrementalIndex();
+            index.addDocument("http://localhost/old.html", Arrays.asList("old", "news"));
+            CrawlPipeline crawl = new CrawlPipeline(sequential, 2, 1);
+            List<String> stages = Collections.synchronizedList(new ArrayList<>());
+            assertEquals(5, crawl.run(local,
+                    index, (stage, done, total) -> stages.add(stage + " " + done + "/" + total)));
+
+            assertEquals(expected.keySet(), index.invertedIndex().keySet());
+            for (Object term : expected.keySet()) {
+                assertEquals(indexBuilder.searchArticles((String) term, expected),
+                        indexBuilder.searchArticles((String) term, index.invertedIndex()));
+            }
+            // the articles are downloaded one at a time, and each one is
+            // indexed while the next one downloads
+            assertEquals(Arrays.asList("ARTICLES 1/4", "ARTICLES 2/4", "ARTICLES 3/4", "ARTICLES 4/4"),
+                    stage(stages, "ARTICLES"));
+            assertEquals(Arrays.asList("INDEX 1/4", "INDEX 2/4", "INDEX 3/4", "INDEX 4/4", "INDEX 5/5"),
+                    stage(stages, "INDEX"));
+            assertTrue(stages.indexOf("INDEX 1/4") < stages.indexOf("ARTICLES 2/4"));
+
+            CrawlPipeline.Metrics metrics = crawl.metrics();
+            for (CrawlPipeline.Step step : CrawlPipeline.Step.values()) {
+                assertEquals(4, metrics.items(step));
+                assertEquals(0, metrics.queueDepth(step));
+                assertTrue(metrics.throughput(step) > 0);
+            }
+            assertTrue(metrics.maxQueueDepth(CrawlPipeline.Step.TOKENIZE) <= 1);
+            assertTrue(metrics.maxQueueDepth(CrawlPipeline.Step.INDEX) <= 1);
+            assertEquals(0, metrics.failed());
+
+            // nothing changed
+            assertEquals(0, crawl.run(local, index, IndexingProgress.NONE));
+        } finally {
+            stopServer(server);
+        }
+    }
+
+    /**
+     *
+     * Method: FetchCache with IndexBuilder and CrawlPipeline
+     *
+     */
+    @Test
+    public void testFetchCache() throws Exception {
+        HttpServer server = startServer(0);
+        Path dir = Files.createTempDirectory("fetchcache");
+        try {
+            List<String> local = Collections.singletonList(feedUrl(server));
+            Map<String, List<String>> expected = new IndexBuilder(1).parseFeed(local);
+            IndexBuilder cached = new IndexBuilder(2, new FetchCache(dir));
+            CrawlPipeline crawl = new CrawlPipeline(cached, 1, 4);
+
+            // first crawl: everything is downloaded and cached
+            IncrementalIndex first = new IncrementalIndex();
+            crawl.run(local, first, IndexingProgress.NONE);
+            FetchCache.Stats stats = crawl.metrics().cache();
+            assertEquals(5, stats.requests());
+            assertEquals(0, stats.hits());
+            assertTrue(stats.bytesDownloaded() > 0);
+            long downloaded = stats.bytesDownloaded();
+
+            // second crawl: nothing changed, nothing is downloaded or parsed
+            IncrementalIndex second = new IncrementalIndex();
+            crawl.run(local, second, IndexingProgress.NONE);
+            stats = crawl.metrics().cache();
+            assertEquals(5, stats.hits());
+            assertEquals(1.0, stats.hitRate(), 1e-9);
+            assertEquals(0, stats.bytesDownloaded());
+            assertEquals(downloaded, stats.bytesSaved());
+            assertEquals(5, notModified);
+            assertEquals(0, crawl.metrics().items(CrawlPipeline.Step.TOKENIZE));
+            assertEquals(4, crawl.metrics().items(CrawlPipeline.Step.INDEX));
+            Map<?, ?> invertedIndex = indexBuilder.buildInvertedIndex(indexBuilder.buildIndex(expected));
+            assertEquals(invertedIndex.keySet(), second.invertedIndex().keySet());
+            for (Object term : invertedIndex.keySet()) {
+                assertEquals(indexBuilder.searchArticles((String) term, invertedIndex),
+                        indexBuilder.searchArticles((String) term, second.invertedIndex()));
+            }
+
+            // a changed page is downloaded again, also by parseFeed
+            changedPages.add("page2.html");
+            FetchCache.Stats before = cached.getCache().stats();
+            Map<String, List<String>> docs = cached.parseFeed(local);
+            stats = cached.getCache().stats().minus(before);
+            assertEquals(new IndexBuilder(1).parseFeed(local), docs);
+            assertTrue(docs.get(base(server) + "page2.html").contains("changed"));
+            assertEquals(5, stats.requests());
+            assertEquals(4, stats.hits());
+
+            // unreadable cache files are downloaded again
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.write(file, new byte[] { 1, 2, 3 });
+                }
+            }
+            before = cached.getCache().stats();
+            assertEquals(docs, cached.parseFeed(local));
+            assertEquals(0, cached.getCache().stats().minus(before).hits());
+            assertEquals(docs, cached.parseFeed(local));
+            assertEquals(5, cached.getCache().stats().minus(before).hits());
+        } finally {
+            stopServer(server);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private String base(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     *
+     * Method: Deduplicator.deduplicate and add
+     *
+     */
+    @Test
+    public void testDeduplicator() throws Exception {
+        Map<String, List<String>> docs = syntheticCorpus(2000, 5000, 25);
+        Random random = new Random(25);
+        // copies get smaller urls, so they become canonical
+        Map<String, String> exactCopies = new HashMap<>();
+        Map<String, String> nearCopies = new HashMap<>();
+        List<String> rewritten = new ArrayList<>();
+        for (int d = 0; d < 300; d++) {
+            String url = "http://localhost/doc" + d + ".html";
+            List<String> words = new ArrayList<>(docs.get(url));
+            String copy = "http://localhost/copy" + d + ".html";
+            if (d < 100) {
+                exactCopies.put(copy, url);
+            } else if (d < 200 && words.size() >= 60) {
+                words.set(random.nextInt(words.size()), "edited");
+                nearCopies.put(copy, url);
+            } else {
+                // a different article on the same topic
+                for (int w = 0; w < words.size(); w++) {
+                    if (random.nextInt(10) < 3) {
+                        words.set(w, "other" + random.nextInt(1000));
+                    }
+                }
+                rewritten.add(copy);
+            }
+            docs.put(copy, words);
+        }
+        // short and empty documents
+        docs.put("http://localhost/short1.html", Arrays.asList("page", "not", "found"));
+        docs.put("http://localhost/short2.html", Arrays.asList("page", "not", "found"));
+        docs.put("http://localhost/empty1.html", Collections.emptyList());
+        docs.put("http://localhost/empty2.html", Collections.emptyList());
+
+        Deduplicator.Result result = Deduplicator.deduplicate(docs);
+        Map<String, List<String>> aliases = result.aliases();
+        for (Map.Entry<String, String> copy : exactCopies.entrySet()) {
+            assertEquals(Collections.singletonList(copy.getValue()), aliases.get(copy.getKey()));
+        }
+        for (Map.Entry<String, String> copy : nearCopies.entrySet()) {
+            assertEquals(Collections.singletonList(copy.getValue()), aliases.get(copy.getKey()));
+        }
+        for (String copy : rewritten) {
+            assertTrue(result.documents().containsKey(copy));
+        }
+        assertEquals(Collections.singletonList("http://localhost/short2.html"),
+                aliases.get("http://localhost/short1.html"));
+        assertTrue(result.documents().containsKey("http://localhost/empty1.html"));
+        assertTrue(result.documents().containsKey("http://localhost/empty2.html"));
+        // no false merges
+        int collapsed = 0;
+        for (Map.Entry<String, List<String>> group : aliases.entrySet()) {
+            for (String alias : group.getValue()) {
+                assertTrue(alias, jaccard(docs.get(group.getKey()), docs.get(alias)) > 0.6);
+                collapsed++;
+            }
+        }
+        assertEquals(docs.size() - collapsed, result.documents().size());
+        assertEquals(exactCopies.size() + nearCopies.size() + 1, collapsed);
+
+        // adding in another order gives the same groups of exact copies
+        List<String> urls = new ArrayList<>(docs.keySet());
+        Collections.shuffle(urls, random);
+        Deduplicator dedup = new Deduplicator();
+        Set<String> canonical = new HashSet<>();
+        for (String url : urls) {
+            Deduplicator.Outcome outcome = dedup.add(url, docs.get(url));
+            if (outcome.getReplaced() != null) {
+                assertTrue(canonical.remove(outcome.getReplaced()));
+            }
+            if (outcome.getCanonical().equals(url)) {
+                canonical.add(url);
+            }
+        }
+        assertEquals(canonical.size(), dedup.size() - dedup.aliases().values().stream()
+                .mapToInt(List::size).sum());
+        Map<String, String> exact = new HashMap<>(exactCopies);
+        exact.put("http://localhost/short1.html", "http://localhost/short2.html");
+        for (Map.Entry<String, String> copy : exact.entrySet()) {
+            assertEquals(copy.getKey(), dedup.canonical(copy.getKey()));
+            assertEquals(copy.getKey(), dedup.canonical(copy.getValue()));
+            assertTrue(canonical.contains(copy.getKey()));
+        }
+        try {
+            dedup.add(urls.get(0), docs.get(urls.get(0)));
+            fail("expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // Jaccard similarity of the 3-word shingles of two documents
+    private static double jaccard(List<String> d1, List<String> d2) {
+        Set<List<String>> s1 = new HashSet<>();
+        for (int i = 0; i + 3 <= d1.size(); i++) {
+            s1.add(d1.subList(i, i + 3));
+        }
+        Set<List<String>> s2 = new HashSet<>();
+        for (int i = 0; i + 3 <= d2.size(); i++) {
+            s2.add(d2.subList(i, i + 3));
+        }
+        Set<List<String>> union = new HashSet<>(s1);
+        union.addAll(s2);
+        s1.retainAll(s2);
+        return union.isEmpty() ? 1 : (double) s1.size() / union.size();
+    }
+
+    /**
+     *
+     * Method: CrawlPipeline.run with the same article under two urls
+     *
+     */
+    @Test
+    public void testCrawlPipelineCollapsesCopies() throws Exception {
+        HttpServer server = startServer(0);
+        try {
+            List<String> dup = Collections.singletonList(base(server) + "dup.xml");
+            Map<String, List<String>> docs = indexBuilder.parseFeed(dup);
+            assertEquals(5, docs.size());
+            Deduplicator.Result result = Deduplicator.deduplicate(docs);
+            assertEquals(4, result.documents().size());
+            Map<?, ?> expected = indexBuilder.buildInvertedIndex(
+                    indexBuilder.buildIndex(result.documents()));
+
+            IncrementalIndex index = new IncrementalIndex();
+            CrawlPipeline crawl = new CrawlPipeline(indexBuilder, 2, 4);
+            crawl.run(dup, index, IndexingProgress.NONE);
+            assertEquals(1, crawl.metrics().duplicates());
+            assertEquals(Collections.singletonMap(base(server) + "page3.html",
+                    Collections.singletonList(base(server) + "page3.html?from=dup")), crawl.aliases());
+            assertEquals(result.aliases(), crawl.aliases());
+            assertEquals(result.documents().keySet(), index.documents());
+            for (Object term : expected.keySet()) {
+                assertEquals(indexBuilder.searchArticles((String) term, expected),
+                        indexBuilder.searchArticles((String) term, index.invertedIndex()));
+            }
+        } finally {
+            stopServer(server);
+        }
+    }
+
+}
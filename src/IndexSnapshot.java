@@ -0,0 +1,372 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index saved in a binary file and read back through a
+ * memory-mapped buffer, so opening it only reads the offset tables, not
+ * the terms or the postings. The file holds a document table, a term
+ * dictionary sorted in lexicographic order and a {@link PostingsList} per
+ * term:
+ *
+ * <pre>
+ * int     magic         0x4E414958 ("NAIX")
+ * int     version       {@link #VERSION}
+ * int     docCount
+ * int     termCount
+ * int[]   docOffsets    docCount + 1 offsets in the document urls
+ * int[]   termOffsets   termCount + 1 offsets in the terms
+ * int[]   postOffsets   termCount + 1 offsets in the postings
+ * byte[]  document urls (UTF-8)
+ * byte[]  terms (UTF-8)
+ * byte[]  postings
+ * </pre>
+ *
+ * The opened snapshot is a read-only map with the same keys and the same
+ * postings order as the inverted index it was written from, so
+ * buildHomePage and searchArticles give the same results on both.
+ *
+ * A mapped file cannot be replaced or deleted on every platform (Windows
+ * refuses while the mapping lives, and Java cannot unmap it), so a file
+ * is never overwritten: each write adds a generation, file.1, file.2...
+ * (the first one is the file itself), and {@link #open} reads the newest.
+ * The older generations are deleted if possible, and else by a later
+ * write.
+ */
+public class IndexSnapshot extends AbstractMap<String, List<Entry<String, Double>>> {
+
+    public static final int MAGIC = 0x4E414958;
+    public static final int VERSION = 1;
+
+    private static final int HEADER = 4 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    // positions of the offset tables and of the blobs in the buffer
+    private final int docOffsets;
+    private final int termOffsets;
+    private final int postOffsets;
+    private final int docStart;
+    private final int termStart;
+    private final int postStart;
+
+    private IndexSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported index snapshot version " + buffer.getInt(4));
+        }
+        this.buffer = buffer;
+        this.docCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        // the offset tables, then the three blobs, must fit in the file
+        long tables = HEADER + ((long) docCount + 2L * termCount + 3) * Integer.BYTES;
+        if (docCount < 0 || termCount < 0 || tables > buffer.limit()) {
+            throw new IOException("Truncated index snapshot");
+        }
+        this.docOffsets = HEADER;
+        this.termOffsets = docOffsets + (docCount + 1) * Integer.BYTES;
+        this.postOffsets = termOffsets + (termCount + 1) * Integer.BYTES;
+        this.docStart = postOffsets + (termCount + 1) * Integer.BYTES;
+        int docBytes = buffer.getInt(docOffsets + docCount * Integer.BYTES);
+        int termBytes = buffer.getInt(termOffsets + termCount * Integer.BYTES);
+        int postBytes = buffer.getInt(postOffsets + termCount * Integer.BYTES);
+        if (docBytes < 0 || termBytes < 0 || postBytes < 0
+                || tables + docBytes + termBytes + postBytes > buffer.limit()) {
+            throw new IOException("Truncated index snapshot");
+        }
+        this.termStart = docStart + docBytes;
+        this.postStart = termStart + termBytes;
+        checkOffsets(docOffsets, docCount);
+        checkOffsets(termOffsets, termCount);
+        checkOffsets(postOffsets, termCount);
+    }
+
+    /**
+     * helper method to check an offset table: it starts at 0 and never
+     * decreases, so with its last offset checked against the file every
+     * lookup stays in its blob.
+     */
+    private void checkOffsets(int table, int count) throws IOException {
+        int previous = 0;
+        for (int i = 0; i <= count; i++) {
+            int offset = buffer.getInt(table + i * Integer.BYTES);
+            if (i == 0 ? offset != 0 : offset < previous) {
+                throw new IOException("Corrupt index snapshot: offset " + offset + " at " + i);
+            }
+            previous = offset;
+        }
+    }
+
+    /**
+     * Write an inverted index to a file.
+     *
+     * @param invertedIndex an inverted index computed by
+     *                      {@link IIndexBuilder#buildInvertedIndex}
+     * @param file          the snapshot file, of which a new generation is
+     *                      written
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Map<?, ?> invertedIndex, Path file) throws IOException {
+        List<String> terms = new ArrayList<>();
+        for (Object term : invertedIndex.keySet()) {
+            terms.add((String) term);
+        }
+        Collections.sort(terms);
+
+        TermDictionary docs = new TermDictionary();
+        ByteArrayOutputStream termBlob = new ByteArrayOutputStream();
+        ByteArrayOutputStream postBlob = new ByteArrayOutputStream();
+        int[] termEnds = new int[terms.size()];
+        int[] postEnds = new int[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            List<?> value = (List<?>) invertedIndex.get(terms.get(t));
+            int[] postDocs = new int[value.size()];
+            float[] postScores = new float[value.size()];
+            int i = 0;
+            for (Object posting : value) {
+                Entry<?, ?> entry = (Entry<?, ?>) posting;
+                postDocs[i] = docs.add((String) entry.getKey());
+                postScores[i++] = ((Double) entry.getValue()).floatValue();
+            }
+            ByteBuffer postings = PostingsList.encode(postDocs, postScores).bytes();
+            postBlob.write(postings.array(), postings.arrayOffset(), postings.limit());
+            termBlob.write(terms.get(t).getBytes(StandardCharsets.UTF_8));
+            termEnds[t] = termBlob.size();
+            postEnds[t] = postBlob.size();
+        }
+        ByteArrayOutputStream docBlob = new ByteArrayOutputStream();
+        int[] docEnds = new int[docs.size()];
+        for (int d = 0; d < docs.size(); d++) {
+            docBlob.write(docs.get(d).getBytes(StandardCharsets.UTF_8));
+            docEnds[d] = docBlob.size();
+        }
+
+        long length = HEADER + (docEnds.length + 2L * termEnds.length + 3) * Integer.BYTES
+                + docBlob.size() + termBlob.size() + postBlob.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Index too large for a snapshot: " + length + " bytes");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER
+                + (docEnds.length + 2 * termEnds.length + 3) * Integer.BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(docEnds.length).putInt(termEnds.length);
+        putOffsets(header, docEnds);
+        putOffsets(header, termEnds);
+        putOffsets(header, postEnds);
+        header.flip();
+
+        // write the next generation under a temporary name and rename it,
+        // so the newest generation is always complete
+        TreeMap<Long, Path> older = generations(file);
+        long generation = older.isEmpty() ? 0 : older.lastKey() + 1;
+        Path next = generation == 0 ? file
+                : file.resolveSibling(file.getFileName() + "." + generation);
+        Path tmp = next.resolveSibling(next.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(docBlob.toByteArray()));
+            writeFully(channel, ByteBuffer.wrap(termBlob.toByteArray()));
+            writeFully(channel, ByteBuffer.wrap(postBlob.toByteArray()));
+        }
+        Files.move(tmp, next, StandardCopyOption.REPLACE_EXISTING);
+        for (Path old : older.values()) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                // still mapped: deleted by a later write
+            }
+        }
+    }
+
+    /**
+     * helper method to find the generations of a snapshot file: the file
+     * itself is generation 0, and file.N is generation N.
+     */
+    private static TreeMap<Long, Path> generations(Path file) throws IOException {
+        TreeMap<Long, Path> res = new TreeMap<>();
+        Path dir = file.toAbsolutePath().getParent();
+        String name = file.getFileName().toString();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path path : files) {
+                String other = path.getFileName().toString();
+                if (other.equals(name)) {
+                    res.put(0L, file);
+                } else if (other.startsWith(name + ".")) {
+                    String suffix = other.substring(name.length() + 1);
+                    if (!suffix.isEmpty() && suffix.length() < 19
+                            && suffix.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                        res.put(Long.parseLong(suffix), file.resolveSibling(other));
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Open a snapshot written by {@link #write}. The file is memory-mapped;
+     * terms, urls and postings are decoded when they are looked up.
+     *
+     * @param file the snapshot file, as given to write
+     * @return the inverted index of its newest generation
+     * @throws NoSuchFileException if no snapshot was written to the file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static IndexSnapshot open(Path file) throws IOException {
+        TreeMap<Long, Path> generations = generations(file);
+        if (generations.isEmpty()) {
+            throw new NoSuchFileException(file.toString());
+        }
+        Path newest = generations.lastEntry().getValue();
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new IndexSnapshot(buffer);
+        }
+    }
+
+    private static void putOffsets(ByteBuffer header, int[] ends) {
+        header.putInt(0);
+        for (int end : ends) {
+            header.putInt(end);
+        }
+    }
+
+    /**
+     * @return the number of documents in the index
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    /**
+     * @param doc a document id
+     * @return the url of the document
+     */
+    public String doc(int doc) {
+        return string(docStart, docOffsets, doc);
+    }
+
+    /**
+     * @param term a term id (rank in lexicographic order)
+     * @return the term
+     */
+    public String term(int term) {
+        return string(termStart, termOffsets, term);
+    }
+
+    /**
+     * @param term a term id (rank in lexicographic order)
+     * @return the postings of the term
+     */
+    public PostingsList postings(int term) {
+        int from = postStart + buffer.getInt(postOffsets + term * Integer.BYTES);
+        int to = postStart + buffer.getInt(postOffsets + (term + 1) * Integer.BYTES);
+        return new PostingsList(buffer.duplicate().position(from).limit(to).slice());
+    }
+
+    /**
+     * @param term a term
+     * @return the id of the term, or -1 if it is not in the index
+     */
+    public int termId(String term) {
+        int lo = 0;
+        int hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = term(mid).compareTo(term);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int start, int offsets, int i) {
+        int from = buffer.getInt(offsets + i * Integer.BYTES);
+        int to = buffer.getInt(offsets + (i + 1) * Integer.BYTES);
+        byte[] bytes = new byte[to - from];
+        buffer.duplicate().position(start + from).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public List<Entry<String, Double>> get(Object key) {
+        int term = key instanceof String ? termId((String) key) : -1;
+        return term < 0 ? null : new PostingsEntries(postings(term), this::doc);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && termId((String) key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return termCount;
+    }
+
+    @Override
+    public Set<Entry<String, List<Entry<String, Double>>>> entrySet() {
+        return new AbstractSet<Entry<String, List<Entry<String, Double>>>>() {
+            @Override
+            public int size() {
+                return termCount;
+            }
+
+            @Override
+            public Iterator<Entry<String, List<Entry<String, Double>>>> iterator() {
+                return new Iterator<Entry<String, List<Entry<String, Double>>>>() {
+                    private int term = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return term < termCount;
+                    }
+
+                    @Override
+                    public Entry<String, List<Entry<String, Double>>> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int current = term++;
+                        return new SimpleImmutableEntry<>(term(current),
+                                new PostingsEntries(postings(current), IndexSnapshot.this::doc));
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Crawls the feeds and updates the inverted index on a background thread,
+ * so a user interface stays responsive while it runs.
+ *
+ * A run crawls the feeds into an {@link IncrementalIndex} with a
+ * {@link CrawlPipeline}, which indexes the articles while the others are
+ * still downloading, and publishes an {@link IncrementalIndex#snapshot()}
+ * of the index with a single swap: until then, {@link #current()} keeps
+ * returning the index of the previous run, so searches never see a
+ * half-built index. A snapshot is a view of the index, not a copy, so
+ * publishing it costs the terms the crawl changed, not the corpus. The
+ * published index is then saved to a file, if one was given. The file is
+ * always rewritten whole, so a run that changed no document publishes and
+ * saves nothing, and the index of the previous run stays current.
+ *
+ * One run at a time: a run can be cancelled, which interrupts its thread;
+ * nothing is published and the previous index stays current.
+ */
+public class IndexingPipeline {
+
+    private final IndexBuilder builder;
+    private final CrawlPipeline crawl;
+    // only changed by the running run
+    private final IncrementalIndex index;
+    // where the published index is saved, or null
+    private final String indexFile;
+    private final AtomicReference<Map<String, List<Entry<String, Double>>>> current =
+            new AtomicReference<>(Collections.emptyMap());
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "indexing");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the index published by the last run that published one, or null
+    private Map<String, List<Entry<String, Double>>> snapshot;
+    // the last run started, and its future
+    private Run last;
+    private Future<?> running;
+
+    /**
+     * @param builder   downloads the feeds and articles
+     * @param index     the index updated by each run
+     * @param indexFile the file the published index is saved to, or null
+     */
+    public IndexingPipeline(IndexBuilder builder, IncrementalIndex index, String indexFile) {
+        if (builder == null || index == null) {
+            throw new IllegalArgumentException("builder and index cannot be null");
+        }
+        this.builder = builder;
+        this.crawl = new CrawlPipeline(builder);
+        this.index = index;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @return the last published inverted index, read-only
+     */
+    public Map<String, List<Entry<String, Double>>> current() {
+        return current.get();
+    }
+
+    /**
+     * Publish an index built elsewhere, e.g. the snapshot of the previous
+     * session loaded at startup.
+     *
+     * @param invertedIndex an inverted index, as computed by
+     *                      {@link IIndexBuilder#buildInvertedIndex}
+     */
+    @SuppressWarnings("unchecked")
+    public void publish(Map<?, ?> invertedIndex) {
+        current.set((Map<String, List<Entry<String, Double>>>) invertedIndex);
+    }
+
+    /**
+     * @return the throughput and queue depths of the current run, or of the
+     *         last one
+     */
+    public CrawlPipeline.Metrics metrics() {
+        return crawl.metrics();
+    }
+
+    /**
+     * @return true if a run is in progress
+     */
+    public synchronized boolean isRunning() {
+        return running != null && !running.isDone();
+    }
+
+    /**
+     * Start a run.
+     *
+     * @param feeds    the rss feeds to crawl
+     * @param progress receives the progress of the run, on its thread
+     * @return the run, done when the index is published or the run stopped
+     * @throws IllegalStateException if a run is in progress
+     */
+    public synchronized Future<?> start(List<String> feeds, IndexingProgress progress) {
+        if (isRunning()) {
+            throw new IllegalStateException("indexing is already running");
+        }
+        last = new Run(feeds, progress);
+        running = runner.submit(last);
+        return running;
+    }
+
+    /**
+     * Cancel the run in progress, if any.
+     *
+     * @return true if a run was cancelled
+     */
+    public boolean cancel() {
+        Run run;
+        synchronized (this) {
+            if (running == null || !running.cancel(true)) {
+                return false;
+            }
+            run = last;
+            run.cancelled = true;
+        }
+        // the run may not have started, or may still be winding down
+        run.finish(false);
+        return true;
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    public void shutdown() {
+        cancel();
+        runner.shutdownNow();
+    }
+
+    /**
+     * A run of the pipeline.
+     */
+    private final class Run implements Runnable {
+        final List<String> feeds;
+        final IndexingProgress progress;
+        // guarded by the pipeline
+        boolean cancelled;
+        boolean finished;
+
+        Run(List<String> feeds, IndexingProgress progress) {
+            this.feeds = feeds;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            boolean published = false;
+            try {
+                int changed;
+                try {
+                    changed = crawl.run(feeds, index, progress);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Map<String, List<Entry<String, Double>>> next;
+                synchronized (IndexingPipeline.this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (changed == 0 && snapshot != null && current.get() == snapshot) {
+                        // the published index is up to date
+                        published = true;
+                        return;
+                    }
+                    next = index.snapshot();
+                    snapshot = next;
+                    current.set(next);
+                }
+                published = true;
+                if (indexFile != null) {
+                    try {
+                        builder.saveIndex(next, indexFile);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } finally {
+                finish(published);
+            }
+        }
+
+        // report the end of the run, once
+        void finish(boolean published) {
+            synchronized (IndexingPipeline.this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            progress.finished(published);
+        }
+    }
+}
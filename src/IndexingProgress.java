@@ -0,0 +1,41 @@
+/**
+ * Receives the progress of an indexing run. The methods are called on the
+ * threads doing the work, not on the Swing event dispatch thread.
+ */
+public interface IndexingProgress {
+
+    /**
+     * The stages of an indexing run. A {@link CrawlPipeline} runs them at
+     * the same time, and the totals of ARTICLES and INDEX grow while the
+     * feeds are read.
+     */
+    enum Stage {
+        // rss feeds downloaded
+        FEEDS,
+        // articles downloaded and split into words
+        ARTICLES,
+        // documents added to, replaced in or removed from the index
+        INDEX
+    }
+
+    // ignores the progress
+    IndexingProgress NONE = (stage, done, total) -> { };
+
+    /**
+     * @param stage the current stage
+     * @param done  the number of items of the stage done so far
+     * @param total the number of items of the stage
+     */
+    void progress(Stage stage, int done, int total);
+
+    /**
+     * Called once at the end of a run.
+     *
+     * @param published true if the new index was published, or if the
+     *                  crawl changed nothing and the index published by
+     *                  the previous run stays current; false if the run
+     *                  was cancelled or failed
+     */
+    default void finished(boolean published) {
+    }
+}
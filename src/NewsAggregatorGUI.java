@@ -5,10 +5,12 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -22,6 +24,7 @@ import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 
 /**
  * @author ericfouh
@@ -42,10 +45,24 @@ public class NewsAggregatorGUI
             "http://rss.cnn.com/rss/cnn_topstories.rss",
             "http://localhost:8090/sample_rss_feed.xml" };
 
-    /**
-     * 
-     */
-    private Map<?, ?>            invIdx;
+    // snapshot of the last inverted index, reopened at startup
+    public static final String   INDEX_FILE   = "index.bin";
+    // feeds and articles of the previous crawls, revalidated on the next
+    public static final String   FETCH_CACHE  = "fetchcache";
+    // words written by createAutocompleteFile, and the same words as a
+    // dictionary that is memory-mapped instead of read
+    public static final String   AUTOCOMPLETE_TXT = "autocomplete.txt";
+    public static final String   AUTOCOMPLETE_FST = "autocomplete.fst";
+    // number of best articles listed by a search
+    public static final int      MAX_RESULTS  = 50;
+
+    // crawls and indexes in the background, and holds the index that
+    // Search and Home Page use until a new one is published
+    private IndexingPipeline     pipeline;
+    // multi-word queries over the index queryIdx, created on the first
+    // search of each published index
+    private QueryEngine          queryEngine;
+    private Map<?, ?>            queryIdx;
     private boolean              autocomplete = false;
 
 
@@ -80,9 +97,62 @@ public class NewsAggregatorGUI
     }
 
 
+    /**
+     * @return the autocomplete dictionary if one was written, else the
+     *         text file
+     */
+    private static String autocompleteFile()
+    {
+        if (new File(AUTOCOMPLETE_FST).isFile())
+        {
+            return AUTOCOMPLETE_FST;
+        }
+        return AUTOCOMPLETE_TXT;
+    }
+
+
+    /**
+     * Write the dictionary of the autocomplete text file.
+     *
+     * @return the dictionary, or the text file if the dictionary could not
+     *         be written
+     */
+    private static String writeDictionary()
+    {
+        File fst = new File(AUTOCOMPLETE_FST);
+        try
+        {
+            FSTDictionary.build(AUTOCOMPLETE_TXT).write(fst.toPath());
+            return AUTOCOMPLETE_FST;
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            ex.printStackTrace();
+            // a stale dictionary must not be loaded instead of the new words
+            fst.delete();
+            return AUTOCOMPLETE_TXT;
+        }
+    }
+
+
     private void initRSSList()
     {
-        idxBuilder = new IndexBuilder();
+        FetchCache cache = null;
+        try
+        {
+            cache = new FetchCache(new File(FETCH_CACHE).toPath());
+        }
+        catch (IOException e)
+        {
+            // download everything
+            e.printStackTrace();
+        }
+        IndexBuilder builder =
+            new IndexBuilder(IndexBuilder.DEFAULT_PARALLELISM, cache);
+        idxBuilder = builder;
+        // documents indexed so far, updated with each new crawl
+        pipeline =
+            new IndexingPipeline(builder, new IncrementalIndex(), INDEX_FILE);
 
         rssBox = new JComboBox(rssUrls);
         rssBox.setSelectedIndex(0);
@@ -144,7 +214,24 @@ public class NewsAggregatorGUI
         btnAutoCplt.setEnabled(false);
         frame.getContentPane().add(btnAutoCplt);
 
-        searchBox = new AutocompletePanel("autocomplete.txt");
+        // reopen the index of the previous session instead of re-crawling
+        try
+        {
+            pipeline.publish(idxBuilder.loadIndex(INDEX_FILE));
+            btnHome.setEnabled(true);
+            btnSearch.setEnabled(true);
+            btnAutoCplt.setEnabled(true);
+        }
+        catch (NoSuchFileException e)
+        {
+            // first session: nothing indexed yet
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+
+        searchBox = new AutocompletePanel(autocompleteFile());
         searchBox.setBounds(0, 135, 350, 130);
         searchBox.setVisible(true);
         frame.getContentPane().add(searchBox);
@@ -178,23 +265,63 @@ public class NewsAggregatorGUI
             }
 
         });
-        // index building
+        // index building, on a background thread; clicking again cancels
         btnIndex.addActionListener(new ActionListener() {
 
             @Override
             public void actionPerformed(ActionEvent e)
             {
+                if (pipeline.isRunning())
+                {
+                    pipeline.cancel();
+                    return;
+                }
                 // Convert listmodel to a List
                 List<String> feeds = new ArrayList<>(listModel.size());
                 for (int i = 0; i < listModel.size(); i++)
                     feeds.add((String)listModel.get(i));
-                Map<String, List<String>> map = idxBuilder.parseFeed(feeds);
-                Map<String, Map<String, Double>> index =
-                    idxBuilder.buildIndex(map);
-                invIdx = idxBuilder.buildInvertedIndex(index);
-                btnHome.setEnabled(true);
-                btnSearch.setEnabled(true);
-                btnAutoCplt.setEnabled(true);
+                btnIndex.setText("Cancel");
+                pipeline.start(feeds, new IndexingProgress() {
+                    @Override
+                    public void progress(Stage stage, int done, int total)
+                    {
+                        SwingUtilities.invokeLater(() -> frame.setTitle(
+                            "Indexing: " + stage.name().toLowerCase() + " "
+                                + done + "/" + total));
+                    }
+
+
+                    @Override
+                    public void finished(boolean published)
+                    {
+                        // a summary of the crawl stays in the title
+                        CrawlPipeline.Metrics metrics = pipeline.metrics();
+                        String summary = String.format(
+                            "Indexed %d articles in %.1f s (%d duplicates, %d failed)",
+                            metrics.items(CrawlPipeline.Step.INDEX),
+                            metrics.elapsedMillis() / 1000.0, metrics.duplicates(),
+                            metrics.failed());
+                        FetchCache.Stats cache = metrics.cache();
+                        if (cache != null)
+                        {
+                            summary += String.format(
+                                ", cache: %d hits, %d misses (%.0f%% hit rate), %d KB saved",
+                                cache.hits(), cache.requests() - cache.hits(),
+                                cache.hitRate() * 100, cache.bytesSaved() / 1024);
+                        }
+                        String title = summary;
+                        SwingUtilities.invokeLater(() -> {
+                            frame.setTitle(published ? title : "Indexing cancelled");
+                            btnIndex.setText("Create Indexes");
+                            if (published)
+                            {
+                                btnHome.setEnabled(true);
+                                btnSearch.setEnabled(true);
+                                btnAutoCplt.setEnabled(true);
+                            }
+                        });
+                    }
+                });
             }
         });
 
@@ -204,8 +331,7 @@ public class NewsAggregatorGUI
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                Map<String, List<Entry<String, Double>>> articles =
-                    (Map<String, List<Entry<String, Double>>>)invIdx;
+                Map<?, ?> invIdx = pipeline.current();
                 Collection<Entry<String, List<String>>> home =
                     (Collection<Entry<String, List<String>>>)idxBuilder
                         .buildHomePage(invIdx);
@@ -230,9 +356,14 @@ public class NewsAggregatorGUI
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                idxBuilder
-                    .createAutocompleteFile(idxBuilder.buildHomePage(invIdx));
-                searchBox = new AutocompletePanel("autocomplete.txt");
+                Map<?, ?> invIdx = pipeline.current();
+                // the files are written off the EDT, and the panel on screen
+                // switches to the new words once loaded
+                searchBox.reload(() -> {
+                    idxBuilder.createAutocompleteFile(
+                        idxBuilder.buildHomePage(invIdx));
+                    return writeDictionary();
+                });
             }
 
         });
@@ -248,14 +379,26 @@ public class NewsAggregatorGUI
                 if (query.length() > 0)
                 {
 
-                    List<String> articles =
-                        idxBuilder.searchArticles(query, invIdx);
+                    Map<?, ?> invIdx = pipeline.current();
+                    if (queryEngine == null || queryIdx != invIdx)
+                    {
+                        queryEngine = new QueryEngine(invIdx);
+                        queryIdx = invIdx;
+                    }
+                    // articles with all the words, else with any of them
+                    List<Entry<String, Double>> articles = queryEngine
+                        .search(query, QueryEngine.Mode.AND, MAX_RESULTS);
+                    if (articles.isEmpty())
+                    {
+                        articles = queryEngine
+                            .search(query, QueryEngine.Mode.OR, MAX_RESULTS);
+                    }
                     if (articles != null && articles.size() > 0)
                     {
                         articlesList.clear();
                         articlesList.addElement(query);
-                        for (String url : articles)
-                            articlesList.addElement("\t\t" + url);
+                        for (Entry<String, Double> article : articles)
+                            articlesList.addElement("\t\t" + article.getKey());
                     }
                 }
             }
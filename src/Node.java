@@ -1,13 +1,33 @@
+import java.util.Arrays;
+
 /**
  * @author Harry Smith
  */
 
 public class Node {
 
+    // most nodes have few children: up to SMALL_MAX of them are kept in
+    // arrays sorted by label
+    static final int SMALL_MAX = 16;
+    // above that, a dense table indexed by (label - base) is used when the
+    // labels span at most DENSE_SPAN slots per child
+    static final int DENSE_SPAN = 4;
+
+    private static final Term[] NO_TERMS = new Term[0];
+
     private Term term;
     private int words;
     private int prefixes;
+    // sorted labels of the children, or null with a dense table
+    private char[] labels;
+    // children, parallel to labels, or the dense table
     private Node[] references;
+    // number of children
+    private int children;
+    // label of references[0] in a dense table
+    private char base;
+    // the heaviest terms of the subtrie, heaviest first (at most k)
+    private Term[] topTerms;
 
     /**
      * Initialize a Node with an empty string and 0 weight; useful for
@@ -17,7 +37,7 @@ public class Node {
         this.term = new Term("", 0);
         this.words = 0;
         this.prefixes = 0;
-        this.references = new Node[26];
+        this.topTerms = NO_TERMS;
     }
 
     /**
@@ -34,7 +54,7 @@ public class Node {
         this.term = new Term(query, weight);
         this.words = 0;
         this.prefixes = 0;
-        this.references = new Node[26];
+        this.topTerms = NO_TERMS;
     }
 
     public Term getTerm() {
@@ -61,11 +81,178 @@ public class Node {
         this.prefixes = prefixes;
     }
 
+    /**
+     * @param label a character
+     * @return the child for the character, or null
+     */
+    public Node getChild(char label) {
+        if (labels != null) {
+            int i = Arrays.binarySearch(labels, 0, children, label);
+            return i >= 0 ? references[i] : null;
+        }
+        if (references == null) {
+            return null;
+        }
+        int i = label - base;
+        return i >= 0 && i < references.length ? references[i] : null;
+    }
+
+    /**
+     * Set the child for a character, replacing the existing one.
+     *
+     * @param label a character
+     * @param child the child node, not null
+     */
+    public void setChild(char label, Node child) {
+        if (child == null) {
+            throw new IllegalArgumentException("child cannot be null");
+        }
+        if (references == null) {
+            labels = new char[2];
+            references = new Node[2];
+        }
+        if (labels == null) {
+            int i = label - base;
+            if (i >= 0 && i < references.length) {
+                if (references[i] == null) {
+                    children++;
+                }
+                references[i] = child;
+                return;
+            }
+            // out of the table: fall back to sorted arrays
+            toSorted();
+        }
+        int i = Arrays.binarySearch(labels, 0, children, label);
+        if (i >= 0) {
+            references[i] = child;
+            return;
+        }
+        i = -i - 1;
+        if (children == labels.length) {
+            labels = Arrays.copyOf(labels, children * 2);
+            references = Arrays.copyOf(references, children * 2);
+        }
+        System.arraycopy(labels, i, labels, i + 1, children - i);
+        System.arraycopy(references, i, references, i + 1, children - i);
+        labels[i] = label;
+        references[i] = child;
+        children++;
+        if (children > SMALL_MAX) {
+            toDense();
+        }
+    }
+
+    /**
+     * helper method to switch from sorted arrays to a dense table, if the
+     * labels are close enough.
+     */
+    private void toDense() {
+        int span = labels[children - 1] - labels[0] + 1;
+        if (span > DENSE_SPAN * children) {
+            return;
+        }
+        Node[] table = new Node[span];
+        for (int i = 0; i < children; i++) {
+            table[labels[i] - labels[0]] = references[i];
+        }
+        base = labels[0];
+        labels = null;
+        references = table;
+    }
+
+    /**
+     * helper method to switch from a dense table to sorted arrays.
+     */
+    private void toSorted() {
+        char[] sortedLabels = new char[children * 2];
+        Node[] sortedReferences = new Node[children * 2];
+        int n = 0;
+        for (int i = 0; i < references.length; i++) {
+            if (references[i] != null) {
+                sortedLabels[n] = (char) (base + i);
+                sortedReferences[n++] = references[i];
+            }
+        }
+        labels = sortedLabels;
+        references = sortedReferences;
+    }
+
+    /**
+     * @return the number of children
+     */
+    public int getChildCount() {
+        return children;
+    }
+
+    /**
+     * @return a copy of the children, in the order of their characters:
+     *         changing the array does not change the node (use setChild or
+     *         setReferences)
+     */
     public Node[] getReferences() {
-        return references;
+        Node[] res = new Node[children];
+        if (labels != null) {
+            System.arraycopy(references, 0, res, 0, children);
+        } else if (references != null) {
+            int n = 0;
+            for (Node child : references) {
+                if (child != null) {
+                    res[n++] = child;
+                }
+            }
+        }
+        return res;
     }
 
+    /**
+     * Replace the children, as with the 26-letter array the trie used to
+     * have: references[i], if not null, becomes the child for the letter
+     * 'a' + i, and the other children are removed. The array is copied, so
+     * changing it afterwards does not change the node.
+     *
+     * @param references the children by letter, at most 26 of them
+     * @throws IllegalArgumentException if references is null or has more
+     *                                  than 26 slots
+     */
     public void setReferences(Node[] references) {
-        this.references = references;
+        if (references == null || references.length > 26) {
+            throw new IllegalArgumentException("references must have at most 26 slots");
+        }
+        this.labels = null;
+        this.references = null;
+        this.children = 0;
+        for (int i = 0; i < references.length; i++) {
+            if (references[i] != null) {
+                setChild((char) ('a' + i), references[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the characters of the children, in the order of
+     *         getReferences
+     */
+    public char[] getLabels() {
+        char[] res = new char[children];
+        if (labels != null) {
+            System.arraycopy(labels, 0, res, 0, children);
+        } else if (references != null) {
+            int n = 0;
+            for (int i = 0; i < references.length; i++) {
+                if (references[i] != null) {
+                    res[n++] = (char) (base + i);
+                }
+            }
+        }
+        return res;
+    }
+
+    public Term[] getTopTerms() {
+        return topTerms;
+    }
+
+    public void setTopTerms(Term[] topTerms) {
+        this.topTerms = topTerms;
     }
 }
@@ -0,0 +1,65 @@
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link PostingsList} seen as the list of (document, TF-IDF value)
+ * entries built by {@link IIndexBuilder#buildInvertedIndex}. Iterating
+ * decodes the postings one at a time; random access decodes the whole list
+ * once.
+ */
+class PostingsEntries extends AbstractList<Entry<String, Double>> {
+
+    private final PostingsList list;
+    // document id -> document url
+    private final IntFunction<String> docs;
+    private int[] decodedDocs;
+    private float[] decodedScores;
+
+    PostingsEntries(PostingsList list, IntFunction<String> docs) {
+        this.list = list;
+        this.docs = docs;
+    }
+
+    @Override
+    public Entry<String, Double> get(int i) {
+        if (i < 0 || i >= list.size()) {
+            throw new IndexOutOfBoundsException("Index: " + i);
+        }
+        if (decodedDocs == null) {
+            decodedDocs = new int[list.size()];
+            decodedScores = new float[list.size()];
+            list.decode(decodedDocs, decodedScores);
+        }
+        return new AbstractMap.SimpleImmutableEntry<>(docs.apply(decodedDocs[i]),
+                (double) decodedScores[i]);
+    }
+
+    @Override
+    public Iterator<Entry<String, Double>> iterator() {
+        PostingsList.Cursor cursor = list.cursor();
+        return new Iterator<Entry<String, Double>>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.remaining() > 0;
+            }
+
+            @Override
+            public Entry<String, Double> next() {
+                if (!cursor.next()) {
+                    throw new NoSuchElementException();
+                }
+                return new AbstractMap.SimpleImmutableEntry<>(docs.apply(cursor.doc()),
+                        (double) cursor.score());
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return list.size();
+    }
+}
@@ -0,0 +1,234 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A compressed postings list: the documents of a term with their TF-IDF
+ * values, by reverse TF-IDF value.
+ *
+ * Scores are quantized to {@link #LEVELS} levels of the highest score of
+ * the list. Postings with the same quantized score form a run whose
+ * document ids are delta-encoded in list order (zig-zag, so the order of
+ * the input is kept exactly), and every number is written as a
+ * variable-byte integer (7 bits per byte, high bit set on all bytes but
+ * the last):
+ *
+ * <pre>
+ * size        varint  number of postings
+ * maxScore    float   highest TF-IDF value of the list
+ * runs        for each run, highest score first:
+ *   drop      varint  previous level - level of the run (first: LEVELS - level)
+ *   length    varint  number of postings in the run
+ *   gaps      varint  zig-zag of doc id - previous doc id (first: doc id)
+ * </pre>
+ *
+ * A {@link Cursor} decodes the postings one at a time, so a caller that
+ * only needs the first results never decodes the rest of the list.
+ */
+public final class PostingsList {
+
+    // number of quantization levels of the scores
+    public static final int LEVELS = 65535;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final float maxScore;
+    // position of the first run
+    private final int start;
+
+    /**
+     * Wrap an encoded list, e.g. a slice of a memory-mapped file.
+     *
+     * @param buffer the bytes written by {@link #encode}, from position 0
+     */
+    public PostingsList(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int[] pos = { 0 };
+        this.size = readVarint(buffer, pos);
+        this.maxScore = buffer.getFloat(pos[0]);
+        this.start = pos[0] + Float.BYTES;
+    }
+
+    /**
+     * Encode postings.
+     *
+     * @param docs   document ids, sorted by reverse score
+     * @param scores the TF-IDF values matching docs (never negative)
+     * @return the compressed list
+     */
+    public static PostingsList encode(int[] docs, float[] scores) {
+        int n = docs.length;
+        float max = n == 0 ? 0f : scores[0];
+        // at most 5 bytes per varint: size, and drop + length + gap per posting
+        ByteBuffer out = ByteBuffer.allocate(5 + Float.BYTES + 15 * n);
+        int[] pos = { 0 };
+        writeVarint(out, pos, n);
+        out.putFloat(pos[0], max);
+        pos[0] += Float.BYTES;
+
+        int previous = LEVELS;
+        int i = 0;
+        while (i < n) {
+            int level = quantize(scores[i], max);
+            int end = i + 1;
+            while (end < n && quantize(scores[end], max) == level) {
+                end++;
+            }
+            writeVarint(out, pos, previous - level);
+            writeVarint(out, pos, end - i);
+            int last = 0;
+            for (int j = i; j < end; j++) {
+                int gap = docs[j] - last;
+                writeVarint(out, pos, (gap << 1) ^ (gap >> 31));
+                last = docs[j];
+            }
+            previous = level;
+            i = end;
+        }
+        return new PostingsList(ByteBuffer.wrap(Arrays.copyOf(out.array(), pos[0])));
+    }
+
+    /**
+     * @return the number of postings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the highest TF-IDF value of the list (exact)
+     */
+    public float maxScore() {
+        return maxScore;
+    }
+
+    /**
+     * @return the number of bytes of the encoded list
+     */
+    public int byteSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * @return the encoded list, from position 0 to its limit
+     */
+    public ByteBuffer bytes() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * @return a cursor positioned before the first posting
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Decode the whole list.
+     *
+     * @param docs   receives the document ids (length at least size())
+     * @param scores receives the dequantized scores (length at least size())
+     */
+    public void decode(int[] docs, float[] scores) {
+        Cursor cursor = cursor();
+        for (int i = 0; cursor.next(); i++) {
+            docs[i] = cursor.doc();
+            scores[i] = cursor.score();
+        }
+    }
+
+    /**
+     * Walks the postings in order, decoding them one at a time.
+     */
+    public final class Cursor {
+
+        private final int[] pos = { start };
+        private int remaining = size;
+        private int inRun = 0;
+        private int level = LEVELS;
+        private int doc = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the next posting.
+         *
+         * @return false if there is no more posting
+         */
+        public boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            if (inRun == 0) {
+                level -= readVarint(buffer, pos);
+                inRun = readVarint(buffer, pos);
+                doc = 0;
+            }
+            int zigzag = readVarint(buffer, pos);
+            doc += (zigzag >>> 1) ^ -(zigzag & 1);
+            inRun--;
+            remaining--;
+            return true;
+        }
+
+        /**
+         * @return the document id of the current posting
+         */
+        public int doc() {
+            if (doc < 0) {
+                throw new NoSuchElementException("next() was not called");
+            }
+            return doc;
+        }
+
+        /**
+         * @return the (quantized) TF-IDF value of the current posting
+         */
+        public float score() {
+            return dequantize(level, maxScore);
+        }
+
+        /**
+         * @return an upper bound of the scores of this posting and of all
+         *         the postings after it
+         */
+        public float bound() {
+            return remaining == size ? maxScore : dequantize(level, maxScore);
+        }
+
+        /**
+         * @return the number of postings after the current one
+         */
+        public int remaining() {
+            return remaining;
+        }
+    }
+
+    static int quantize(float score, float max) {
+        return max <= 0f ? 0 : Math.round(score / max * LEVELS);
+    }
+
+    static float dequantize(int level, float max) {
+        return level == LEVELS ? max : level * max / LEVELS;
+    }
+
+    private static void writeVarint(ByteBuffer out, int[] pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put(pos[0]++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put(pos[0]++, (byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in, int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+
+/**
+ * Multi-term queries over an inverted index computed by
+ * {@link IIndexBuilder#buildInvertedIndex} (or any of its views).
+ * Documents are ranked by the sum of the TF-IDF values of the query terms
+ * they contain.
+ *
+ * The postings of a term are copied once, the first time the term is
+ * queried, into arrays sorted by document id. AND queries intersect them
+ * from the shortest list, galloping through the others; OR queries use
+ * WAND: a document is only scored when the highest TF-IDF values of its
+ * terms could add up to more than the k-th best score found so far.
+ */
+public class QueryEngine {
+
+    /**
+     * How the terms of a query are combined.
+     */
+    public enum Mode {
+        // documents containing every term
+        AND,
+        // documents containing at least one term
+        OR
+    }
+
+    private final Map<?, ?> invertedIndex;
+    private final TermDictionary docs = new TermDictionary();
+    private final Map<String, TermPostings> cache = new HashMap<>();
+
+    /**
+     * The postings of a term sorted by document id.
+     */
+    private static final class TermPostings {
+        final int[] docs;
+        final double[] scores;
+        // highest TF-IDF value of the term
+        final double max;
+
+        TermPostings(int[] docs, double[] scores, double max) {
+            this.docs = docs;
+            this.scores = scores;
+            this.max = max;
+        }
+    }
+
+    /**
+     * @param invertedIndex the inverted index to search
+     */
+    public QueryEngine(Map<?, ?> invertedIndex) {
+        this.invertedIndex = invertedIndex;
+    }
+
+    /**
+     * @param query words separated by spaces
+     * @return the distinct terms of the query, normalized like the words of
+     *         the articles
+     */
+    public static List<String> terms(String query) {
+        return new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+    }
+
+    /**
+     * @param query words separated by spaces
+     * @param mode  AND to return the documents containing every word, OR
+     *              for the documents containing any of them
+     * @param k     the maximum number of documents to return
+     * @return the k best documents and their scores (sum of the TF-IDF
+     *         values of the query terms), best first; ties are listed in
+     *         the order the documents were first seen
+     */
+    public synchronized List<Entry<String, Double>> search(String query, Mode mode, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        List<TermPostings> lists = new ArrayList<>();
+        for (String term : terms(query)) {
+            TermPostings list = postings(term);
+            if (list == null) {
+                if (mode == Mode.AND) {
+                    return new ArrayList<>();
+                }
+            } else {
+                lists.add(list);
+            }
+        }
+        if (lists.isEmpty() || k == 0) {
+            return new ArrayList<>();
+        }
+        TopK top = new TopK(k);
+        if (mode == Mode.AND) {
+            intersect(lists, top);
+        } else {
+            wand(lists, top);
+        }
+        List<Entry<String, Double>> res = new ArrayList<>();
+        for (long[] hit : top.sorted()) {
+            res.add(new AbstractMap.SimpleEntry<>(docs.get((int) hit[0]),
+                    Double.longBitsToDouble(hit[1])));
+        }
+        return res;
+    }
+
+    /**
+     * helper method to get the postings of a term sorted by document id.
+     */
+    private TermPostings postings(String term) {
+        if (cache.containsKey(term)) {
+            return cache.get(term);
+        }
+        List<?> value = (List<?>) invertedIndex.get(term);
+        TermPostings list = null;
+        if (value != null && !value.isEmpty()) {
+            long[] keys = new long[value.size()];
+            double[] byPosition = new double[value.size()];
+            int i = 0;
+            double max = 0;
+            for (Object posting : value) {
+                Entry<?, ?> entry = (Entry<?, ?>) posting;
+                keys[i] = ((long) docs.add((String) entry.getKey()) << 32) | i;
+                byPosition[i] = (Double) entry.getValue();
+                max = Math.max(max, byPosition[i++]);
+            }
+            Arrays.sort(keys);
+            int[] ids = new int[keys.length];
+            double[] scores = new double[keys.length];
+            for (i = 0; i < keys.length; i++) {
+                ids[i] = (int) (keys[i] >>> 32);
+                scores[i] = byPosition[(int) keys[i]];
+            }
+            list = new TermPostings(ids, scores, max);
+        }
+        cache.put(term, list);
+        return list;
+    }
+
+    /**
+     * helper method for AND queries: walk the shortest list and gallop to
+     * each of its documents in the other lists.
+     */
+    private static void intersect(List<TermPostings> lists, TopK top) {
+        List<TermPostings> byLength = new ArrayList<>(lists);
+        byLength.sort(Comparator.comparingInt(list -> list.docs.length));
+        TermPostings shortest = byLength.get(0);
+        // highest total the other lists can add
+        double othersMax = 0;
+        for (int j = 1; j < byLength.size(); j++) {
+            othersMax += byLength.get(j).max;
+        }
+        int[] pos = new int[byLength.size()];
+        next:
+        for (int i = 0; i < shortest.docs.length; i++) {
+            int doc = shortest.docs[i];
+            if (shortest.scores[i] + othersMax < top.threshold()) {
+                continue;
+            }
+            for (int j = 1; j < byLength.size(); j++) {
+                int[] other = byLength.get(j).docs;
+                pos[j] = gallop(other, pos[j], doc);
+                if (pos[j] == other.length) {
+                    return;
+                }
+                if (other[pos[j]] != doc) {
+                    continue next;
+                }
+            }
+            // add the scores in query order so equal documents get equal sums
+            double score = 0;
+            for (TermPostings list : lists) {
+                int j = byLength.indexOf(list);
+                score += j == 0 ? shortest.scores[i] : list.scores[pos[j]];
+            }
+            top.offer(doc, score);
+        }
+    }
+
+    /**
+     * helper method for OR queries (WAND). The cursors are kept sorted by
+     * their current document; the pivot is the first cursor at which the
+     * highest values of the cursors before it could beat the threshold.
+     * Documents before the pivot cannot enter the top k and are skipped.
+     */
+    private static void wand(List<TermPostings> lists, TopK top) {
+        int n = lists.size();
+        int[] pos = new int[n];
+        Integer[] order = new Integer[n];
+        for (int j = 0; j < n; j++) {
+            order[j] = j;
+        }
+        while (true) {
+            Arrays.sort(order, Comparator.comparingInt(j -> current(lists.get(j), pos[j])));
+            double bound = 0;
+            int pivot = -1;
+            for (int p = 0; p < n; p++) {
+                int j = order[p];
+                if (current(lists.get(j), pos[j]) == Integer.MAX_VALUE) {
+                    break;
+                }
+                bound += lists.get(j).max;
+                if (bound >= top.threshold()) {
+                    pivot = p;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                return;
+            }
+            int pivotDoc = current(lists.get(order[pivot]), pos[order[pivot]]);
+            if (current(lists.get(order[0]), pos[order[0]]) == pivotDoc) {
+                // every cursor up to the pivot is on pivotDoc: score it
+                double score = 0;
+                for (int j = 0; j < n; j++) {
+                    if (current(lists.get(j), pos[j]) == pivotDoc) {
+                        score += lists.get(j).scores[pos[j]++];
+                    }
+                }
+                top.offer(pivotDoc, score);
+            } else {
+                // skip the cursors before the pivot to pivotDoc
+                for (int p = 0; p < pivot; p++) {
+                    int j = order[p];
+                    pos[j] = gallop(lists.get(j).docs, pos[j], pivotDoc);
+                }
+            }
+        }
+    }
+
+    // document at the position of a cursor, MAX_VALUE when it is exhausted
+    private static int current(TermPostings list, int pos) {
+        return pos < list.docs.length ? list.docs[pos] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * helper method to find the first position at or after from whose
+     * document is at least target: doubling steps, then a binary search.
+     */
+    static int gallop(int[] docs, int from, int target) {
+        int step = 1;
+        int hi = from;
+        while (hi < docs.length && docs[hi] < target) {
+            from = hi + 1;
+            hi += step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, docs.length);
+        // docs[from - 1] < target, docs[hi] >= target (or hi is the end)
+        while (from < hi) {
+            int mid = (from + hi) >>> 1;
+            if (docs[mid] < target) {
+                from = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * The k best (document, score) pairs, in a min-heap on the score with
+     * ties broken by document id (a later document ranks lower).
+     */
+    private static final class TopK {
+        private final int k;
+        // {doc, bits of the score}
+        private final PriorityQueue<long[]> heap;
+
+        TopK(int k) {
+            this.k = k;
+            this.heap = new PriorityQueue<>(k, TopK::worstFirst);
+        }
+
+        private static int worstFirst(long[] a, long[] b) {
+            int cmp = Double.compare(Double.longBitsToDouble(a[1]), Double.longBitsToDouble(b[1]));
+            return cmp != 0 ? cmp : Long.compare(b[0], a[0]);
+        }
+
+        // score a document must beat to enter, -1 while the heap is not full
+        double threshold() {
+            return heap.size() < k ? -1 : Double.longBitsToDouble(heap.peek()[1]);
+        }
+
+        // documents are offered by increasing id, so equal scores do not enter
+        void offer(int doc, double score) {
+            if (score > threshold()) {
+                heap.add(new long[] { doc, Double.doubleToLongBits(score) });
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+            }
+        }
+
+        List<long[]> sorted() {
+            List<long[]> res = new ArrayList<>(heap);
+            res.sort((a, b) -> worstFirst(b, a));
+            return res;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Looks up the suggestions of a search box on a background thread, so the
+ * thread handling the keystrokes (the Swing event dispatch thread) only
+ * schedules the lookup and shows its result.
+ *
+ * Requests are debounced: a lookup starts after the text has not changed
+ * for the given delay, and a new request cancels the one still waiting.
+ * Each request gets a sequence number, and a result is only published if
+ * no newer request was made in the meantime, so the box never shows the
+ * suggestions of a stale prefix, even if a lookup already running
+ * finishes late.
+ */
+public class SuggestionWorker {
+
+    public static final long DEFAULT_DELAY_MILLIS = 40;
+
+    private final IAutocomplete auto;
+    private final long delayMillis;
+    // runs the callbacks, e.g. SwingUtilities::invokeLater
+    private final Executor publisher;
+    private final ScheduledExecutorService scheduler;
+    // sequence number of the latest request
+    private final AtomicLong latest = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private ScheduledFuture<?> pending;
+
+    /**
+     * @param auto        the dictionary
+     * @param delayMillis how long the text must stay the same before it is
+     *                    looked up
+     * @param publisher   runs the callbacks with the results
+     */
+    public SuggestionWorker(IAutocomplete auto, long delayMillis, Executor publisher) {
+        if (auto == null || publisher == null) {
+            throw new IllegalArgumentException("dictionary and publisher cannot be null");
+        }
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delay cannot be negative");
+        }
+        this.auto = auto;
+        this.delayMillis = delayMillis;
+        this.publisher = publisher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "autocomplete-suggestions");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Look up the suggestions of a text, once it stops changing.
+     *
+     * @param text     the text typed so far
+     * @param callback receives the suggestions on the publisher, unless a
+     *                 newer request was made
+     */
+    public synchronized void request(String text, Consumer<List<ITerm>> callback) {
+        long seq = latest.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = scheduler.schedule(() -> lookup(seq, text, callback),
+                delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop the pending request and the results of the running one, e.g.
+     * when the text is cleared.
+     */
+    public synchronized void cancel() {
+        latest.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    public void shutdown() {
+        cancel();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the number of lookups run on the dictionary
+     */
+    public long lookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return the number of results passed to a callback
+     */
+    public long published() {
+        return published.get();
+    }
+
+    /**
+     * The suggestions of a text: its top suggestions, which the dictionary
+     * already keeps sorted, or close spellings if nothing starts with it,
+     * allowing a second typo in longer words.
+     *
+     * @param text the text typed so far
+     * @return the suggestions
+     */
+    public List<ITerm> suggestions(String text) {
+        List<ITerm> matches = auto.topSuggestions(text);
+        if (matches.isEmpty()) {
+            matches = auto.fuzzySuggestions(text, text.length() > 4 ? 2 : 1);
+        }
+        return matches;
+    }
+
+    private void lookup(long seq, String text, Consumer<List<ITerm>> callback) {
+        if (seq != latest.get()) {
+            return;
+        }
+        lookups.incrementAndGet();
+        List<ITerm> matches = suggestions(text);
+        if (seq != latest.get()) {
+            return;
+        }
+        publisher.execute(() -> {
+            // a newer request may have come while this one was queued
+            if (seq == latest.get()) {
+                published.incrementAndGet();
+                callback.accept(matches);
+            }
+        });
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An {@link IAutocomplete} whose dictionary can be replaced while it is
+ * being read (read-copy-update).
+ *
+ * The current dictionary is held in an atomic reference. Each lookup reads
+ * the reference once and runs entirely on that version, without locking.
+ * A rebuild loads a new dictionary on the calling thread, which is never
+ * modified after it is published, and publishes it with a single swap:
+ * lookups already running finish on the old version, later ones see the
+ * new one. Writers (buildTrie, addWord, addWords, swap) are serialized.
+ */
+public class SwappableAutocomplete implements IAutocomplete {
+
+    private final AtomicReference<IAutocomplete> current =
+            new AtomicReference<>(new Autocomplete());
+    // number of dictionaries published so far
+    private volatile long version;
+
+    /**
+     * @return the dictionary currently answering lookups; it must not be
+     *         modified
+     */
+    public IAutocomplete current() {
+        return current.get();
+    }
+
+    /**
+     * @return the number of dictionaries published since this object was
+     *         created
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Publish a new dictionary.
+     *
+     * @param next a dictionary that will not be modified anymore
+     * @return the previous dictionary
+     */
+    public synchronized IAutocomplete swap(IAutocomplete next) {
+        if (next == null) {
+            throw new IllegalArgumentException("dictionary cannot be null");
+        }
+        IAutocomplete previous = current.getAndSet(next);
+        version++;
+        return previous;
+    }
+
+    /**
+     * Copy the current dictionary with the word added, and publish the
+     * copy. This copies every word, so several words should be added
+     * together with addWords, and bulk changes should go through buildTrie.
+     */
+    @Override
+    public void addWord(String word, long weight) {
+        addWords(Collections.singletonMap(word, weight));
+    }
+
+    /**
+     * Copy the current dictionary with the words added, and publish the
+     * copy in a single swap. An {@link Autocomplete} trie is copied with its
+     * prefix counts; the other dictionaries count each word once, and are
+     * copied word by word.
+     *
+     * @param words the words to add and their weights
+     */
+    public synchronized void addWords(Map<String, Long> words) {
+        IAutocomplete previous = current.get();
+        Autocomplete next;
+        if (previous instanceof Autocomplete) {
+            next = ((Autocomplete) previous).copy();
+        } else {
+            next = new Autocomplete(previous.numberSuggestions());
+            for (ITerm term : previous.getSuggestions("")) {
+                next.addWord(term.getTerm(), ((Term) term).getWeight());
+            }
+        }
+        for (Map.Entry<String, Long> word : words.entrySet()) {
+            next.addWord(word.getKey(), word.getValue());
+        }
+        swap(next);
+    }
+
+    /**
+     * Load a new dictionary from a file and publish it: an
+     * {@link FSTDictionary} file is mapped, a text file is loaded into an
+     * {@link Autocomplete} trie. The previous dictionary keeps answering
+     * lookups until the new one is loaded, and afterwards if the file
+     * cannot be loaded: nothing is published then.
+     *
+     * @return the root of the new dictionary, or null if the file could not
+     *         be loaded
+     */
+    @Override
+    public synchronized Node buildTrie(String filename, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k cannot be negative");
+        }
+        Node root;
+        IAutocomplete next;
+        try {
+            if (FSTDictionary.isDictionary(Paths.get(filename))) {
+                FSTAutocomplete fst = new FSTAutocomplete();
+                root = fst.load(filename, k);
+                next = fst;
+            } else {
+                Autocomplete trie = new Autocomplete();
+                root = trie.load(filename, k);
+                next = trie;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        swap(next);
+        return root;
+    }
+
+    @Override
+    public int numberSuggestions() {
+        return current.get().numberSuggestions();
+    }
+
+    @Override
+    public Node getSubTrie(String prefix) {
+        return current.get().getSubTrie(prefix);
+    }
+
+    @Override
+    public int countPrefixes(String prefix) {
+        return current.get().countPrefixes(prefix);
+    }
+
+    @Override
+    public List<ITerm> getSuggestions(String prefix) {
+        return current.get().getSuggestions(prefix);
+    }
+
+    @Override
+    public List<ITerm> topSuggestions(String prefix) {
+        return current.get().topSuggestions(prefix);
+    }
+
+    @Override
+    public List<ITerm> fuzzySuggestions(String prefix, int maxEdits) {
+        return current.get().fuzzySuggestions(prefix, maxEdits);
+    }
+}
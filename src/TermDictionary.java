@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * A dictionary assigning dense int ids (0, 1, 2, ...) to strings in the
+ * order they are first added. The ids index a plain String array and the
+ * lookup table is an open-addressing int array, so no boxed Integer or
+ * map entry is allocated per string.
+ */
+public class TermDictionary {
+
+    // id -> string
+    private String[] strings;
+    // open-addressing table of id + 1 (0 marks an empty slot)
+    private int[] slots;
+    private int size;
+
+    public TermDictionary() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize the number of strings expected, used to presize
+     *                     the tables
+     */
+    public TermDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        strings = new String[Math.max(16, expectedSize)];
+        slots = new int[capacity];
+    }
+
+    /**
+     * Add a string if it is not in the dictionary yet.
+     *
+     * @param s the string to add
+     * @return the id of the string
+     */
+    public int add(String s) {
+        int slot = find(s);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == strings.length) {
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size] = s;
+        slots[slot] = ++size;
+        // keep the table at most half full
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return size - 1;
+    }
+
+    /**
+     * @param s a string
+     * @return the id of the string, or -1 if it is not in the dictionary
+     */
+    public int id(String s) {
+        return slots[find(s)] - 1;
+    }
+
+    /**
+     * @param id an id returned by add
+     * @return the string with this id
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No string with id " + id);
+        }
+        return strings[id];
+    }
+
+    /**
+     * @return the number of strings in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * helper method to find the slot holding s, or the empty slot where it
+     * should be inserted.
+     */
+    private int find(String s) {
+        int mask = slots.length - 1;
+        int slot = mix(s.hashCode()) & mask;
+        while (slots[slot] != 0 && !strings[slots[slot] - 1].equals(s)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(strings[id].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    // spread the bits of String.hashCode so linear probing stays short
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits the text of a document into words in a single pass, without
+ * regular expressions or copies of the text.
+ *
+ * A word is a run of characters between ASCII whitespace, lowercased, with
+ * every character other than a-z, A-Z and 0-9 dropped ("Don't" gives
+ * "dont"), as the original replaceAll/toLowerCase/split did. Runs with no
+ * letter or digit left give no word.
+ *
+ * The words are counted as they are read: each distinct word of the
+ * document is stored once, with a term id and a count, and the document is
+ * kept as the sequence of its term ids. A word seen before costs no
+ * allocation.
+ */
+final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param text the text of a document
+     * @return the words of the text, in order
+     */
+    static Tokens tokenize(CharSequence text) {
+        Tokens tokens = new Tokens();
+        char[] buf = new char[32];
+        int len = 0;
+        int hash = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (!(c >= 'a' && c <= 'z' || c >= '0' && c <= '9')) {
+                if (isSpace(c) && len > 0) {
+                    tokens.add(buf, len, hash);
+                    len = 0;
+                    hash = 0;
+                }
+                continue;
+            }
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+            }
+            buf[len++] = c;
+            hash = 31 * hash + c;
+        }
+        if (len > 0) {
+            tokens.add(buf, len, hash);
+        }
+        return tokens;
+    }
+
+    // the whitespace of the regex \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * The words of a document, and the times each one appears. As a list,
+     * it is the words in order; it cannot be modified.
+     */
+    static final class Tokens extends AbstractList<String> {
+        // the distinct words, by term id, and their counts
+        private String[] terms = new String[16];
+        private int[] counts = new int[16];
+        private int distinct;
+        // the term id of each word of the document
+        private int[] ids = new int[64];
+        private int size;
+        // open addressing on the words: term id + 1, or 0 if free
+        private int[] table = new int[32];
+
+        Tokens() {
+        }
+
+        /**
+         * The words of a document, as saved: its distinct words and the
+         * term id of each word.
+         *
+         * @throws IllegalArgumentException if a term id is out of range
+         */
+        Tokens(String[] terms, int[] ids) {
+            this.terms = terms.clone();
+            this.counts = new int[terms.length];
+            this.distinct = terms.length;
+            this.ids = ids.clone();
+            this.size = ids.length;
+            for (int id : ids) {
+                if (id < 0 || id >= distinct) {
+                    throw new IllegalArgumentException("term id out of range: " + id);
+                }
+                counts[id]++;
+            }
+            int capacity = 32;
+            while (capacity < distinct * 2) {
+                capacity *= 2;
+            }
+            table = new int[capacity / 2];
+            rehash();
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return terms[ids[index]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return the number of distinct words
+         */
+        int distinct() {
+            return distinct;
+        }
+
+        /**
+         * @return the times that each word appears in the document
+         */
+        Map<String, Integer> counts() {
+            Map<String, Integer> res = new HashMap<>(distinct * 4 / 3 + 1);
+            for (int id = 0; id < distinct; id++) {
+                res.put(terms[id], counts[id]);
+            }
+            return res;
+        }
+
+        /**
+         * helper method to count a word, given by its characters and their
+         * String hash code.
+         */
+        private void add(char[] buf, int len, int hash) {
+            int mask = table.length - 1;
+            int slot = mix(hash) & mask;
+            int id;
+            while (true) {
+                int entry = table[slot];
+                if (entry == 0) {
+                    id = newTerm(new String(buf, 0, len), slot);
+                    break;
+                }
+                String term = terms[entry - 1];
+                if (term.hashCode() == hash && equals(term, buf, len)) {
+                    id = entry - 1;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            counts[id]++;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        private int newTerm(String term, int slot) {
+            if (distinct == terms.length) {
+                terms = Arrays.copyOf(terms, distinct * 2);
+                counts = Arrays.copyOf(counts, distinct * 2);
+            }
+            int id = distinct++;
+            terms[id] = term;
+            table[slot] = id + 1;
+            // keep the table at most half full
+            if (distinct * 2 > table.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < distinct; id++) {
+                int slot = mix(terms[id].hashCode()) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        private static boolean equals(String term, char[] buf, int len) {
+            if (term.length() != len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (term.charAt(i) != buf[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}